@@ -0,0 +1,63 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.jsoup.Jsoup;
+import org.jsoup.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.icf.iglistchanger.ColumnSpec;
+import com.icf.iglistchanger.ExtractionMemo;
+
+/**
+ * Measures extracting a single cell value from a parsed resource, for each kind of newColumn spec: string, object, array with nth (first, last
+ * and a number), maxLen and regex, and a path expression (a where() filter of an array, and a deeper path through two arrays). extractMemoized
+ * measures the same values found in an ExtractionMemo, as a descriptor finds a value another descriptor has already extracted. (Cell values are extracted by ColumnSpec.extract, which replaced Controller.getResourceFieldValue.)
+ *
+ * @author Dan Donahue
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmark {
+
+	@Param({ "string", "object", "arrayFirst", "arrayLast", "arrayNth", "arrayMaxLen", "arrayRegex", "path", "pathDeep" })
+	public String kind;
+
+	private ColumnSpec spec;
+	private JSONObject resource;
+	private ExtractionMemo memo;
+
+	@Setup
+	public void setUp() {
+		this.spec = new ColumnSpec(Jsoup.parse(Fixtures.newColumn(this.kind), "", Parser.xmlParser()).getElementsByTag("newColumn").first());
+		this.resource = Fixtures.resource(7, 0);
+		this.memo = new ExtractionMemo();
+		this.memo.extract(this.spec, this.resource);
+	}
+
+	@Benchmark
+	public String extract() {
+		return this.spec.extract(this.resource);
+	}
+
+	@Benchmark
+	public String extractMemoized() {
+		return this.memo.extract(this.spec, this.resource);
+	}
+}
@@ -0,0 +1,226 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+import com.icf.iglistchanger.Log;
+
+/**
+ * Synthetic IG fixtures for the benchmarks: a generated html page holding a table of measures, a resource directory holding the Measure json file
+ * for each row of the table, and a table-descriptor that alters the table using every kind of newColumn spec.
+ *
+ * <p>The fixtures are shaped like the output of the IG tooling - each row's first cell links to the measure's page, and each resource has the
+ * identifier, effectivePeriod and contact fields the descriptors read - but are generated from a fixed seed, so every run sees the same files.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public final class Fixtures {
+
+	/** The padding added to each resource for the "large" resource size - about the size of the base64 encoded CQL and ELM of a real Library. */
+	public static final int LARGE_RESOURCE_PAD = 4 * 1024 * 1024;
+
+	private static final PrintStream STDOUT = System.out;
+	private static final PrintStream STDERR = System.err;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Creates an empty temporary directory for a benchmark's fixtures
+	 *
+	 * @return the directory
+	 * @throws IOException if the directory can't be created
+	 */
+	public static Path createDir() throws IOException {
+		return Files.createTempDirectory("iglistchanger-bench");
+	}
+
+	/**
+	 * Deletes the given fixture directory and everything in it
+	 *
+	 * @param dir - a directory returned by createDir()
+	 * @throws IOException if a file can't be deleted
+	 */
+	public static void delete(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(dir)) {
+			Object[] all = paths.sorted(Comparator.reverseOrder()).toArray();
+			for (Object path : all) {
+				Files.delete((Path) path);
+			}
+		}
+	}
+
+	/**
+	 * Returns the synthetic Measure resource for the given row
+	 *
+	 * @param row - the row number
+	 * @param padBytes - the number of characters of base64 content to add to the resource. 0 for a small resource.
+	 * @return the resource
+	 */
+	public static JSONObject resource(int row, int padBytes) {
+		Random random = new Random(row);
+		String id = String.format("Measure%05d", row);
+		JSONObject measure = new JSONObject();
+		measure.put("resourceType", "Measure");
+		measure.put("id", id);
+		measure.put("url", "http://ecqi.healthit.gov/ecqms/Measure/" + id);
+		measure.put("name", id + "Name");
+		measure.put("title", "Measure " + row);
+		measure.put("identifier", new JSONArray()
+				.put(new JSONObject().put("system", "urn:ietf:rfc:3986").put("value", "urn:uuid:" + new UUID(random.nextLong(), random.nextLong())))
+				.put(new JSONObject().put("system", "http://ecqi.healthit.gov/ecqms/Measure/cms").put("value", "CMS" + row + "FHIR"))
+				.put(new JSONObject().put("system", "http://ecqi.healthit.gov/ecqms/Measure/nqf").put("value", Integer.toString(row % 10000))));
+		measure.put("effectivePeriod", new JSONObject().put("start", "2022-01-01").put("end", "2022-12-31"));
+		measure.put("contact", new JSONArray().put(new JSONObject().put("telecom", new JSONArray().put(new JSONObject().put("system", "url").put("value", "https://cms.gov")))));
+		if (padBytes > 0) {
+			char[] base64 = new char[padBytes];
+			String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+			for (int i = 0; i < base64.length; i++) {
+				base64[i] = alphabet.charAt(random.nextInt(64));
+			}
+			measure.put("content", new JSONArray().put(new JSONObject().put("contentType", "text/cql").put("data", new String(base64))));
+		}
+		return measure;
+	}
+
+	/**
+	 * Writes the resource for each of the given number of rows into the given directory, one file per resource.
+	 * The files are named so that the directory listing order matches the row order.
+	 *
+	 * @param dir - the resource directory
+	 * @param rows - the number of resources
+	 * @param padBytes - the number of characters of base64 content to add to each resource
+	 * @throws IOException if a file can't be written
+	 */
+	public static void writeResources(Path dir, int rows, int padBytes) throws IOException {
+		Files.createDirectories(dir);
+		for (int row = 0; row < rows; row++) {
+			writeResource(dir.resolve(String.format("Measure%05d.json", row)), row, padBytes);
+		}
+	}
+
+	/**
+	 * Writes the resource for the given row to the given file
+	 *
+	 * @param file - the file to write
+	 * @param row - the row number
+	 * @param padBytes - the number of characters of base64 content to add to the resource
+	 * @throws IOException if the file can't be written
+	 */
+	public static void writeResource(Path file, int row, int padBytes) throws IOException {
+		Files.write(file, resource(row, padBytes).toString(2).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes a generated html page, with a measure table of the given number of rows as its first table
+	 *
+	 * @param file - the page to write
+	 * @param rows - the number of rows in the table
+	 * @throws IOException if the page can't be written
+	 */
+	public static void writePage(Path file, int rows) throws IOException {
+		StringBuilder html = new StringBuilder(256 * rows + 1024);
+		html.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		html.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" lang=\"en\">\n<head>\n  <title>Measures</title>\n");
+		html.append("  <link rel=\"stylesheet\" href=\"assets/css/bootstrap.css\"/>\n  <link rel=\"stylesheet\" href=\"assets/css/fhir.css\"/>\n");
+		html.append("  <script src=\"assets/js/jquery.js\"></script>\n</head>\n<body>\n  <div class=\"col-12\">\n");
+		html.append("  <p>These are the measures defined by this implementation guide.</p>\n");
+		html.append("  <table class=\"grid\">\n    <thead>\n      <tr><th>Title</th><th>Description</th></tr>\n    </thead>\n    <tbody>\n");
+		for (int row = 0; row < rows; row++) {
+			String id = String.format("Measure%05d", row);
+			html.append("      <tr>\n        <td><a href=\"Measure-").append(id).append(".html\">Measure ").append(row).append("</a></td>\n");
+			html.append("        <td>The percentage of patients 18-85 years of age who had a diagnosis of hypertension, for measure ").append(row).append(".</td>\n      </tr>\n");
+		}
+		html.append("    </tbody>\n  </table>\n  </div>\n</body>\n</html>\n");
+		Files.write(file, html.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns a table-descriptor that alters the first table of the given page, adding a column for each kind of newColumn spec
+	 *
+	 * @param page - the generated html page
+	 * @param resourceDir - the resource directory
+	 * @param output - the file to write the altered page to
+	 * @return the table-descriptor element
+	 */
+	public static Element descriptor(Path page, Path resourceDir, Path output) {
+		String xml = "<table-descriptors><table-descriptor>"
+				+ "<generatedHTMLFile>" + page + "</generatedHTMLFile>"
+				+ "<outputHTMLFile>" + output + "</outputHTMLFile>"
+				+ "<targetTablePos>0</targetTablePos>"
+				+ "<resourceDirectory>" + resourceDir + "</resourceDirectory>"
+				+ "<oldColumn oldPos=\"0\" action=\"keep\"></oldColumn>"
+				+ newColumn("string") + newColumn("object") + newColumn("arrayFirst") + newColumn("arrayLast")
+				+ newColumn("arrayNth") + newColumn("arrayMaxLen") + newColumn("arrayRegex")
+				+ "<oldColumn oldPos=\"1\" action=\"keep\"></oldColumn>"
+				+ "</table-descriptor></table-descriptors>";
+		return Jsoup.parse(xml, "", Parser.xmlParser()).getElementsByTag("table-descriptor").first();
+	}
+
+	/**
+	 * Returns a newColumn spec element of the given kind, reading a field every fixture resource has
+	 *
+	 * @param kind - one of string, object, arrayFirst, arrayLast, arrayNth, arrayMaxLen, arrayRegex, path or pathDeep
+	 * @return the newColumn element, as xml text
+	 */
+	public static String newColumn(String kind) {
+		String attrs;
+		switch (kind) {
+			case "string" :      attrs = "resourceField=\"name\" type=\"string\""; break;
+			case "object" :      attrs = "resourceField=\"effectivePeriod\" subField=\"start\" type=\"object\""; break;
+			case "arrayFirst" :  attrs = "resourceField=\"identifier\" subField=\"value\" type=\"array\" nth=\"first\""; break;
+			case "arrayLast" :   attrs = "resourceField=\"identifier\" subField=\"value\" type=\"array\" nth=\"last\""; break;
+			case "arrayNth" :    attrs = "resourceField=\"identifier\" subField=\"value\" type=\"array\" nth=\"1\""; break;
+			case "arrayMaxLen" : attrs = "resourceField=\"identifier\" subField=\"value\" type=\"array\" maxLen=\"4\""; break;
+			case "arrayRegex" :  attrs = "resourceField=\"identifier\" subField=\"value\" type=\"array\" regex=\"CMS.*FHIR\""; break;
+			case "path" :        attrs = "path=\"identifier.where(system='http://ecqi.healthit.gov/ecqms/Measure/cms').value\""; break;
+			case "pathDeep" :    attrs = "path=\"Measure.contact.telecom.where(system='url').value\""; break;
+			default : throw new IllegalArgumentException("Unknown newColumn kind: " + kind);
+		}
+		return "<newColumn afterPos=\"0\" label=\"" + kind + "\" " + attrs + " default=\"-\"></newColumn>";
+	}
+
+	/**
+	 * Stops the application's progress messages from being printed, so they aren't measured along with the work. (JMH reports its results separately.)
+	 */
+	public static void quiet() {
+		PrintStream none = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		System.setOut(none);
+		System.setErr(none);
+	}
+
+	/**
+	 * Restores the output streams silenced by quiet()
+	 */
+	public static void restore() {
+		Log.flush();                                                 // The app's messages are written by a background thread, so let it finish first
+		System.setOut(STDOUT);
+		System.setErr(STDERR);
+	}
+}
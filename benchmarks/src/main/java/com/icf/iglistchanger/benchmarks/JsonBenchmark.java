@@ -0,0 +1,70 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.icf.iglistchanger.FileUtils;
+import com.icf.iglistchanger.JsonProjection;
+import com.icf.iglistchanger.TableAlterTask;
+
+/**
+ * Measures reading a single resource file, for a small (a few KB) and a large (multi-MB) resource: parsing the whole file with FileUtils.parseJsonFile,
+ * and reading just the fields the benchmark descriptor's columns use with a JsonProjection (as the -streamJson option does).
+ *
+ * @author Dan Donahue
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+	@Param({ "small", "large" })
+	public String size;
+
+	private Path dir;
+	private String file;
+	private JsonProjection projection;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.dir = Fixtures.createDir();
+		Path path = this.dir.resolve("Measure00007.json");
+		Fixtures.writeResource(path, 7, "large".equals(this.size) ? Fixtures.LARGE_RESOURCE_PAD : 0);
+		this.file = path.toString();
+		this.projection = new TableAlterTask(Fixtures.descriptor(path, this.dir, path), 0, "benchmark").getProjection();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(this.dir);
+	}
+
+	@Benchmark
+	public JSONObject parseJsonFile() {
+		return FileUtils.parseJsonFile(this.file);
+	}
+
+	@Benchmark
+	public JSONObject projectedRead() throws IOException {
+		return this.projection.read(this.file);
+	}
+}
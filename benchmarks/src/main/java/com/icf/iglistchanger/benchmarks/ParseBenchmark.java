@@ -0,0 +1,60 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.icf.iglistchanger.FileUtils;
+
+/**
+ * Measures reading and parsing a generated html page - FileUtils.parseXHtmlFile - for tables of 100, 1,000 and 10,000 rows.
+ *
+ * @author Dan Donahue
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int rows;
+
+	private Path dir;
+	private String page;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.dir = Fixtures.createDir();
+		Path file = this.dir.resolve("measures.html");
+		Fixtures.writePage(file, this.rows);
+		this.page = file.toString();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(this.dir);
+	}
+
+	@Benchmark
+	public Document parseXHtmlFile() {
+		return FileUtils.parseXHtmlFile(this.page);
+	}
+}
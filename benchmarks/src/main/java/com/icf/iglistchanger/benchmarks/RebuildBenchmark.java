@@ -0,0 +1,81 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.icf.iglistchanger.FileUtils;
+import com.icf.iglistchanger.ResourceSet;
+import com.icf.iglistchanger.TableAlterTask;
+
+/**
+ * Measures rebuilding a table - TableAlterTask.processTableHeader() followed by processTableRows() - for tables of 100, 1,000 and 10,000 rows,
+ * with seven new columns (one of each kind of newColumn spec). The page and resources are read once, before the measurements, so only the
+ * rebuild is measured. (The rebuild moves the kept cells out of the page's table, so each rebuild is given a fresh copy of the page, made outside
+ * of the measurement.)
+ *
+ * @author Dan Donahue
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RebuildBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int rows;
+
+	private Path dir;
+	private Document page;
+	private ResourceSet resources;
+	private TableAlterTask task;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.dir = Fixtures.createDir();
+		Path page = this.dir.resolve("measures.html");
+		Path resources = this.dir.resolve("measure");
+		Fixtures.writePage(page, this.rows);
+		Fixtures.writeResources(resources, this.rows, 0);
+		Fixtures.quiet();
+		this.page = FileUtils.parseXHtmlFile(page.toString());
+		this.resources = ResourceSet.load(resources.toString());
+		this.task = new TableAlterTask(Fixtures.descriptor(page, resources, this.dir.resolve("out.html")), 0, "benchmark");
+	}
+
+	@Setup(Level.Invocation)
+	public void loadPage() {
+		this.task.load(this.page.clone(), this.resources);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.restore();
+		Fixtures.delete(this.dir);
+	}
+
+	@Benchmark
+	public TableAlterTask rebuildTable() {
+		this.task.processTableHeader();
+		this.task.processTableRows();
+		return this.task;
+	}
+}
@@ -0,0 +1,120 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cold start of the app: the wall time of a whole process that runs a small control file (one table of 20 rows), launched as:
+ * <ul>
+ * <li><b>jar</b>  java -jar, with the JVM's defaults</li>
+ * <li><b>jar-c1</b>  java -jar -XX:TieredStopAtLevel=1</li>
+ * <li><b>appcds</b>  java -jar, with the AppCDS archive built by mvn package -Pappcds</li>
+ * <li><b>appcds-c1</b>  the AppCDS archive and -XX:TieredStopAtLevel=1 - as bin/iglistchanger runs it</li>
+ * <li><b>native</b>  the native image built by mvn package -Pnative</li>
+ * </ul>
+ *
+ * <p>The app is found in the target folder of the application project: ".." (i.e. run from the benchmarks folder), unless set with
+ * -Diglistchanger.home. Build the application first, with the profiles for the launches to compare, and select them with -p, e.g.
+ * java -jar target/benchmarks.jar StartupBenchmark -p launch=jar,appcds-c1. A launch whose files haven't been built fails its setup.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+	private static final int ROWS = 20;
+
+	@Param({ "jar", "jar-c1", "appcds", "appcds-c1", "native" })
+	public String launch;
+
+	private Path dir;
+	private File log;
+	private List<String> command;
+
+	@Setup
+	public void setUp() throws IOException {
+		File target = new File(System.getProperty("iglistchanger.home", ".."), "target").getCanonicalFile();
+		File jar = new File(target, "IGListChanger-0.0.1-SNAPSHOT-jar-with-dependencies.jar");
+		File archive = new File(target, "IGListChanger.jsa");
+		File image = new File(target, File.separatorChar == '\\' ? "iglistchanger.exe" : "iglistchanger");
+
+		this.command = new ArrayList<String>();
+		if ("native".equals(this.launch)) {
+			require(image, "mvn package -Pnative");
+			this.command.add(image.getPath());
+		}
+		else {
+			require(jar, "mvn package");
+			this.command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+			if (this.launch.startsWith("appcds")) {
+				require(archive, "mvn package -Pappcds");
+				this.command.add("-XX:SharedArchiveFile=" + archive.getPath());
+				this.command.add("-Xshare:on");                      // Fail, rather than quietly measure a run without the archive
+			}
+			if (this.launch.endsWith("-c1")) {
+				this.command.add("-XX:TieredStopAtLevel=1");
+			}
+			this.command.add("-jar");
+			this.command.add(jar.getPath());
+		}
+
+		this.dir = Fixtures.createDir();
+		Path page = this.dir.resolve("measures.html");
+		Path resources = this.dir.resolve("resources");
+		Fixtures.writePage(page, ROWS);
+		Fixtures.writeResources(resources, ROWS, 0);
+		String control = "<table-descriptors>" + Fixtures.descriptor(page, resources, this.dir.resolve("measures-new.html")).outerHtml() + "</table-descriptors>";
+		Path controlFile = this.dir.resolve("TableAlterDescriptors.xml");
+		Files.write(controlFile, control.getBytes(StandardCharsets.UTF_8));
+		this.command.add("-workers");
+		this.command.add("1");
+		this.command.add(controlFile.toString());
+		this.log = this.dir.resolve("run.log").toFile();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(this.dir);
+	}
+
+	@Benchmark
+	public int run() throws IOException, InterruptedException {
+		Process process = new ProcessBuilder(this.command).redirectErrorStream(true).redirectOutput(this.log).start();
+		int exitCode = process.waitFor();
+		if (exitCode != 0) {
+			throw new IllegalStateException("The " + this.launch + " run exited with " + exitCode + ". See " + this.log);
+		}
+		return exitCode;
+	}
+
+	private void require(File file, String build) {
+		if (!file.isFile()) {
+			throw new IllegalStateException("'" + file + "' was not found. Build it with '" + build + "' to measure the " + this.launch + " launch.");
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.icf.iglistchanger.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.icf.iglistchanger.FileUtils;
+
+/**
+ * Measures serializing and writing a parsed html page - FileUtils.writeXHtmlFile - for tables of 100, 1,000 and 10,000 rows.
+ *
+ * @author Dan Donahue
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int rows;
+
+	private Path dir;
+	private Document doc;
+	private String output;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.dir = Fixtures.createDir();
+		Path page = this.dir.resolve("measures.html");
+		Fixtures.writePage(page, this.rows);
+		this.doc = FileUtils.parseXHtmlFile(page.toString());
+		this.output = this.dir.resolve("measures-new.html").toString();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(this.dir);
+	}
+
+	@Benchmark
+	public boolean writeXHtmlFile() {
+		return FileUtils.writeXHtmlFile(this.doc, this.output);
+	}
+}
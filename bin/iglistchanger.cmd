@@ -0,0 +1,27 @@
+@echo off
+rem
+rem Runs IGListChanger with the fastest startup that has been built: the native image (mvn package -Pnative) if there is one, otherwise the
+rem jar-with-dependencies, with its AppCDS archive (mvn package -Pappcds) if there is one. The arguments are passed on to the app, and the app's
+rem exit code is returned.
+rem
+rem The JVM is started with IGLISTCHANGER_JAVA_OPTS, which defaults to -XX:TieredStopAtLevel=1: a short run finishes before the optimizing compiler
+rem pays off. For very large IGs, set IGLISTCHANGER_JAVA_OPTS to other JVM options (e.g. -Xshare:auto) to use the JVM's defaults.
+rem
+setlocal
+for %%I in ("%~dp0..") do set "HOME_DIR=%%~fI"
+set "NATIVE=%HOME_DIR%\target\iglistchanger.exe"
+set "JAR=%HOME_DIR%\target\IGListChanger-0.0.1-SNAPSHOT-jar-with-dependencies.jar"
+set "ARCHIVE=%HOME_DIR%\target\IGListChanger.jsa"
+
+if exist "%NATIVE%" (
+	"%NATIVE%" %*
+	exit /b %ERRORLEVEL%
+)
+
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+set "CDS="
+if exist "%ARCHIVE%" set "CDS=-XX:SharedArchiveFile=%ARCHIVE%"
+if not defined IGLISTCHANGER_JAVA_OPTS set "IGLISTCHANGER_JAVA_OPTS=-XX:TieredStopAtLevel=1"
+"%JAVA%" %IGLISTCHANGER_JAVA_OPTS% %CDS% -jar "%JAR%" %*
+exit /b %ERRORLEVEL%
@@ -0,0 +1,436 @@
+package com.icf.iglistchanger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.parser.Parser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long-running HTTP service that alters pages on request - e.g. for a preview server that alters each page as it is rendered, rather than starting
+ * the app for every page. Parsed table-descriptors (with their compiled column plans) and parsed resource directories are kept between requests, so a
+ * request only costs parsing, altering and serializing its page.
+ *
+ * <p>The service is built on the JDK's com.sun.net.httpserver, and handles requests on a fixed size pool of threads. Its endpoints are:</p>
+ * <ul>
+ * <li><b>POST /alter</b>  alters a page, and returns it as text/html. The request body is a JSON object with:
+ *   <ul>
+ *   <li><b>descriptors</b>  the text of a control file (or of a single table-descriptor element), or <b>controlFile</b>  the pathname of a control file</li>
+ *   <li><b>html</b>  the text of the page to alter, or <b>htmlFile</b>  the pathname of the page. If neither is given, the page is the
+ *   generatedHTMLFile of the first table-descriptor.</li>
+ *   </ul>
+ *   Each table-descriptor reads its resourceDirectory (relative to the service's working directory) through the shared ResourceCache. The
+ *   outputHTMLFile elements are ignored: nothing is written. The X-Tables-Altered response header tells how many of the table-descriptors found their
+ *   target table, e.g. "2 of 2". A request that can't be read is answered with 400 (or 413 if it is too large), and the reason, as text/plain.</li>
+ * <li><b>GET /health</b>  200, with a JSON object holding the status ("UP") and the uptime</li>
+ * <li><b>GET /metrics</b>  a JSON object holding the request counts and times, and the hit and miss counts of the descriptor and resource caches</li>
+ * </ul>
+ *
+ * <p>Since the service runs until it is stopped, repeated ERROR and WARN messages are summarized (see com.icf.iglistchanger.Log) once a minute, by a
+ * timer thread of the service's own, and once more when the service stops. A message that repeats within a minute is written once, with its count,
+ * and a message logged again in a later minute is written again. (Summarizing at the end of each request would report - and forget - the counts of
+ * the other requests still being handled.)</p>
+ *
+ * <p>Parsed control file text is kept in a small least-recently-used cache, keyed by the text (or, for a controlFile, by its pathname, size and
+ * modification time, so an edited control file is parsed again).</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class AlterService {
+
+	/** The port the service listens on, when none is given */
+	public static final int DEFAULT_PORT = 8080;
+	/** The host the service listens on, when none is given. Only local clients can connect, since a request may name any file the service can read. */
+	public static final String DEFAULT_HOST = "127.0.0.1";
+
+	private static final int MAX_REQUEST_BYTES = 64 * 1024 * 1024;     // Larger request bodies are refused, rather than read into memory
+	private static final int DESCRIPTOR_CACHE_SIZE = 256;              // The most distinct control file texts kept parsed
+	private static final long SUMMARY_SECONDS = 60;                    // How often repeated log messages are summarized
+
+	private ResourceCache resourceCache = null;              // Shared by every request, so each resource directory is only parsed once
+	private int threads = 1;                                 // The number of requests handled at once
+	private HttpServer server = null;
+	private ExecutorService pool = null;
+	private ScheduledExecutorService summarizer = null;      // Summarizes the repeated log messages of every request, every SUMMARY_SECONDS
+	private long started = 0;                                // When the service started, in milliseconds since the epoch
+
+	private Map<String, List<TableAlterDescriptor>> descriptorCache = new LinkedHashMap<String, List<TableAlterDescriptor>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<TableAlterDescriptor>> eldest) {
+			return size() > DESCRIPTOR_CACHE_SIZE;
+		}
+	};                                                       // In least-recently-used order. Guarded by itself.
+	private long descriptorHits = 0;                         // Guarded by descriptorCache
+	private long descriptorMisses = 0;                       // Guarded by descriptorCache
+
+	private AtomicLong requests = new AtomicLong();          // The /alter requests received
+	private AtomicLong altered = new AtomicLong();           // The requests whose table-descriptors all found their target tables
+	private AtomicLong partial = new AtomicLong();           // The requests answered with a page in which some target tables were not found
+	private AtomicLong rejected = new AtomicLong();          // The requests answered with 4xx
+	private AtomicLong failed = new AtomicLong();            // The requests answered with 500
+	private AtomicInteger inFlight = new AtomicInteger();
+	private AtomicLong totalNanos = new AtomicLong();        // The total time spent handling /alter requests
+	private AtomicLong maxNanos = new AtomicLong();          // The longest time spent handling an /alter request
+
+	/**
+	 * Creates a service that reads resource directories through the given cache, and handles the given number of requests at once.
+	 *
+	 * @param resourceCache - the cache every request's table-descriptors read their resource directories through
+	 * @param threads - the number of requests to handle at once. If less than 1, the number of available processors is used.
+	 */
+	public AlterService(ResourceCache resourceCache, int threads) {
+		super();
+		this.resourceCache = resourceCache;
+		this.threads = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+
+	/**
+	 * Starts listening for requests. The service runs on threads of its own, until stop() is called.
+	 *
+	 * @param host - the host name or address to listen on, e.g. "127.0.0.1" for local clients only, or "0.0.0.0" for any client
+	 * @param port - the port to listen on
+	 * @return true if the service started, false otherwise
+	 */
+	public boolean start(String host, int port) {
+		try {
+			this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		}
+		catch (Exception e) {
+			Log.error("    ERROR: Unable to listen on " + host + ":" + port + ". " + e.getMessage());
+			return false;
+		}
+		this.server.createContext("/alter", new Endpoint("/alter", "POST") {
+			void respond(HttpExchange exchange) throws Exception {
+				alter(exchange);
+			}
+		});
+		this.server.createContext("/health", new Endpoint("/health", "GET") {
+			void respond(HttpExchange exchange) throws Exception {
+				JSONObject health = new JSONObject();
+				health.put("status", "UP");
+				health.put("uptimeMillis", System.currentTimeMillis() - AlterService.this.started);
+				send(exchange, 200, "application/json", health.toString());
+			}
+		});
+		this.server.createContext("/metrics", new Endpoint("/metrics", "GET") {
+			void respond(HttpExchange exchange) throws Exception {
+				send(exchange, 200, "application/json", getMetrics().toString(2));
+			}
+		});
+		this.server.createContext("/", new Endpoint("/", null) {
+			void respond(HttpExchange exchange) throws Exception {
+				send(exchange, 404, "text/plain", "Not found. Use POST /alter, GET /health or GET /metrics.");
+			}
+		});
+		this.pool = Executors.newFixedThreadPool(this.threads);
+		this.server.setExecutor(this.pool);
+		this.summarizer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "iglistchanger-log-summary");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.summarizer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				Log.summarize();
+			}
+		}, SUMMARY_SECONDS, SUMMARY_SECONDS, TimeUnit.SECONDS);
+		this.started = System.currentTimeMillis();
+		this.server.start();
+		Log.info("Serving http://" + host + ":" + this.server.getAddress().getPort() + "/alter with " + this.threads + " thread(s)");
+		return true;
+	}
+
+	/**
+	 * Stops listening, waits a moment for the requests being handled to complete, then stops the service's threads.
+	 */
+	public void stop() {
+		if (this.server != null) {
+			this.server.stop(1);
+			this.pool.shutdown();
+			try {
+				this.pool.awaitTermination(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.summarizer.shutdownNow();
+			Log.summarize();                                     // The repeats of the last requests
+			this.server = null;
+		}
+	}
+
+	/**
+	 * @return the address the service listens on (e.g. to find the port chosen when started with port 0), or null if it is not running
+	 */
+	public InetSocketAddress getAddress() {
+		return (this.server == null) ? null : this.server.getAddress();
+	}
+
+	/**
+	 * Returns the service's metrics: the number of /alter requests, by outcome, the time spent handling them, and the hit and miss counts of the
+	 * descriptor and resource caches.
+	 *
+	 * @return the metrics as a JSONObject
+	 */
+	public JSONObject getMetrics() {
+		JSONObject requestsJSON = new JSONObject();
+		long count = this.requests.get();
+		requestsJSON.put("total", count);
+		requestsJSON.put("altered", this.altered.get());
+		requestsJSON.put("partial", this.partial.get());
+		requestsJSON.put("rejected", this.rejected.get());
+		requestsJSON.put("failed", this.failed.get());
+		requestsJSON.put("inFlight", this.inFlight.get());
+		requestsJSON.put("totalMillis", this.totalNanos.get() / 1000000);
+		requestsJSON.put("meanMillis", (count == 0) ? 0 : (double) this.totalNanos.get() / count / 1000000);
+		requestsJSON.put("maxMillis", this.maxNanos.get() / 1000000);
+
+		JSONObject descriptorsJSON = new JSONObject();
+		synchronized (this.descriptorCache) {
+			descriptorsJSON.put("hits", this.descriptorHits);
+			descriptorsJSON.put("misses", this.descriptorMisses);
+			descriptorsJSON.put("entries", this.descriptorCache.size());
+		}
+
+		JSONObject metrics = new JSONObject();
+		metrics.put("uptimeMillis", System.currentTimeMillis() - this.started);
+		metrics.put("threads", this.threads);
+		metrics.put("requests", requestsJSON);
+		metrics.put("descriptorCache", descriptorsJSON);
+		metrics.put("resourceCache", this.resourceCache.toJSON());
+		return metrics;
+	}
+
+	/*
+	  Handles a POST /alter request: alters the page of the request with its table-descriptors, and sends the altered page.
+	*/
+	private void alter(HttpExchange exchange) throws Exception {
+		long start = System.nanoTime();
+		this.requests.incrementAndGet();
+		this.inFlight.incrementAndGet();
+		try {
+			JSONObject request = null;
+			try {
+				request = new JSONObject(readBody(exchange));
+			}
+			catch (JSONException e) {
+				throw new RequestException(400, "The request body is not a JSON object. " + e.getMessage());
+			}
+			List<TableAlterDescriptor> descriptors = getDescriptors(request);
+			Document doc = getPage(request, descriptors.get(0));
+
+			int alteredCount = 0;
+			for (TableAlterDescriptor descriptor : descriptors) {
+				String directory = descriptor.getResourceDirectory();
+				ResourceSet resources = directory.isEmpty() ? null : this.resourceCache.get(directory, descriptor.getProjection());
+				if (TableAlterer.apply(doc, descriptor, resources)) {
+					alteredCount++;
+				}
+			}
+			(alteredCount == descriptors.size() ? this.altered : this.partial).incrementAndGet();
+
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.getResponseHeaders().set("X-Tables-Altered", alteredCount + " of " + descriptors.size());
+			exchange.sendResponseHeaders(200, 0);                       // Chunked, so the page is serialized straight into the response
+			Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8);
+			try {
+				FileUtils.writeXHtml(doc, writer);
+			}
+			finally {
+				writer.close();
+			}
+			Log.debug("Altered " + alteredCount + " of " + descriptors.size() + " table(s) in " + ((System.nanoTime() - start) / 1000000) + " ms");
+		}
+		catch (RequestException e) {
+			this.rejected.incrementAndGet();
+			Log.warn("    WARNING: An /alter request was refused. " + e.getMessage());
+			send(exchange, e.status, "text/plain", e.getMessage());
+		}
+		finally {
+			this.inFlight.decrementAndGet();
+			long elapsed = System.nanoTime() - start;
+			this.totalNanos.addAndGet(elapsed);
+			long max = this.maxNanos.get();
+			while (elapsed > max && !this.maxNanos.compareAndSet(max, elapsed)) {
+				max = this.maxNanos.get();
+			}
+		}
+	}
+
+	/*
+	  Returns the table-descriptors of the request: parsed from its descriptors text, or read from its controlFile. Parsed descriptors are cached.
+	*/
+	private List<TableAlterDescriptor> getDescriptors(JSONObject request) throws Exception {
+		String key = null;
+		String text = request.optString("descriptors", null);
+		String controlFilename = request.optString("controlFile", null);
+		if (text != null) {
+			key = "text:" + text;
+		}
+		else if (controlFilename != null) {
+			File file = new File(controlFilename);
+			if (!file.isFile()) {
+				throw new RequestException(400, "The control file '" + controlFilename + "' was not found.");
+			}
+			key = "file:" + PageJob.fileKey(controlFilename) + ":" + file.length() + ":" + file.lastModified();
+		}
+		else {
+			throw new RequestException(400, "The request has neither descriptors nor a controlFile.");
+		}
+
+		synchronized (this.descriptorCache) {
+			List<TableAlterDescriptor> descriptors = this.descriptorCache.get(key);
+			if (descriptors != null) {
+				this.descriptorHits++;
+				return descriptors;
+			}
+			this.descriptorMisses++;
+		}
+		// Parsed outside of the lock. Two requests with the same new text may both parse it, which is harmless.
+		List<TableAlterDescriptor> descriptors = TableAlterDescriptor.parseAll((text != null) ? text : FileUtils.readTextFile(controlFilename));
+		if (descriptors.isEmpty()) {
+			throw new RequestException(400, "No table-descriptor elements were found in the " + ((text != null) ? "descriptors." : "control file '" + controlFilename + "'."));
+		}
+		synchronized (this.descriptorCache) {
+			this.descriptorCache.put(key, descriptors);
+		}
+		return descriptors;
+	}
+
+	/*
+	  Returns the page of the request: parsed from its html text, or read from its htmlFile, or else from the first descriptor's generatedHTMLFile.
+	*/
+	private Document getPage(JSONObject request, TableAlterDescriptor first) throws Exception {
+		String html = request.optString("html", null);
+		if (html != null) {
+			return Jsoup.parse(html, "UTF-8", Parser.xmlParser());
+		}
+		String filename = request.optString("htmlFile", first.getGeneratedHTMLFile());
+		if (filename.isEmpty()) {
+			throw new RequestException(400, "The request has neither html nor an htmlFile, and its first table-descriptor has no generatedHTMLFile.");
+		}
+		if (!new File(filename).isFile()) {
+			throw new RequestException(400, "The html file '" + filename + "' was not found.");
+		}
+		return Jsoup.parse(FileUtils.readTextFile(filename), "UTF-8", Parser.xmlParser());
+	}
+
+	// Reads the request body as UTF-8 text, refusing bodies larger than MAX_REQUEST_BYTES
+	private static String readBody(HttpExchange exchange) throws Exception {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				body.write(buf, 0, n);
+				if (body.size() > MAX_REQUEST_BYTES) {
+					throw new RequestException(413, "The request body is larger than " + (MAX_REQUEST_BYTES / (1024 * 1024)) + " MB.");
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	// Sends a complete response with the given status and text
+	private static void send(HttpExchange exchange, int status, String contentType, String text) throws Exception {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/*
+	  A handler for one path and method (or, if the method is null, any method). Requests for other paths under the same context (e.g. /alter/x) get 404,
+	  and other methods get 405. An exception thrown by the handler is logged, and answered with 500 if the response hasn't been started.
+	*/
+	private abstract class Endpoint implements HttpHandler {
+
+		private String path = null;
+		private String method = null;                        // Null for any method
+
+		Endpoint(String path, String method) {
+			this.path = path;
+			this.method = method;
+		}
+
+		abstract void respond(HttpExchange exchange) throws Exception;
+
+		public void handle(HttpExchange exchange) {
+			try {
+				if (!this.path.equals("/") && !this.path.equals(exchange.getRequestURI().getPath())) {
+					send(exchange, 404, "text/plain", "Not found. Use POST /alter, GET /health or GET /metrics.");
+				}
+				else if (this.method != null && !this.method.equalsIgnoreCase(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", this.method);
+					send(exchange, 405, "text/plain", "Use " + this.method + " " + this.path + ".");
+				}
+				else {
+					respond(exchange);
+				}
+			}
+			catch (Throwable e) {
+				AlterService.this.failed.incrementAndGet();
+				Log.error("    ERROR: A request for " + exchange.getRequestURI() + " failed. " + e, e);
+				try {
+					send(exchange, 500, "text/plain", "The request failed. " + e);
+				}
+				catch (Throwable ignored) {
+					// The response was already started, so the client sees a truncated response
+				}
+			}
+			finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/*
+	  A request that can't be handled as asked, with the status to answer it with.
+	*/
+	private static class RequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+		private int status = 400;
+
+		RequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+}
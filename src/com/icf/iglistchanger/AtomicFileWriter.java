@@ -0,0 +1,229 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Writer that writes a UTF-8 encoded file all at once, or not at all. The text is encoded straight into a direct ByteBuffer - reused by every
+ * AtomicFileWriter on the same thread - and written to a temporary file in the target file's directory through a FileChannel. commit() then renames
+ * the temporary file over the target file, so a run that is killed part way through never leaves a half-written file behind.
+ *
+ * <p>A writer is used like this:</p>
+ * <pre>
+ * {@code
+ *   AtomicFileWriter out = new AtomicFileWriter(filename);
+ *   try {
+ *       out.write(...);
+ *       out.commit();
+ *   }
+ *   finally {
+ *       out.close();    // If commit() was not reached, the temporary file is deleted and the target file is left as it was
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>Characters that can't be encoded (e.g. unpaired surrogates) are written as '?', as PrintWriter does. An AtomicFileWriter is not thread safe.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class AtomicFileWriter extends Writer {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>();   // Each thread's idle buffer, if it has one
+
+	private File target = null;                 // The file being written
+	private File tmp = null;                    // The temporary file the text is written to, until commit()
+	private FileChannel channel = null;         // Open on the temporary file, until commit() or close()
+	private CharsetEncoder encoder = null;
+	private ByteBuffer buf = null;              // The encoded bytes not yet written to the channel
+	private int highSurrogate = -1;             // If not -1, a high surrogate that ended the last write, waiting for its low surrogate
+
+	/**
+	 * Creates a temporary file next to the given file, to write to.
+	 *
+	 * @param filename - pathname of the file to write
+	 * @throws IOException if the temporary file can't be created
+	 */
+	public AtomicFileWriter(String filename) throws IOException {
+		super();
+		this.target = new File(filename).getAbsoluteFile();
+		this.tmp = File.createTempFile("." + this.target.getName() + ".", ".tmp", this.target.getParentFile());   // (The prefix must be at least 3 characters)
+		try {
+			this.channel = FileChannel.open(this.tmp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		catch (IOException e) {
+			this.tmp.delete();
+			throw e;
+		}
+		this.encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.replaceWith(new byte[] { '?' });
+		this.buf = BUFFERS.get();
+		BUFFERS.remove();                       // (Another writer opened on this thread before this one is closed gets its own buffer)
+		if (this.buf == null) {
+			this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		((Buffer) this.buf).clear();            // (The casts to Buffer keep the class files runnable on Java 8)
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		encode(CharBuffer.wrap(cbuf, off, len));
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		encode(CharBuffer.wrap(str, off, off + len));
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		encode(CharBuffer.wrap(new char[] { (char) c }));
+	}
+
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		encode(CharBuffer.wrap((csq == null) ? "null" : csq));
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end) throws IOException {
+		encode(CharBuffer.wrap((csq == null) ? "null" : csq, start, end));
+		return this;
+	}
+
+	/**
+	 * Writes the encoded bytes held so far to the temporary file.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		drain();
+	}
+
+	/**
+	 * Finishes writing the temporary file, and renames it over the target file. (If the file system can't rename atomically, the target file is replaced.)
+	 *
+	 * @throws IOException if the file can't be written or renamed. The target file is left as it was.
+	 */
+	public void commit() throws IOException {
+		checkOpen();
+		if (this.highSurrogate >= 0) {
+			this.highSurrogate = -1;
+			put(this.encoder.replacement());
+		}
+		this.encoder.encode(CharBuffer.allocate(0), this.buf, true);
+		this.encoder.flush(this.buf);
+		drain();
+		this.channel.close();
+		this.channel = null;
+		try {
+			Files.move(this.tmp.toPath(), this.target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(this.tmp.toPath(), this.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		this.tmp = null;
+		release();
+	}
+
+	/**
+	 * Closes the writer. If commit() has not been called, the temporary file is deleted, and the target file is left as it was.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.tmp != null) {
+			try {
+				if (this.channel != null) {
+					this.channel.close();
+				}
+			}
+			finally {
+				this.channel = null;
+				this.tmp.delete();
+				this.tmp = null;
+				release();
+			}
+		}
+	}
+
+	/*
+	  Encodes the given characters into the buffer, writing the buffer to the channel whenever it fills. A high surrogate at the end of the characters
+	  is held back until the next write, so a surrogate pair split across two writes is still encoded as one character.
+	*/
+	private void encode(CharBuffer in) throws IOException {
+		checkOpen();
+		if (this.highSurrogate >= 0 && in.hasRemaining()) {
+			if (Character.isLowSurrogate(in.get(in.position()))) {
+				encodeChars(CharBuffer.wrap(new char[] { (char) this.highSurrogate, in.get() }));
+			}
+			else {
+				put(this.encoder.replacement());
+			}
+			this.highSurrogate = -1;
+		}
+		encodeChars(in);
+		if (in.hasRemaining()) {
+			this.highSurrogate = in.get();              // Only a trailing high surrogate is left unencoded
+		}
+	}
+
+	private void encodeChars(CharBuffer in) throws IOException {
+		while (true) {
+			CoderResult result = this.encoder.encode(in, this.buf, false);
+			if (result.isOverflow()) {
+				drain();
+			}
+			else if (result.isError()) {
+				result.throwException();                    // (Not expected, since errors are replaced)
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private void put(byte[] bytes) throws IOException {
+		if (this.buf.remaining() < bytes.length) {
+			drain();
+		}
+		this.buf.put(bytes);
+	}
+
+	private void drain() throws IOException {
+		((Buffer) this.buf).flip();
+		while (this.buf.hasRemaining()) {
+			this.channel.write(this.buf);
+		}
+		((Buffer) this.buf).clear();
+	}
+
+	private void checkOpen() throws IOException {
+		if (this.channel == null) {
+			throw new IOException("The file '" + this.target + "' has already been committed or closed");
+		}
+	}
+
+	// Returns the buffer to the thread, for the next writer to use
+	private void release() {
+		if (this.buf != null) {
+			((Buffer) this.buf).clear();
+			BUFFERS.set(this.buf);
+			this.buf = null;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Runs any number of control files - e.g. one per IG - one after another in a single JVM, so that they share the worker threads, the resource loader and the
+ * ResourceCache, rather than each paying for a JVM start and a cold cache.
+ *
+ * <p>Each control file is isolated from the others: a control file that is missing, has no table-descriptor elements, or fails part way through (with
+ * any exception or error) is recorded as failed, and the next control file is run regardless. A control file also fails if any of its html files
+ * was not altered and written. (Html files skipped because their inputs are unchanged - see -incremental - don't count as failures.)</p>
+ *
+ * <p>When every control file has been run, getSummary() lists the outcome of each, and getExitCode() returns the app's exit code: 0 if every control
+ * file succeeded, or 1 if any failed.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class BatchRunner {
+
+	/** The exit code when every control file succeeded */
+	public static final int EXIT_OK = 0;
+	/** The exit code when one or more control files failed */
+	public static final int EXIT_FAILED = 1;
+
+	private ResourceCache resourceCache = null;            // Shared by every control file, so a resource directory read by several IGs is parsed once
+	private DescriptorExecutor executor = null;            // Shared by every control file. Null to run the html files one at a time.
+	private boolean streamHtml = false;                    // Passed on to each PageJob
+	private boolean incremental = false;                   // If true, each control file's unchanged html files are skipped
+	private String manifestFile = null;                    // If not null, the manifest used in place of each control file's default manifest
+	private RunMetrics metrics = RunMetrics.DISABLED;      // Shared by every control file, so a single report covers the batch
+	private List<Result> results = new ArrayList<Result>(); // The outcome of each control file run, in the order they were run
+
+	/**
+	 * Creates a runner that reads resource directories through the given cache, and processes html files with the given number of workers.
+	 *
+	 * @param resourceCache - the cache every control file's table-descriptors read their resource directories through
+	 * @param workers - the number of html files to process at once. 1 processes them one at a time, in control file order.
+	 */
+	public BatchRunner(ResourceCache resourceCache, int workers) {
+		super();
+		this.resourceCache = resourceCache;
+		this.executor = (workers > 1) ? new DescriptorExecutor(workers) : null;
+	}
+
+	/**
+	 * @param streamHtml - true to rewrite pages by streaming them (see com.icf.iglistchanger.PageJob)
+	 */
+	public void setStreamHtml(boolean streamHtml) {
+		this.streamHtml = streamHtml;
+	}
+
+	/**
+	 * @param incremental - true to skip the html files whose inputs are unchanged since the last incremental run (see com.icf.iglistchanger.BuildManifest).
+	 *        Each control file's manifest is its pathname with ".manifest" appended, unless set with setManifestFile().
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @param manifestFile - the pathname of the manifest to use in place of the control file's default manifest, or null for the default. Since a
+	 *        manifest only keeps the entries of the last control file saved to it, this is only used when a single control file is run.
+	 */
+	public void setManifestFile(String manifestFile) {
+		this.manifestFile = manifestFile;
+	}
+
+	/**
+	 * @param metrics - the metrics every PageJob records its stages in
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Runs a control file. Any failure is logged and recorded, rather than thrown, so the next control file can still be run.
+	 *
+	 * @param controlFilename - pathname of the control file
+	 * @return true if the control file succeeded, false otherwise
+	 */
+	public boolean run(String controlFilename) {
+		Result result = new Result(controlFilename);
+		this.results.add(result);
+		if (!new File(controlFilename).isFile()) {
+			Log.error("The control file '" + controlFilename + "' was not found.");
+			result.failure = "the control file was not found";
+			return false;
+		}
+		Log.info("Using control file: " + controlFilename);
+		try {
+			// While the control file is read, the workers start reading resource directories. (Not for an incremental run, which may not need them.)
+			boolean isIncremental = this.incremental || this.manifestFile != null;
+			Controller control = new Controller(controlFilename, this.resourceCache, isIncremental ? null : this.executor);
+			// Group the descriptors by html file, so that each file is parsed and written once, no matter how many of its tables are altered.
+			List<PageJob> jobs = control.getPageJobs();
+			if (jobs.isEmpty()) {
+				Log.error("    ERROR: No table-descriptor elements were found in the control file '" + controlFilename + "'.");
+				result.failure = "no table-descriptor elements were found";
+				return false;
+			}
+			for (PageJob job : jobs) {
+				job.setStreamHtml(this.streamHtml);
+				job.setMetrics(this.metrics);
+			}
+			result.pages = jobs.size();
+			BuildManifest manifest = null;
+			if (isIncremental) {
+				// Only the html files whose descriptors, resources or generated html have changed since the last run are processed again.
+				manifest = new BuildManifest((this.manifestFile == null) ? controlFilename + ".manifest" : this.manifestFile, "streamHtml=" + this.streamHtml);
+				jobs = manifest.getStaleJobs(jobs);
+			}
+			result.skipped = result.pages - jobs.size();
+			if (this.executor != null) {
+				// Process the html files concurrently. Descriptors that share an html file are still processed in control file order.
+				this.executor.run(jobs);
+			}
+			else {
+				// For each html file in the control file, alter the tables identified by its descriptors, then save changes to a new (or the same) html file.
+				for (PageJob job : jobs) {
+					DescriptorExecutor.runJob(job);
+				}
+			}
+			for (PageJob job : jobs) {
+				if (!job.isWritten()) {
+					result.failed++;
+				}
+			}
+			if (manifest != null) {
+				manifest.record();
+				manifest.save();
+				Log.info(manifest.getSummary());
+			}
+		}
+		catch (Throwable e) {
+			// Anything - even an Error such as running out of memory on one IG's pages - fails only this control file. Its pages are released with it.
+			Log.error("    ERROR: Processing of the control file '" + controlFilename + "' failed. " + e, e);
+			result.failure = "failed with " + e;
+			return false;
+		}
+		finally {
+			Log.summarize();                                   // Report repeated messages with the control file they belong to
+		}
+		return result.isOk();
+	}
+
+	/**
+	 * Stops the shared worker threads. Call this once every control file has been run.
+	 */
+	public void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the app's exit code: EXIT_OK if every control file run so far succeeded, EXIT_FAILED otherwise
+	 */
+	public int getExitCode() {
+		for (Result result : this.results) {
+			if (!result.isOk()) {
+				return EXIT_FAILED;
+			}
+		}
+		return EXIT_OK;
+	}
+
+	/**
+	 * Returns the outcome of each control file run so far, one line per control file, followed by the totals.
+	 *
+	 * @return the summary, as a multi-line string
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder("\nBatch summary:");
+		int failedCount = 0;
+		for (Result result : this.results) {
+			if (!result.isOk()) {
+				failedCount++;
+			}
+			summary.append("\n  ").append(result.isOk() ? "OK      " : "FAILED  ").append(result.controlFilename).append(": ");
+			if (result.failure != null) {
+				summary.append(result.failure);
+			}
+			else {
+				summary.append(result.pages - result.skipped - result.failed).append(" html file(s) written");
+				if (result.skipped > 0) {
+					summary.append(", ").append(result.skipped).append(" unchanged");
+				}
+				if (result.failed > 0) {
+					summary.append(", ").append(result.failed).append(" not altered or not written");
+				}
+			}
+		}
+		summary.append("\n").append(this.results.size() - failedCount).append(" of ").append(this.results.size()).append(" control file(s) succeeded");
+		return summary.toString();
+	}
+
+	/**
+	 * Expands the given control file arguments into control file pathnames. An argument holding any of the glob characters * ? [ or { is matched
+	 * against the files under the folder that precedes its first glob character (e.g. "igs/&#42;&#42;/TableAlterDescriptors.xml" matches that file in
+	 * every folder under igs), and is replaced by the matching files, in name order. Other arguments are kept as they are. A pattern that matches
+	 * nothing is kept too, so it is reported as a missing control file, rather than silently ignored. Duplicates are removed.
+	 *
+	 * @param args - control file pathnames and patterns
+	 * @return the control file pathnames
+	 */
+	public static List<String> expandControlFiles(List<String> args) {
+		Set<String> filenames = new LinkedHashSet<String>();
+		for (String arg : args) {
+			List<String> matches = isPattern(arg) ? expandPattern(arg) : null;
+			if (matches == null || matches.isEmpty()) {
+				if (matches != null) {
+					Log.warn("    WARNING: No control files match the pattern '" + arg + "'.");
+				}
+				filenames.add(arg);
+			}
+			else {
+				filenames.addAll(matches);
+			}
+		}
+		return new ArrayList<String>(filenames);
+	}
+
+	private static boolean isPattern(String arg) {
+		return indexOfGlob(arg) >= 0;
+	}
+
+	private static int indexOfGlob(String arg) {
+		for (int i = 0; i < arg.length(); i++) {
+			if ("*?[{".indexOf(arg.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	  Returns the regular files matching the given glob pattern, in name order. The folders before the first glob character are walked, and the rest of
+	  the pattern is matched against each file's path relative to them. (Only as deep as the pattern has folders, unless the pattern holds **.)
+	*/
+	private static List<String> expandPattern(String pattern) {
+		String normalized = pattern.replace(File.separatorChar, '/');
+		int slash = normalized.lastIndexOf('/', indexOfGlob(normalized));
+		String base = (slash < 0) ? "." : (slash == 0) ? "/" : normalized.substring(0, slash);
+		String rest = normalized.substring(slash + 1);
+		Set<String> matches = new TreeSet<String>();
+		Path basePath = Paths.get(base);
+		if (!Files.isDirectory(basePath)) {
+			return new ArrayList<String>(matches);
+		}
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+		int depth = rest.contains("**") ? Integer.MAX_VALUE : rest.split("/").length;
+		try (Stream<Path> paths = Files.walk(basePath, depth)) {
+			Iterator<Path> it = paths.iterator();
+			while (it.hasNext()) {
+				Path path = it.next();
+				if (Files.isRegularFile(path) && matcher.matches(basePath.relativize(path))) {
+					matches.add(path.normalize().toString());
+				}
+			}
+		}
+		catch (UncheckedIOException e) {
+			Log.warn("    WARNING: Unable to search all of the folder '" + base + "' for the pattern '" + pattern + "'. " + e.getCause().getMessage());
+		}
+		catch (Exception e) {
+			Log.warn("    WARNING: Unable to search the folder '" + base + "' for the pattern '" + pattern + "'. " + e.getMessage());
+		}
+		return new ArrayList<String>(matches);
+	}
+
+	/*
+	  The outcome of running a control file.
+	*/
+	private static class Result {
+		private String controlFilename = null;
+		private String failure = null;                     // If not null, why the control file as a whole failed
+		private int pages = 0;                             // The number of html files the control file alters
+		private int skipped = 0;                           // The html files skipped because their inputs were unchanged
+		private int failed = 0;                            // The html files that were not altered and written
+
+		private Result(String controlFilename) {
+			this.controlFilename = controlFilename;
+		}
+
+		private boolean isOk() {
+			return this.failure == null && this.failed == 0;
+		}
+	}
+}
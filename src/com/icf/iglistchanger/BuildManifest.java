@@ -0,0 +1,361 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+/**
+ * The on-disk record of an incremental run: for each group of PageJobs that was run successfully, a fingerprint of everything the group read, and a
+ * SHA-256 hash of each html file and table data file (see com.icf.iglistchanger.TableDataFile) the group wrote. On the next run, a group whose
+ * fingerprint and output files still match is skipped, since running it again would write exactly the same files. (A group whose data file is missing
+ * - e.g. because it couldn't be written - is always run again.)
+ *
+ * <p>A group's fingerprint covers:</p>
+ * <ul>
+ * <li>the text of each of its table-descriptors, as serialized from the control file</li>
+ * <li>the name and SHA-256 hash of each file in each of its resource directories, in directory listing order</li>
+ * <li>the SHA-256 hash of each generatedHTMLFile that the group reads but doesn't write. (A file that is altered in place is instead checked against
+ * the hash of the file the group wrote - i.e. the group is skipped only if the IG Publisher has not regenerated the file since.)</li>
+ * <li>the settings that change what is written (e.g. -streamHtml)</li>
+ * </ul>
+ *
+ * <p>Groups are the same as those of com.icf.iglistchanger.DescriptorExecutor: jobs that share an html file are always run (or skipped) together,
+ * so that a job reading another job's output is never skipped when that output changes.</p>
+ *
+ * <p>Hashing every input on every run would cost nearly as much as reading them, so the manifest also holds each file's size and modification time
+ * when it was last hashed. A file whose size and modification time are unchanged is not read again. (A file modified within a couple of seconds of being
+ * hashed is always read again, since the file system may not have recorded the modification time finely enough to tell the two writes apart.)</p>
+ *
+ * <p>The manifest is written atomically (see com.icf.iglistchanger.AtomicFileWriter), so an interrupted run leaves the previous manifest in place.
+ * A manifest with no file is kept in memory only - e.g. by a com.icf.iglistchanger.PageWatcher, to tell which of the pages it is told about have
+ * really changed.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class BuildManifest {
+
+	private static final int VERSION = 1;                 // Manifests written with a different version are ignored, and everything is run again
+	private static final long RACY_MILLIS = 2000;         // A file modified this close to being hashed may have changed without its modification time changing
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private String filename = null;                     // The manifest file, or null if the manifest is only kept in memory
+	private String settings = null;                     // The run settings that change what is written, folded into every fingerprint
+	private Map<String, FileState> knownFiles = null;   // The file states read from the manifest, by file key
+	private Map<String, FileState> files = null;        // The file states hashed (or confirmed) by this run, by file key
+	private Map<String, JSONObject> knownGroups = null; // The group entries read from the manifest, by group key
+	private Map<String, JSONObject> groups = null;      // The group entries to write: the skipped groups' entries, and the newly recorded ones
+	private List<Group> pending = null;                 // The groups handed back to be run, waiting for record()
+	private int skipped = 0;                            // The number of html files skipped because their groups are up to date
+
+	/**
+	 * Reads the given manifest file. If the file doesn't exist, or can't be read, the manifest starts out empty, so every page job is run.
+	 *
+	 * @param filename - pathname of the manifest file, or null to keep the manifest in memory only
+	 * @param settings - the run settings that change what is written (e.g. "streamHtml=true"). Groups recorded with other settings are run again.
+	 */
+	public BuildManifest(String filename, String settings) {
+		super();
+		this.filename = filename;
+		this.settings = settings;
+		this.knownFiles = new HashMap<String, FileState>();
+		this.files = new HashMap<String, FileState>();
+		this.knownGroups = new HashMap<String, JSONObject>();
+		this.groups = new LinkedHashMap<String, JSONObject>();
+		this.pending = new ArrayList<Group>();
+		if (filename == null) {
+			return;
+		}
+		if (!new File(filename).isFile()) {
+			Log.info("No build manifest found at '" + filename + "'. Every html file will be processed.");
+			return;
+		}
+		try {
+			JSONObject manifest = FileUtils.readJsonFile(filename);
+			if (manifest.optInt("version") != VERSION) {
+				Log.warn("    WARNING: The build manifest '" + filename + "' was written by a different version of this app. Every html file will be processed.");
+				return;
+			}
+			JSONObject fileStates = manifest.getJSONObject("files");
+			for (String key : fileStates.keySet()) {
+				this.knownFiles.put(key, new FileState(fileStates.getJSONObject(key)));
+			}
+			JSONObject groupEntries = manifest.getJSONObject("groups");
+			for (String key : groupEntries.keySet()) {
+				this.knownGroups.put(key, groupEntries.getJSONObject(key));
+			}
+		}
+		catch (Exception e) {
+			Log.warn("    WARNING: The build manifest '" + filename + "' could not be read. Every html file will be processed. " + e.getMessage());
+			this.knownFiles.clear();
+			this.knownGroups.clear();
+		}
+	}
+
+	/**
+	 * Returns the given jobs, less those whose groups are up to date with the manifest. The returned jobs keep their control file order.
+	 * Once the returned jobs have been run, call record() then save().
+	 *
+	 * @param jobs - the jobs of a control file, in control file order
+	 * @return List&lt;PageJob&gt; - the jobs that need to be run
+	 */
+	public List<PageJob> getStaleJobs(List<PageJob> jobs) {
+		Set<PageJob> stale = new LinkedHashSet<PageJob>();
+		for (List<PageJob> jobGroup : DescriptorExecutor.groupJobs(jobs)) {
+			Group group = new Group(jobGroup);
+			JSONObject known = this.knownGroups.get(group.key);
+			if (known != null && !group.fingerprint.isEmpty() && known.optString("fingerprint").equals(group.fingerprint) && isUnchanged(known.optJSONObject("outputs"), group.outputs)) {
+				this.groups.put(group.key, known);
+				this.skipped += jobGroup.size();
+				for (PageJob job : jobGroup) {
+					Log.info("Skipping unchanged file '" + job.getGeneratedHTMLFilename() + "' (" + job.getTasks().size() + " table descriptor(s))");
+				}
+			}
+			else {
+				this.pending.add(group);
+				stale.addAll(jobGroup);
+			}
+		}
+
+		List<PageJob> results = new ArrayList<PageJob>();
+		for (PageJob job : jobs) {
+			if (stale.contains(job)) {
+				results.add(job);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Records the groups returned by getStaleJobs() whose jobs were all altered and written, along with the hashes of the files they wrote.
+	 * A group with a job that failed is left out of the manifest, so it is run again next time.
+	 */
+	public void record() {
+		for (Group group : this.pending) {
+			boolean isOk = true;
+			for (PageJob job : group.jobs) {
+				isOk = isOk && job.isWritten();
+			}
+			if (!isOk) {
+				continue;
+			}
+			JSONObject outputs = new JSONObject();
+			for (String key : group.outputs) {
+				this.files.remove(key);                              // The file was just written, so its state from before the run is out of date
+				outputs.put(key, hashOf(key));
+			}
+			this.groups.put(group.key, new JSONObject().put("fingerprint", group.fingerprint).put("outputs", outputs));
+		}
+		this.pending.clear();
+	}
+
+	/**
+	 * Makes the groups and files recorded so far the known state that the next call to getStaleJobs() is checked against, for a process that checks
+	 * the same jobs again and again (see com.icf.iglistchanger.PageWatcher). Every file is looked at again by the next check.
+	 */
+	public void rollOver() {
+		this.knownFiles.putAll(this.files);
+		this.files.clear();
+		this.knownGroups.putAll(this.groups);
+		this.skipped = 0;
+	}
+
+	/**
+	 * Writes the manifest file. Only the groups and files of this run are kept, so the entries of table-descriptors removed from the control file are dropped.
+	 *
+	 * @return true if the manifest was written (or is kept in memory only), false otherwise
+	 */
+	public boolean save() {
+		if (this.filename == null) {
+			return true;
+		}
+		JSONObject fileStates = new JSONObject();
+		for (Map.Entry<String, FileState> entry : this.files.entrySet()) {
+			if (entry.getValue().sha256 != null) {
+				fileStates.put(entry.getKey(), entry.getValue().toJSON());
+			}
+		}
+		JSONObject manifest = new JSONObject();
+		manifest.put("version", VERSION);
+		manifest.put("groups", new JSONObject(this.groups));
+		manifest.put("files", fileStates);
+		try {
+			AtomicFileWriter out = new AtomicFileWriter(this.filename);
+			try {
+				manifest.write(out, 1, 0);
+				out.commit();
+			}
+			finally {
+				out.close();
+			}
+			return true;
+		}
+		catch (Exception e) {
+			Log.error("    ERROR: Unable to write the build manifest '" + this.filename + "'. " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return a one line summary of the html files that were skipped
+	 */
+	public String getSummary() {
+		return "Incremental build: " + this.skipped + " unchanged html file(s) skipped, " + this.files.size() + " file(s) tracked"
+				+ ((this.filename == null) ? "" : " in '" + this.filename + "'");
+	}
+
+	// True if every one of the given output files still has the hash recorded for it
+	private boolean isUnchanged(JSONObject recorded, Set<String> outputs) {
+		if (recorded == null || recorded.length() != outputs.size()) {
+			return false;
+		}
+		for (String key : outputs) {
+			String sha256 = hashOf(key);
+			if (sha256 == null || !sha256.equals(recorded.optString(key))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	  Returns the SHA-256 hash of the given file, as a hex string, or null if the file can't be read. If the file's size and modification time match
+	  its state in the manifest, the recorded hash is returned without reading the file.
+	*/
+	private String hashOf(String key) {
+		FileState state = this.files.get(key);
+		if (state != null) {
+			return state.sha256;
+		}
+		File file = new File(key);
+		long size = file.isFile() ? file.length() : -1;
+		long modified = file.lastModified();
+		FileState known = this.knownFiles.get(key);
+		if (known != null && size >= 0 && known.size == size && known.modified == modified && modified + RACY_MILLIS < known.hashed) {
+			state = known;
+		}
+		else {
+			long hashed = System.currentTimeMillis();
+			state = new FileState(size, modified, hashed, (size < 0) ? null : digestFile(file));
+		}
+		this.files.put(key, state);
+		return state.sha256;
+	}
+
+	private static String digestFile(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buf) >= 0) {
+				((Buffer) buf).flip();
+				digest.update(buf);
+				((Buffer) buf).clear();
+			}
+			return toHex(digest.digest());
+		}
+		catch (Exception e) {
+			Log.warn("    WARNING: Unable to read '" + file + "' for the build manifest. " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/*
+	  A group of PageJobs that share html files, with the fingerprint of everything the group reads, and the keys of the files it writes
+	*/
+	private class Group {
+		private List<PageJob> jobs = null;
+		private String key = null;                              // Identifies the group from one run to the next: the files each of its jobs reads and writes
+		private String fingerprint = null;
+		private Set<String> outputs = null;
+
+		private Group(List<PageJob> jobs) {
+			this.jobs = jobs;
+			this.outputs = new LinkedHashSet<String>();
+			StringBuilder groupKey = new StringBuilder();
+			for (PageJob job : jobs) {
+				String in = PageJob.fileKey(job.getGeneratedHTMLFilename());
+				String out = PageJob.fileKey(job.getOutputHTMLFilename());
+				groupKey.append((groupKey.length() == 0) ? "" : "\n").append(in).append(" -> ").append(out);
+				this.outputs.add(out);
+				for (TableAlterTask task : job.getTasks()) {
+					String dataFile = task.getDataFilename();
+					if (dataFile != null) {
+						this.outputs.add(PageJob.fileKey(dataFile));       // A table's data file is written along with its page, so is checked like it
+					}
+				}
+			}
+			this.key = groupKey.toString();
+
+			StringBuilder text = new StringBuilder();
+			text.append("settings: ").append(settings).append('\n');
+			for (PageJob job : jobs) {
+				String in = PageJob.fileKey(job.getGeneratedHTMLFilename());
+				if (!this.outputs.contains(in)) {
+					text.append("page: ").append(in).append(' ').append(hashOf(in)).append('\n');
+				}
+				for (TableAlterTask task : job.getTasks()) {
+					text.append("descriptor: ").append(task.getDescriptor().toXml()).append('\n');
+					String dir = task.getResourceDirectory();
+					if (dir != null && !dir.isEmpty()) {
+						dir = PageJob.fileKey(dir);
+						for (String name : FileUtils.getDirFiles(dir)) {
+							text.append("resource: ").append(name).append(' ').append(hashOf(new File(dir, name).getPath())).append('\n');
+						}
+					}
+				}
+			}
+			try {
+				this.fingerprint = toHex(MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8)));
+			}
+			catch (Exception e) {
+				this.fingerprint = "";                             // (Every JVM has SHA-256, so not expected.) An empty fingerprint never matches.
+			}
+		}
+	}
+
+	/*
+	  The size, modification time and hash of a file, when it was last hashed
+	*/
+	private static class FileState {
+		private long size = -1;
+		private long modified = 0;
+		private long hashed = 0;                                // When the file was read to compute the hash
+		private String sha256 = null;
+
+		private FileState(long size, long modified, long hashed, String sha256) {
+			this.size = size;
+			this.modified = modified;
+			this.hashed = hashed;
+			this.sha256 = sha256;
+		}
+
+		private FileState(JSONObject json) {
+			this(json.getLong("size"), json.getLong("modified"), json.getLong("hashed"), json.getString("sha256"));
+		}
+
+		private JSONObject toJSON() {
+			return new JSONObject().put("size", this.size).put("modified", this.modified).put("hashed", this.hashed).put("sha256", this.sha256);
+		}
+	}
+}
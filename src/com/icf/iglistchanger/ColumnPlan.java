@@ -0,0 +1,140 @@
+package com.icf.iglistchanger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * The column specs of a table-descriptor, compiled once into position-indexed arrays, so that rebuilding a table's header and rows does no DOM
+ * queries or attribute parsing per cell.
+ *
+ * <p>For each column position <i>i</i> in the original table, the plan holds the action of the &lt;oldColumn&gt; spec at that position (keep or remove),
+ * and the compiled &lt;newColumn&gt; specs whose afterPos is <i>i</i>, in the order they appear in the descriptor.</p>
+ *
+ * <p>If the descriptor has a &lt;join&gt; element, the plan also holds the compiled com.icf.iglistchanger.RowJoin that pairs the table's rows with resources.</p>
+ *
+ * <p>A ColumnPlan is immutable, and may be used by several threads at once.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ColumnPlan {
+
+	private static final ColumnSpec[] NO_COLUMNS = new ColumnSpec[0];
+
+	private boolean[] keep = null;                 // keep[i] is true if the oldColumn spec at position i has action 'keep'
+	private boolean[] remove = null;               // remove[i] is true if the oldColumn spec at position i has action 'remove'
+	private ColumnSpec[][] newColumns = null;      // newColumns[i] holds the new column specs to add after column position i
+	private ColumnSpec[] allNewColumns = null;     // All of the new column specs, in descriptor order
+	private RowJoin join = null;                   // If not null, how rows are paired with resources by key, rather than by position
+	private JsonProjection projection = null;      // The JSON field paths read by the new column specs (and the join)
+
+	/**
+	 * Compiles the oldColumn and newColumn specs of the given table-descriptor element.
+	 *
+	 * @param descriptor - a table-descriptor org.jsoup.nodes.Element from a control file
+	 */
+	public ColumnPlan(Element descriptor) {
+		super();
+		Elements oldColSpecs = descriptor.getElementsByAttribute("oldPos");
+		if (oldColSpecs.isEmpty()) {
+			Log.warn("    No old column elements found in descriptor. Are you sure this is correct?");
+		}
+		// As always, old column specs apply by their order in the descriptor: the first spec describes column 0, and so on.
+		this.keep = new boolean[oldColSpecs.size()];
+		this.remove = new boolean[oldColSpecs.size()];
+		for (int i = 0; i < oldColSpecs.size(); i++) {
+			this.keep[i] = "keep".equalsIgnoreCase(oldColSpecs.get(i).attr("action"));
+			this.remove[i] = "remove".equalsIgnoreCase(oldColSpecs.get(i).attr("action"));
+		}
+
+		Elements newColSpecs = descriptor.getElementsByAttribute("afterPos");
+		List<List<ColumnSpec>> byPos = new ArrayList<List<ColumnSpec>>();
+		List<ColumnSpec> all = new ArrayList<ColumnSpec>();
+		this.projection = new JsonProjection();
+		for (Element newColSpec : newColSpecs) {
+			ColumnSpec spec = new ColumnSpec(newColSpec);
+			all.add(spec);
+			spec.addTo(this.projection);
+			int pos = parsePos(newColSpec.attr("afterPos"));
+			if (pos < 0) {
+				Log.warn("    WARNING: afterPos value '" + newColSpec.attr("afterPos") + "' is not a column position. This column will not be added.\n    Spec: " + spec);
+				continue;
+			}
+			while (byPos.size() <= pos) {
+				byPos.add(new ArrayList<ColumnSpec>());
+			}
+			byPos.get(pos).add(spec);
+		}
+		this.newColumns = new ColumnSpec[byPos.size()][];
+		for (int i = 0; i < byPos.size(); i++) {
+			this.newColumns[i] = byPos.get(i).toArray(NO_COLUMNS);
+		}
+		this.allNewColumns = all.toArray(NO_COLUMNS);
+
+		Elements joins = descriptor.getElementsByTag("join");
+		if (!joins.isEmpty()) {
+			this.join = new RowJoin(joins.get(0));
+			this.projection.include(this.join.getResourceField());
+		}
+	}
+
+	/**
+	 * @param pos - a column position in the original table
+	 * @return true if the column at the given position is to be kept
+	 */
+	public boolean isKept(int pos) {
+		return pos < this.keep.length && this.keep[pos];
+	}
+
+	/**
+	 * @param pos - a column position in the original table
+	 * @return true if the column at the given position is explicitly removed (rather than just having no spec)
+	 */
+	public boolean isRemoved(int pos) {
+		return pos < this.remove.length && this.remove[pos];
+	}
+
+	/**
+	 * @param pos - a column position in the original table
+	 * @return the new column specs to add after the given position (possibly an empty array)
+	 */
+	public ColumnSpec[] getNewColumns(int pos) {
+		return (pos < this.newColumns.length) ? this.newColumns[pos] : NO_COLUMNS;
+	}
+
+	/**
+	 * @return all of the new column specs, in descriptor order
+	 */
+	public ColumnSpec[] getAllNewColumns() {
+		return this.allNewColumns.clone();
+	}
+
+	/**
+	 * @return the compiled &lt;join&gt; element, or null if rows are paired with resources by position
+	 */
+	public RowJoin getJoin() {
+		return this.join;
+	}
+
+	/**
+	 * @return the JSON field paths read by the new column specs (and the join)
+	 */
+	public JsonProjection getProjection() {
+		return this.projection;
+	}
+
+	// Parses an afterPos value. Surrounding blanks are ignored, but the value must otherwise be a plain non-negative integer - e.g. "1", but not "01" or "+1".
+	private static int parsePos(String value) {
+		String trimmed = value.trim();
+		try {
+			int pos = Integer.parseInt(trimmed);
+			return (pos >= 0 && Integer.toString(pos).equals(trimmed)) ? pos : -1;
+		}
+		catch (Exception e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package com.icf.iglistchanger;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.jsoup.nodes.Element;
+
+/**
+ * A compiled &lt;newColumn&gt; spec. The attributes of the spec are read, parsed and checked once, when the table-descriptor is compiled into a
+ * com.icf.iglistchanger.ColumnPlan, so extracting a cell value from a resource does no attribute lookups, number parsing or regex compilation.
+ *
+ * <p>A sample element:</p>
+ * <pre>
+ * {@code
+ *   <newColumn afterPos="0" label="CMS ID" resourceField="identifier" subField="value" type="array" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
+ * }
+ * </pre>
+ *
+ * <p>Or, reading the value with a path expression (see com.icf.iglistchanger.PathExpression) in place of the resourceField, subField, type, nth, maxLen
+ * and regex attributes:</p>
+ * <pre>
+ * {@code
+ *   <newColumn afterPos="0" label="CMS ID" path="identifier.where(system='http://hl7.org/fhir/cqi/ecqm/Measure/Identifier/cms').value" default="-"></newColumn>
+ * }
+ * </pre>
+ *
+ * See com.icf.iglistchanger.Controller for a description of each attribute. A ColumnSpec is immutable, and may be used by several threads at once.
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ColumnSpec {
+
+	/*
+	  How a value is extracted from a resource. The kind is decided once: PATH if the spec has a path attribute, otherwise from the type, nth, maxLen and
+	  regex attributes, in the same order of precedence that those attributes have always been checked in.
+	*/
+	private enum Kind { PATH, STRING, OBJECT, ARRAY_FIRST, ARRAY_LAST, ARRAY_NTH, ARRAY_MAXLEN, ARRAY_REGEX, ARRAY_DEFAULT, UNKNOWN }
+
+	private Kind kind = Kind.UNKNOWN;
+	private String label = "";               // The column header text
+	private String defaultValue = "";        // The default value will be returned if nothing else works out
+	private String field = "";               // The name of the field in the json resource to get
+	private String subField = "";            // If the field is something other than a pure string, this is the name of the subsequent field to get
+	private String type = "";                // The 'type' of the field we are getting. Can be one of  string, object, or array
+	private int nth = -1;                    // Referring to which element in a field's array to get
+	private int maxLen = -1;                 // Referring to a maximum length of a subfield in a field's array objects to consider
+	private Pattern regex = null;            // Referring to a pattern to examine for the subfield in a fields' array of objects to consider
+	private PathExpression path = null;      // If the spec has a path attribute, the compiled path expression, used in place of the other attributes
+	private String specText = "";            // The spec element as text, for diagnostic messages
+	private String key = "";                 // What the spec extracts, normalized: specs with equal keys extract the same value from a resource
+
+	/**
+	 * Compiles the given &lt;newColumn&gt; element.
+	 *
+	 * @param colSpec - a newColumn element from a table-descriptor
+	 */
+	public ColumnSpec(Element colSpec) {
+		super();
+		// <newColumn after-pos="0" label="CMS ID" resource-field="identifier" type="string|array|object"  nth="0" maxLen="15" subField="" regex="" default="-"></newColumn>
+		this.label = colSpec.attr("label");
+		this.defaultValue = colSpec.attr("default");
+		this.field = colSpec.attr("resourceField");
+		this.subField = colSpec.attr("subField");
+		this.type = colSpec.attr("type");
+		this.specText = colSpec.toString();
+		String nthStr = colSpec.attr("nth");
+		String regexStr = colSpec.attr("regex");
+		try {
+			this.maxLen = Integer.parseInt(colSpec.attr("maxLen"));
+		}
+		catch (Exception e) {
+			this.maxLen = -1;
+		}
+
+		String pathStr = colSpec.attr("path");
+		if (!pathStr.isEmpty()) {
+			try {
+				this.path = PathExpression.compile(pathStr);
+				this.kind = Kind.PATH;
+			}
+			catch (IllegalArgumentException e) {
+				Log.warn("    Path field error: " + e.getMessage() + ". The default value will be used.\n    Spec: " + this.specText);
+			}
+		}
+		else {
+			switch (this.type) {
+				case "string" : this.kind = Kind.STRING; break;
+				case "object" : this.kind = Kind.OBJECT; break;
+				case "array" :
+					if ("first".equalsIgnoreCase(nthStr)) {
+						this.kind = Kind.ARRAY_FIRST;
+					}
+					else if ("last".equalsIgnoreCase(nthStr)) {
+						this.kind = Kind.ARRAY_LAST;
+					}
+					else if (!nthStr.isEmpty()) {
+						try {
+							this.nth = Integer.parseInt(nthStr);
+							this.kind = Kind.ARRAY_NTH;
+						}
+						catch (Exception e) {
+							Log.warn("    Array[nth] field error: '" + nthStr + "' is not one of 'first', 'last' or a number. The default value will be used.\n    Spec: " + this.specText);
+							this.kind = Kind.ARRAY_DEFAULT;
+						}
+					}
+					else if (this.maxLen >= 0) {
+						this.kind = Kind.ARRAY_MAXLEN;
+					}
+					else if (!regexStr.isEmpty()) {
+						try {
+							this.regex = Pattern.compile(regexStr);
+							this.kind = Kind.ARRAY_REGEX;
+						}
+						catch (PatternSyntaxException e) {
+							Log.warn("    Array[regex] field error: " + e.getMessage() + "\n    Spec: " + this.specText);
+							this.kind = Kind.ARRAY_DEFAULT;
+						}
+					}
+					else {
+						this.kind = Kind.ARRAY_DEFAULT;
+					}
+					break;
+				default: Log.error("    ERROR: The field type of '" + this.type + "' of field '" + this.field + "' is not recognized. Is should be one of 'string', 'object', or 'array'"); break;
+			}
+		}
+		this.key = normalizedKey();
+	}
+
+	/**
+	 * Return the json field value in the given json resource, as described by this spec. If the value cannot be found, the spec's default value is returned.
+	 *
+	 * @param resource - a parsed resource, or null
+	 * @return the cell text for this column
+	 */
+	public String extract(JSONObject resource) {
+		String val = this.defaultValue;
+		if (resource == null) {
+			return val;
+		}
+
+		// Depending on the type of data in the field value, we do different things...
+		switch (this.kind) {
+			case PATH : // For a path expression, return the values it reads, joined with commas. (A path that reads nothing, e.g. because a where() matched nothing, isn't an error.)
+				String pathVal = this.path.evaluate(resource);
+				if (pathVal != null) {
+					val = pathVal;
+				}
+				break;
+			case STRING : // For simple string values, just return that value
+				try {
+					val = resource.get(this.field).toString();
+				}
+				catch (Exception e) {
+					warnField("String", e);
+				}
+				break;
+			case OBJECT : // If the field value is an object, return the subfield value within that object
+				try {
+					val = resource.getJSONObject(this.field).get(this.subField).toString();
+				}
+				catch (Exception e) {
+					warnField("Object", e);
+					// problem, move on
+				}
+				break;
+			case UNKNOWN :
+				break;
+			default :  // If the field is an array of json objects, the kind dictates which object in that array to use...
+				JSONArray vals = null;
+				try {
+					vals = resource.getJSONArray(this.field);
+				}
+				catch (Exception e) {
+					warnField("Array", e);
+					break;
+				}
+				val = extractFromArray(vals, val);
+				break;
+		}
+		return val; // Note: if none of the cases above fired, then val is still set to the spec's default value
+	}
+
+	/*
+	  Logs that this spec's value could not be read from a resource. A field that is missing from (or unreadable in) one resource is usually so in many,
+	  so the warning names just the field and column, and is counted (see Log.warnPerResource()): the exception message and the spec are written once.
+	*/
+	private void warnField(String kind, Exception e) {
+		Log.warnPerResource("    " + kind + " field error: field '" + this.field + "' of column '" + this.label + "' not read", e.getMessage() + "\n    Spec: " + this.specText);
+	}
+
+	/*
+	  Returns the subfield value of the array object selected by this spec's nth, maxLen or regex attribute, or the given default value.
+	*/
+	private String extractFromArray(JSONArray vals, String val) {
+		switch (this.kind) {
+			case ARRAY_FIRST : //  Return the subfield value of the first array object...
+				try {
+					val = vals.getJSONObject(0).get(this.subField).toString();
+				}
+				catch (Exception e) {
+					warnField("Array[first]", e);
+				}
+				break;
+			case ARRAY_LAST : // Return the subfield value of the last array object...
+				try {
+					val = vals.getJSONObject(vals.length()-1).get(this.subField).toString();
+				}
+				catch (Exception e) {
+					warnField("Array[last]", e);
+				}
+				break;
+			case ARRAY_NTH : // Return the subfield value of the nth array object...
+				try {
+					val = vals.getJSONObject(this.nth).get(this.subField).toString();
+				}
+				catch (Exception e) {
+					warnField("Array[nth]", e);
+				}
+				break;
+			case ARRAY_MAXLEN : // Return the subfield value of the first array object whose subfield value length is less than or equal to the given max length value
+				for (int i=0; i < vals.length(); i++) {
+					try {
+						String temp = vals.getJSONObject(i).get(this.subField).toString();
+						if (this.maxLen >= temp.length()) {
+							val = temp;
+							break;
+						}
+					}
+					catch (Exception e) {
+						warnField("Array[maxLen]", e);
+						// failed seeing if the object's subField was a string of a given length, so do nothing, and on to the next obj in the array.
+					}
+				}
+				break;
+			case ARRAY_REGEX : // Return the subfield value of the first array object whose subfield value matches the given regex
+				for (int i=0; i < vals.length(); i++) {
+					try {
+						String temp = vals.getJSONObject(i).get(this.subField).toString();
+						if (this.regex.matcher(temp).matches()) {
+							val = temp;
+							break;
+						}
+					}
+					catch (Exception e) {
+						warnField("Array[regex]", e);
+						// failed seeing if the object's subField was a string that matches the regex, so do nothing, and on to the next obj in the array.
+					}
+				}
+				break;
+			default :
+				break;
+		}
+		return val;
+	}
+
+	// Builds the key returned by getKey(), from the kind and the attributes it uses
+	private String normalizedKey() {
+		StringBuilder key = new StringBuilder(this.kind.name());
+		if (this.kind == Kind.PATH) {
+			key.append('\n').append(this.path);
+		}
+		else {
+			key.append('\n').append(this.field).append('\n').append((this.kind == Kind.STRING) ? "" : this.subField);
+			if (this.kind == Kind.ARRAY_NTH) {
+				key.append('\n').append(this.nth);
+			}
+			else if (this.kind == Kind.ARRAY_MAXLEN) {
+				key.append('\n').append(this.maxLen);
+			}
+			else if (this.kind == Kind.ARRAY_REGEX) {
+				key.append('\n').append(this.regex.pattern());
+			}
+		}
+		return key.append('\n').append(this.defaultValue).toString();
+	}
+
+	/**
+	 * Adds the JSON field path this spec reads to the given projection
+	 *
+	 * @param projection - the projection to add to
+	 */
+	public void addTo(JsonProjection projection) {
+		if (this.kind == Kind.PATH) {
+			this.path.addTo(projection);
+		}
+		else if (this.kind == Kind.STRING) {
+			projection.include(this.field);
+		}
+		else if (this.kind != Kind.UNKNOWN) {
+			projection.include(this.field, this.subField);
+		}
+	}
+
+	/**
+	 * Returns a key for what this spec extracts. It is made from the attributes the spec's kind actually uses - not the label, afterPos, or any
+	 * attribute that a higher precedence attribute overrides - so two specs with equal keys extract the same value from any resource.
+	 *
+	 * @return the spec's normalized key
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Returns true if the values this spec extracts are worth keeping in a com.icf.iglistchanger.ExtractionMemo: the spec reads its resource at all.
+	 * (A spec with no usable field only ever extracts its default value.)
+	 *
+	 * @return true unless the spec's kind is unknown
+	 */
+	public boolean isMemoized() {
+		return this.kind != Kind.UNKNOWN;
+	}
+
+	/**
+	 * @return the column header text
+	 */
+	public String getLabel() {
+		return this.label;
+	}
+
+	/**
+	 * @return the spec element as text, for diagnostic messages
+	 */
+	@Override
+	public String toString() {
+		return this.specText;
+	}
+}
@@ -0,0 +1,206 @@
+package com.icf.iglistchanger;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+import org.jsoup.select.Elements;
+
+/**
+ * Reads the table-descriptor elements of a control file in a single pass, with a streaming (StAX) xml reader, handing back each descriptor as soon as
+ * its end tag has been read - rather than parsing the whole control file into a document, and then searching the document for its descriptors.
+ *
+ * <p>Each descriptor is built as the same org.jsoup.nodes.Element that parsing the control file with jsoup's xml parser would give: tag and attribute
+ * names are lowercased (so, as before, a &lt;Table-Descriptor&gt; is a table-descriptor), and text, whitespace, comments and self-closing tags are
+ * kept as written.</p>
+ *
+ * <p>jsoup is more forgiving than an xml reader: it accepts mismatched end tags, and html entities such as &amp;nbsp;. If the control file isn't
+ * well-formed xml, the rest of it is read with jsoup's xml parser instead, so any control file that could be read before still can be.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ControlFileReader {
+
+	private static final String DESCRIPTOR_TAG = "table-descriptor";
+
+	private String filename = null;
+	private InputStream in = null;                  // The control file, while it is being streamed
+	private XMLStreamReader reader = null;          // Null once the end of the file is reached, or if the file isn't well-formed xml
+	private Elements fallback = null;               // If the file isn't well-formed xml, all of its descriptors, as parsed by jsoup
+	private int count = 0;                          // The number of descriptors returned so far
+
+	/**
+	 * Opens the control file of the given filename for reading. Nothing is read until next() is called.
+	 *
+	 * @param filename - pathname of the control file
+	 */
+	public ControlFileReader(String filename) {
+		super();
+		this.filename = filename;
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);              // A control file has no use for a DTD, or for external entities
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);       // Prefixed names are kept whole, as jsoup keeps them
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			this.in = new FileInputStream(filename);
+			this.reader = factory.createXMLStreamReader(this.in);
+		}
+		catch (Exception e) {
+			Log.error("    Exception reading XML file: '" + filename + "' " + e.getMessage(), e);
+			close();
+		}
+	}
+
+	/**
+	 * Reads up to the end of the next table-descriptor element in the control file. The element is the only child of a document of its own (with
+	 * the output settings of a parsed xml document), so it may be handed on without being copied.
+	 *
+	 * @return the descriptor element, or null if there are no more descriptors
+	 */
+	public Element next() {
+		Element descriptor = null;
+		if (this.reader != null) {
+			try {
+				descriptor = readDescriptor();
+			}
+			catch (Exception e) {
+				Log.warn("    WARNING: The control file '" + this.filename + "' is not well-formed xml (" + e.getMessage() + "). Reading it with the html-tolerant xml parser instead.");
+				closeReader();
+				openFallback();
+			}
+		}
+		if (this.reader == null) {
+			if (this.fallback != null && this.count < this.fallback.size()) {
+				descriptor = this.fallback.get(this.count).clone();
+				TableAlterDescriptor.newHolder().appendChild(descriptor);
+			}
+		}
+		if (descriptor != null) {
+			this.count++;
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Closes the control file. (It is closed automatically once next() has returned null.)
+	 */
+	public void close() {
+		closeReader();
+		this.fallback = null;
+	}
+
+	/*
+	  Reads events up to the end of the next table-descriptor, building the descriptor's element as it goes. Returns null at the end of the file.
+	*/
+	private Element readDescriptor() throws Exception {
+		Element descriptor = null;
+		Element current = null;                     // The element whose content is being read, within the descriptor
+		int startLine = -1;                         // Where the most recent start tag ended, to tell <x/> from <x></x>
+		int startColumn = -1;
+		while (this.reader.hasNext()) {
+			int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = this.reader.getLocalName().toLowerCase(Locale.ROOT);
+				if (current == null && !name.equals(DESCRIPTOR_TAG)) {
+					continue;                       // Outside of a descriptor, e.g. the table-descriptors root
+				}
+				Element el = new Element(Tag.valueOf(name), "");
+				for (int a = 0; a < this.reader.getAttributeCount(); a++) {
+					String prefix = this.reader.getAttributePrefix(a);
+					String attrName = ((prefix == null || prefix.isEmpty()) ? "" : prefix + ":") + this.reader.getAttributeLocalName(a);
+					el.attr(attrName.toLowerCase(Locale.ROOT), this.reader.getAttributeValue(a));
+				}
+				if (current == null) {
+					descriptor = el;
+					TableAlterDescriptor.newHolder().appendChild(descriptor);
+				}
+				else {
+					current.appendChild(el);
+				}
+				current = el;
+				startLine = this.reader.getLocation().getLineNumber();
+				startColumn = this.reader.getLocation().getColumnNumber();
+			}
+			else if (current == null) {
+				continue;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (current.childNodeSize() == 0 && isAt(this.reader.getLocation(), startLine, startColumn) && !current.tag().isKnownTag()) {
+					Element closed = selfClosing(current);          // The start and end tags were one tag: <x/>
+					if (current == descriptor) {
+						descriptor = closed;
+					}
+					current = closed;
+				}
+				startLine = -1;
+				if (current == descriptor) {
+					return descriptor;
+				}
+				current = current.parent();
+			}
+			else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				current.appendChild(new TextNode(this.reader.getText(), ""));
+				startLine = -1;
+			}
+			else if (event == XMLStreamConstants.COMMENT) {
+				current.appendChild(new Comment(this.reader.getText(), ""));
+				startLine = -1;
+			}
+		}
+		closeReader();
+		return null;
+	}
+
+	/*
+	  Returns true if the given location is the given line and column, i.e. no characters were read since the start tag read there - so the end
+	  tag just read was the start tag itself. (Compared by line and column: the character offset isn't reliable where the reader's buffer is refilled.)
+	*/
+	private static boolean isAt(Location location, int line, int column) {
+		return line >= 0 && location.getLineNumber() == line && location.getColumnNumber() == column;
+	}
+
+	/*
+	  Returns a copy of the given empty element, with its tag marked as self-closing, so it is written as <x/>, and puts it in place of the element.
+	  (As jsoup's xml parser does, this is only done for tags that html doesn't define.)
+	*/
+	private static Element selfClosing(Element el) {
+		Element closed = (Element) Parser.parseXmlFragment("<" + el.tagName() + "/>", "").get(0);
+		closed.attributes().addAll(el.attributes());
+		el.replaceWith(closed);
+		return closed;
+	}
+
+	// Parses the whole control file with jsoup, for a file that isn't well-formed xml
+	private void openFallback() {
+		Document doc = FileUtils.openXMLFile(this.filename);
+		this.fallback = (doc == null) ? new Elements() : doc.getElementsByTag(DESCRIPTOR_TAG);
+	}
+
+	private void closeReader() {
+		try {
+			if (this.reader != null) {
+				this.reader.close();
+			}
+			if (this.in != null) {
+				this.in.close();
+			}
+		}
+		catch (Exception e) {
+			Log.debug("Unable to close the control file '" + this.filename + "'. " + e.getMessage());
+		}
+		this.reader = null;
+		this.in = null;
+	}
+}
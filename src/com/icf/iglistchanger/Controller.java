@@ -1,18 +1,18 @@
 package com.icf.iglistchanger;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Set;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 /**
  * This is the workhorse class for the IGListChanger application. It reads a table-descriptor org.jsoup.nodes.Element from a list of table-descriptors (as read from an xml control  file), and
  * processes the descriptor. The result of processing a table-descriptor is an altered html table element in an html file.
+ * The processing state for each descriptor is held in a com.icf.iglistchanger.TableAlterTask, so the Controller can either step through the descriptors one at a time (via next()),
+ * or plan them into com.icf.iglistchanger.PageJobs (via getPageJobs()) that a com.icf.iglistchanger.DescriptorExecutor processes concurrently.
+ * The control file is read once, in a single streaming pass (see com.icf.iglistchanger.ControlFileReader), into a list of parsed descriptors.
  * 
  * <p>An example of a control file containing a single table-descriptor:</p>
  * 
@@ -50,6 +50,7 @@ import org.jsoup.select.Elements;
  * <b>headerClass</b> If present, the value of this tag is added as the value of a 'class' attribute to the target table's <i>theader</i> tag
  * <b>headerStyle</b> If present, the value of this tag is added as the value of a 'style' attribute to the target table's <i>theader</i> tag
  * <b>resourceDirectory</b> is the full pathname of the directory that holds the resource json files that were used to populate the table being altered. These resource files are used to populate any new columns added to the table.    
+ * <b>join</b> is optional. If present, each row is paired with the resource whose key matches the row's key, rather than by the order of the resource files. (See com.icf.iglistchanger.RowJoin)
  * <b>oldColumn</b> is a specification of how to handle existing columns in the table. The attributes in this element dictate how the existing column is to be handled:  
  *    <b>oldPos</b> indicates the column's position in the original table.  0 = first column, 1 = second column, and so on.
  *    <b>action</b> is either <i>keep</i> or <i>remove</i>.  If 'keep', then that column and its existing data is preserved as-is in the altered table. If 'remove', then that column (and its data in the table's rows) are not included in the new, altered table.  
@@ -66,6 +67,9 @@ import org.jsoup.select.Elements;
 *             <b>maxLen</b> If 'nth' is not specified, then maxLen is used. This is a number. The first object in the array whose subField data string length is less than the maxLen value is used.
 *             <b>regex</b> If 'nth' and 'maxLen' is not specified, then regex is used. The first object in the array whose subField data string matches the regex regular expression is used.
 *             <b>default</b> If 'nth', 'maxLen' and 'regex' is not specified, OR if any of those fail to return a value, then the given default value is used.
+*     <b>path</b> is optional. If present, it is used in place of the resourceField, subField, type, nth, maxLen and regex attributes: a path expression
+*        (a subset of FHIRPath) that reads a value at any depth of the resource, e.g. relatedArtifact.where(type='depends-on').resource. A path that reads
+*        several values gets them all, separated by commas. (See com.icf.iglistchanger.PathExpression)
 *
 * </pre>
  * @author Dan Donahue
@@ -73,23 +77,11 @@ import org.jsoup.select.Elements;
  */
 public class Controller {
 
-	// Most of the following are populated by reading data from the table alteration descriptors in the control file being processed.
-	// We could not use these vars, and instead just read from the file whenever we access the data. Reading the variables in locally trades storage space 
-	// in favor of processing speed, and also facilitates debugging and troubleshooting.
-	
-	private String controlFilename = null;
-	private Document controlXML = null;					// The xml file containing the descriptors describing how to change a table in 0 or more html files
+	private String controlFilename = null;              // The xml file containing the descriptors describing how to change a table in 0 or more html files
+	private List<TableAlterDescriptor> descriptors = null; // The table-descriptors in the control file, in document order
 	private int currDescriptorPos = 0;					// Which descriptor we are currently processing
-	private Element currDescriptor = null;				// The current descriptor
-	private Document htmlDoc = null;					// The actual html file (loaded as a document) that we are editing
-	private Element oldTable = null;					// The table in the html file we are editing
-	private Element newTable = null;					// A clone of the actual table - a version that we will physically change
-	private int targetTablePos = 0;					    // Which table in the html file to edit. (The file may contain more than one table.)
-	private List<String> resourceFilenames = null;		// The names of the .json resource files that we'll use to populate new columns in the table
-	private List<JSONObject> resources = null;          // The corresponding list of .json documents
-	private String resourceDir = null;                  // The full or relative path to the directory where the resource files are located
-	private String outputHTMLFilename = null;           // The full or relative pathname of the file to write the altered html document to
-	private List<Element> oldColSpecs = null;           // The list of current column specs (read from the current descriptor xml)
+	private TableAlterTask currTask = null;				// The processing state of the current descriptor
+	private ResourceCache resourceCache = null;         // Optional cache of parsed resource directories, given to each task
 	
 	/**
 	 * Opens the control xml file of the given filename (full pathname).
@@ -97,11 +89,38 @@ public class Controller {
 	 * @param filename - A string representing the pathname to a control xml file
 	 */
 	public Controller(String filename) {
+		this(filename, null, null);
+	}
+
+	/**
+	 * Opens the control xml file of the given filename (full pathname), reading resources through the given cache.
+	 * If an executor is given, then as each descriptor is read, the executor starts reading the descriptor's resource directory into the cache - while
+	 * the rest of the control file is still being read. (The descriptors themselves can't be processed until the whole file has been read, since a later
+	 * descriptor may alter a table in the same html file as an earlier one, and so belong to the same PageJob.)
+	 * @param filename - A string representing the pathname to a control xml file
+	 * @param resourceCache - the cache to use, or null to read resource directories directly
+	 * @param prefetcher - the executor to prefetch resource directories with, or null to read them as each descriptor is processed
+	 */
+	public Controller(String filename, ResourceCache resourceCache, DescriptorExecutor prefetcher) {
 		super();
 		this.controlFilename = filename;
-		this.controlXML= FileUtils.openXMLFile(filename);
+		this.resourceCache = resourceCache;
+		this.descriptors = new ArrayList<TableAlterDescriptor>();
+		Set<String> prefetched = new HashSet<String>();                // The resource directories (and projections) already being prefetched
+		ControlFileReader reader = new ControlFileReader(filename);
+		Element descriptor = null;
+		while ((descriptor = reader.next()) != null) {
+			this.descriptors.add(TableAlterDescriptor.adopt(descriptor));         // The reader's elements aren't shared, so needn't be copied
+			if (prefetcher != null && resourceCache != null) {
+				TableAlterTask task = newTask(this.descriptors.size() - 1);
+				if (prefetched.add(resourceCache.keyOf(task.getResourceDirectory(), task.getProjection()))) {
+					prefetcher.prefetch(task);
+				}
+			}
+		}
+		reader.close();
 		this.currDescriptorPos = -1;  // so when we call next() for the first time, current pos is set to 0.
-		this.currDescriptor = null;
+		this.currTask = null;
 	}
 	
 	/**
@@ -113,84 +132,57 @@ public class Controller {
 	public boolean next() {
 		boolean isOK = true;
 		this.currDescriptorPos++;
-		Elements descriptors = this.controlXML.getElementsByTag("table-descriptor");
-		if (descriptors == null || descriptors.isEmpty() || this.currDescriptorPos >= descriptors.size()) {
+		if (this.currDescriptorPos >= this.descriptors.size()) {
 			isOK = false;
+			this.currTask = null;
 		}
 		else {
-			setCurrDescriptor(descriptors.get(this.currDescriptorPos));
+			this.currTask = newTask(this.currDescriptorPos);
+			this.currTask.load();
 		}
 		return isOK;
 	}
 	
+	/**
+	 * Returns a new, not yet loaded, TableAlterTask for each table alteration descriptor in the control file, in the order they appear in the file.
+	 * Each task holds its own processing state, so the tasks may be run independently of each other (and of this Controller).
+	 * @return List&lt;TableAlterTask&gt; - one task per descriptor
+	 */
+	public List<TableAlterTask> getTasks() {
+		List<TableAlterTask> tasks = new ArrayList<TableAlterTask>();
+		for (int i = 0; i < this.descriptors.size(); i++) {
+			tasks.add(newTask(i));
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Sets a cache of parsed resource directories that every task created by this Controller will read its resources through.
+	 * Since most descriptors share a few resource directories, this avoids re-reading the same directory for each descriptor.
+	 * @param resourceCache - the cache to use, or null to read resource directories directly
+	 */
+	public void setResourceCache(ResourceCache resourceCache) {
+		this.resourceCache = resourceCache;
+	}
+	
+	/**
+	 * Plans the processing of the control file: groups the table alteration descriptors by the html file they read and the file they write, so that each
+	 * html file is parsed once and written once, no matter how many of its tables are altered.
+	 * @return List&lt;PageJob&gt; - one job per distinct generatedHTMLFile/outputHTMLFile pair, in control file order
+	 */
+	public List<PageJob> getPageJobs() {
+		return PageJob.plan(getTasks());
+	}
+	
 	/**
 	 * Using the data from the current table alteration descriptor, re-generate the target table's header info
 	 * by copying existing columns from the original table to a new table, and by creating new columns
 	 * based on the new-cols specs from the descriptor.
 	 */
 	public void processTableHeader() {
-		if (this.oldTable == null) {
-			return;
-		}
-		Element header =  this.getFirstElementWithTag(oldTable, "thead"); //.oldTable.getElementsByTag("thead").get(0);   // Assumes the source table we are working with has a single header element.
-		Element newHeader = header.clone();                                // Clone the header, and empty the clone's children
-		newHeader.empty();
-		// If there are additional class or style elements specified in the descriptor, then add those to the new table's header element.
-		String oldClass = newHeader.attr("class");
-		String oldStyle = newHeader.attr("style");
-		String newClass = oldClass + " " + getControlValue("headerClass");
-		String newStyle = oldStyle + " " + getControlValue("headerStyle");
-		if (!newClass.isEmpty()) {
-			newHeader.attr("class", newClass);
+		if (this.currTask != null) {
+			this.currTask.processTableHeader();
 		}
-		if (!newStyle.isEmpty()) {
-			newHeader.attr("style", newStyle);
-		}
-
-		Element row =  this.getFirstElementWithTag(header, "tr"); //   header.getElementsByTag("tr").get(0);
-		Element newRow = row.clone();                                      // Get the single row (<tr>) from the source table header
-		newRow.empty();                                                    // Empty the clone row's children. (We'll re-populate from the source, with changes.)
-		Elements oldCols = row.getElementsByTag("th");                     // Get the header column elements from the source
-		for (int i = 0; i < oldCols.size(); i++ ) {                        // For each header column, if we want to keep the column, copy/clone from the source to the new header row.
-			Element oldCol = oldCols.get(i);
-			try {
-				Element oldColSpec = this.oldColSpecs.get(i);
-				if ("keep".equalsIgnoreCase(oldColSpec.attr("action"))) {
-					System.out.println("    Keeping column " + i + ", " + oldCol.ownText());
-					Element newCol = oldCol.clone();
-					newRow.appendChild(newCol);	
-				}
-				else if ("remove".equalsIgnoreCase(oldColSpec.attr("action"))) {
-					System.out.println("    Removing column " + i + ", " + oldCol.ownText());
-				}
-			}
-			catch (Exception e) {
-				// If no old column specs were found, then we should just skip this one and move on.
-			}
-			Elements newCols = getNewColumnSpecs(String.format("%d", i));
-			for (Element newColSpec : newCols) {                     // Now see if there are any new columns to add after the current column position we are working on (via the after-pos column specs)
-				System.out.println("    Adding column: " +   newColSpec.toString());
-				newRow.appendElement("th").text(newColSpec.attr("label"));
-			}
-			
-		}
-		this.newTable.empty();                                       // Clear the new table element
-		newHeader.appendChild(newRow);                               // Add the new row to the new header
-		this.newTable.appendChild(newHeader);                        // Add the new header to the new table
-		//System.out.println("\n\n" + this.newTable + "\n\n");
-		
-		// 
-		Element addOn = this.getFirstElementWithTag(currDescriptor, "addOns"); //.currDescriptor..getElementsByTag("addOns");
-		if (addOn == null ) {
-			System.out.println("    No additional add ons. (<addOns> element not found.)");
-		}
-		else {
-			SearchSort sort = new SearchSort(addOn, this.targetTablePos);
-			sort.process(this.htmlDoc, this.newTable);
-		}
-		
-
-		
 	}
 	
 	/**
@@ -200,352 +192,24 @@ public class Controller {
 	 * the corresponding resource json object based on the new-column spec data for each new column.
 	 */
 	public void processTableRows() {
-		if (oldTable == null) {
-			return;
-		}
-		Element body =  this.getFirstElementWithTag(oldTable, "tbody"); //.oldTable.getElementsByTag("tbody").get(0);   // Assumes the source table we are working with has a single tbody element.
-		Element newBody = null;
-		newBody = body.clone();                                  // Clone the body, and empty the clone's children
-		newBody.empty();
-		Elements rows = body.getElementsByTag("tr");                     // Now cycle through each row of the source table...
-		if (rows.size() < this.resources.size()) {
-			System.err.println("WARNING: there are more resources in the specified resource directory than there are rows in the table.");
+		if (this.currTask != null) {
+			this.currTask.processTableRows();
 		}
-		for (int r=0; r < rows.size(); r++) {
-			if (r >= this.resources.size()) {
-				// Hmmm...we've run out of resources, so I guess just skip this row, since the resources are really the source of truth for this table data.
-				// Actually, just break out of the loop. No sense continuing on if there aren't any more resources.
-				System.err.println("WARNING: the number of resources in the specified resource directory is less than the number of rows in the table.");
-				break;
-			}
-			else {
-			    Element row = rows.get(r);
-				Element newRow = row.clone();   
-				newRow.empty();                                              // Clone the row, then empty the clone row's children. (We'll re-populate from the source, with changes.)       
-				Elements oldCols = row.getElementsByTag("td");  
-				//System.out.println("Row " + r + ": " +oldCols.size());
-			    JSONObject resource = this.resources.isEmpty() ? null : this.resources.get(r);  // Get the corresponding resource for this row. ASSUMPTION: The resource list is one-to-one with the rows in the table, in the same order.
-	
-				for (int i = 0; i < oldCols.size(); i++ ) {                  // For each column in the source row, if we want to keep the column, copy/clone from the source to the new row.       
-					Element oldCol = oldCols.get(i);
-					try {
-						Element oldColSpec = this.oldColSpecs.get(i);
-						if ("keep".equalsIgnoreCase(oldColSpec.attr("action"))) {
-							//System.out.println("Keeping col " + i + ", " + oldCol.ownText());
-							Element newCol = oldCol.clone();
-							newRow.appendChild(newCol);	
-						}
-					}
-					catch (Exception e) {
-						// If no old column specs were found, then we should just skip this one and move on.
-					}
-	
-					Elements newCols = getNewColumnSpecs(String.format("%d", i));
-					for (Element newColSpec : newCols) {                     // Now see if there are any new columns to add after the current column position we are working on (via the after-pos column specs)
-						String fieldVal = getResourceFieldValue(resource, newColSpec);
-						newRow.appendElement("td").text(fieldVal);
-					}
-					
-				}
-				newBody.appendChild(newRow);                                 // Add this new row to the new body
-			}
-		}
-		this.newTable.appendChild(newBody);                              // Add the new body to the new table
-		//System.out.println("\n\nNew Table:\n" + this.newTable + "\n\n");
-		
 	}
 
 	/**
 	 * Replace the oldTable element in the original html document with the newTable element (that we've built in the processTableHeader() and processTableRows() methods).
 	 */
 	public void updateOriginalDocument() {
-		if (this.oldTable != null && this.newTable != null) {
-			this.oldTable.replaceWith(this.newTable);
-			writeHTMLFile(this.htmlDoc);
-		}
-	}
-	
-	/*
-	  Initializes all of the processing variables in a table alteration descriptor
-    */
-	private void setCurrDescriptor(Element el) {
-		
-		/*
-		<table-descriptors>
-		    <table-descriptor>
-		        <generatedHTMLFile>C:\ICF-work\Dev\Measures\Ecqm-content-r4-2021\git-myFork\ecqm-content-r4-2021\output\measures.html</generated>
-		        <outputHTMLFile>measures-new.html</outputHTMLFile>
-		        <targetTablePos>0</targetTablePos>
-		        <addOns paging="true" ordering="true" searching="true" pageLength="5" lengthChange="false" useOnlineDataTables="true" />
-		        <headerClass>navbar navbar-inverse</headerClass>
-		        <headerStyle>color:white;</headerStyle>
-		        <resourceDirectory>C:\ICF-work\Dev\Measures\Ecqm-content-r4-2021\git-myFork\ecqm-content-r4-2021\input\resources\measure</resourceDirectory>
-		        <oldColumn oldPpos="0" action="keep" resourceField="title"></oldColumn>
-		        <newColumn afterPos="0" label="CMS ID" resourceField="identifier" subField="value" type="array" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
-		        <oldColumn oldPpos="1" action="keep"  resourceField="description"></oldColumn>
-		        <newColumn afterPos="1" label="Name" resourceField="name" subField="value" type="string" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
-		        <newColumn afterPos="1" label="Start" resourceField="effectivePeriod" subField="start" type="object" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
-		        <newColumn afterPos="1" label="Contact" resourceField="contact" subField="telecom" type="array" nth="first" maxLen="" regex=".*FHIR" default="-"></newColumn>
-		    </table-descriptor>
-		  </table-descriptors>		 
-		  */
-
-		this.currDescriptor = el;  // Save the current xml element
-		String targetFilename =  getControlValue("generatedHTMLFile");
-		System.out.println("\n\nProcessing file '" + targetFilename + "'");
-		if (targetFilename == null || targetFilename.isEmpty()) {
-			System.err.println("   ERROR: No file found. Check '<generatedHTMLFile>' element");
-			return;
-		}
-
-		this.htmlDoc = FileUtils.parseXHtmlFile(getControlValue("generatedHTMLFile")); // open the actual html file (generated by tooling) as an html Document
-		if (this.htmlDoc == null) {
-			System.err.println("   ERROR: No file found. Check '<generatedHTMLFile>' element");
-			return;
-		}
-		try {
-			this.targetTablePos = Integer.parseInt(getControlValue("targetTablePos"));     // The actual html file may have multiple tables. This tells us which one we will alter
-		}
-		catch (Exception e) {
-			System.err.println("    ERROR: Problem determining targetTablePos value. It must be an integer.");
-			this.targetTablePos = -1;
-		}
-		this.oldTable = getTargetTable();                                              // The table element from the target html file, determined by the nth position, above
-		if (this.oldTable == null) {
-			return;  // Whaddya gonna do if there's no table to alter?
+		if (this.currTask != null) {
+			this.currTask.updateOriginalDocument();
 		}
-		this.newTable = this.oldTable.clone();                                         // A clone of the original table element - we will actually edit this clone.
-
-
-		this.resourceDir = getControlValue("resourceDirectory");                       // where the resource files are located
-		this.resourceFilenames = FileUtils.getDirFiles(this.resourceDir);              // the list of resource filenames found in the above dir
-		this.outputHTMLFilename = getControlValue("outputHTMLFile");                   // Optional name of a file to output when we finish editing. (If not present, we overwrite the original.)
-		if (null == this.outputHTMLFilename) {
-			this.outputHTMLFilename = getControlValue("generatedHTMLFile");
-		}
-		this.oldColSpecs = getOldColumnSpecs();
-		this.resources = new ArrayList<JSONObject>();
-		if (this.resourceFilenames != null && !this.resourceFilenames.isEmpty()) {
-			for (String filename : this.resourceFilenames) {
-				this.resources.add(FileUtils.parseJsonFile(this.resourceDir + "\\" + filename));
-			}
-		}
-		else {
-			System.err.println("    **ERROR:  No resources files found at: " + this.resourceDir + "\n   Table-Descriptor Default column values will be used throughout. See " + controlFilename);
-		}
-
-		
-	}
-	
-	/*
-	  Reads the text value (as a string) in the given tagname in the current table alteration descriptor
-    */
-	private String getControlValue(String tagname) {
-		try {
-			return (this.currDescriptor == null)? null : this.currDescriptor.getElementsByTag(tagname).get(0).ownText();
-		}
-		catch (Exception e) {
-			return ""; // Since all tags are optional in the descriptor, no really an error if not found. Just return "";
-		}
-	}
-	
-	/*
-	  Returns all of the 'old column' specs (i.e. spec for the current columns in the html table we are editing)
-    */
-	private Elements getOldColumnSpecs() {
-		Elements els = null;
-		try {
-			els = (this.currDescriptor == null)? null: this.currDescriptor.getElementsByAttribute("oldPos");
-		}
-		catch (Exception e) {
-		}
-		if (els == null || els.isEmpty()) {
-			System.err.println("    No old column elements found in descriptor. Are you sure this is correct?");
-		}
-		return els;
 	}
-	
-	
-	/*
-	  Returns all of the 'new column' specs to be added after the given column position (i.e. the specs for new columns to add to the html table we are editing)
-    */
-	private Elements getNewColumnSpecs(String pos) {
-		return (this.currDescriptor == null)? null: this.currDescriptor.getElementsByAttributeValue("afterPos", pos);
 
-	}
-	
-
-	/*
-	  Using the targetTablePos item from the current descriptor, return the nth html table from the file, where n is the targetTablePos
-    */
-	private Element getTargetTable() {
-		Element table = null;
-		if (this.htmlDoc != null) {
-			Elements tables = this.htmlDoc.getElementsByTag("table");
-			if (tables == null || tables.isEmpty()) {
-				System.err.println("    ERROR: No table elements were found in this html file.");
-			}
-			else {
-				try {
-					table = tables.get(this.targetTablePos);
-				}
-				catch (Exception e) {
-					System.err.println("    ERROR: The target table position, " + targetTablePos + " is invalid given the number of tables in the file, " + tables.size());
-				}
-			}
-			
-		}
-		return table;
-	}
-	
-	
-	/*
-	  Return the json field value in the given json resource using the attribute data within the given colSpec object to determine how
-	  to get the data from the resource
-   */
-	private String getResourceFieldValue(JSONObject resource, Element colSpec) {
-		// <newColumn after-pos="0" label="CMS ID" resource-field="identifier" type="string|array|object"  nth="0" maxLen="15" subField="" regex="" default="-"></newColumn>
-		
-		// Read the column spec data into local variables. (Probably overkill, but makes things easier during debugging.)
-		String val = colSpec.attr("default");            // The default value (from the spec) will be returned if nothing else works out
-		String field = colSpec.attr("resourceField");    // The name of the field in the json resource to get
-		String subField = colSpec.attr("subField");      // If the field is something other than a pure string, this is the name of the subsequent field to get
-		String fType = colSpec.attr("type");             // The 'type' of the field we are getting. Can be one of  string, object, or array
-		String nth = colSpec.attr("nth");                // Referring to which element in a field's array to get
-		String maxLenStr = colSpec.attr("maxLen");       // Referring to a maximum length of a subfield in a field's array objects to consider
-		Integer maxLen = -1;
-		String regex = colSpec.attr("regex");            // Referring to a pattern to examine for the subfield in a fields' array of objects to consider
-		JSONObject obj = null;
-		
-		if (resource == null) {
-			return val;
-		}
-		
-		// Though not  necessarily needed in all cases, go ahead and parse the maxLen attribute now.
-		try {
-			maxLen = Integer.parseInt(maxLenStr);
-		}
-		catch (Exception e) {
-			maxLen = -1;
-		}
-		
-		// Depending on the type of data in the field value, we do different things...
-		switch (fType) {
-			case "string" : // For simple string values, just return that value
-				try {
-					val =  resource.get(field).toString(); 
-				}
-				catch (Exception e) {
-					System.err.println("    String field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-				}
-				 break;
-			case "object" : // If the field value is an object, return the subfield value within that object
-				try {
-					obj = resource.getJSONObject(field);
-					val =  obj.get(subField).toString();
-				}
-				catch (Exception e) {
-					System.err.println("    Object field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-					// problem, move on
-				}
-				break;
-			case "array" :  // If the field is an array of json objects, the other colSpec attributes dictate which object in that array to use...
-				JSONArray vals = resource.getJSONArray(field);
-				//  Return the subfield value of the first array object...
-				if ("first".equalsIgnoreCase(nth)) {
-					try {
-						obj = vals.getJSONObject(0);
-						val = obj.get(subField).toString();
-					}
-					catch (Exception e) {
-						System.err.println("    Array[first] field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-						// problem, move on
-					}
-				}
-				// Return the subfield value of the last array object...
-				else if ("last".equalsIgnoreCase(nth)) {
-					try {
-						obj = vals.getJSONObject(vals.length()-1);
-						val =  obj.get(subField).toString();
-					}
-					catch (Exception e) {
-						System.err.println("    Array[last] field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-						// problem, move on
-					}
-				}
-				// Return the subfield value of the nth array object...
-				else if (!nth.isEmpty()) {
-					try {
-						int n = Integer.parseInt(nth);
-						obj = vals.getJSONObject(n);
-						val =  obj.get(subField).toString();
-					}
-					catch (Exception e) {
-						System.err.println("    Array[nth] field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-						// Obviously, the value of nth isn't an integer, so do nothing.
-					}
-				}
-				// Return the subfield value of the first array object whose subfield value length is less than or equal to the given max length value
-				else if (maxLen >= 0) {
-						String temp = null;
-						for (int i=0; i < vals.length(); i++) {
-							try {
-								obj = vals.getJSONObject(i);
-							    temp =  obj.get(subField).toString();
-							
-								if (maxLen >= temp.length()) {
-									val = temp;
-									break;
-								}
-							}
-							catch (Exception e) {
-								System.err.println("    Array[maxLen] field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-								// failed seeing if the object's subField was a string of a given length, so do nothing, and on to the next obj in the array.
-							}
-						}
-				}
-				// Return the subfield value of the first array object whose subfield value matches the given regex
-				else if (!regex.isEmpty()) {
-						String temp = null;
-						for (int i=0; i < vals.length(); i++) {
-							try {
-								obj = vals.getJSONObject(i);
-								temp =  obj.get(subField).toString();
-								if (Pattern.matches(regex, temp)) {
-									val = temp;
-									break;
-								}
-							}
-							catch (Exception e) {
-								System.err.println("    Array[regex] field error: " + e.getMessage() + "\n    Spec: " + colSpec);
-								// failed seeing if the object's subField was a string that matches the regex, so do nothing, and on to the next obj in the array.
-							}
-						}
-				}
-			 break;
-			 default: System.err.println("    ERROR: The field type of '" + fType + "' of field '" + field + "' is not recognized. Is should be one of 'string', 'object', or 'array'"); break;
-		}
-		return val; // Note: if none of the cases above fired, then val is still set to the colSpec's default value
-	}
-	
-	
-	/*
-	  Write the html document to the (full path) outputHTMLFilename as specified in the current table alteration descriptor.
-	  Note: If no outputHTMLFilename value is provided in the descriptor, the html document is written to the original html file.
-    */
-	private boolean writeHTMLFile(Document doc) {
-		System.out.println("Writing document to: " +this.outputHTMLFilename );
-		return FileUtils.writeXHtmlFile(doc, this.outputHTMLFilename);
-	}
-	
-	// Returns the first Element of tagName within the given target Element. If no is found, returns null;
-	private Element getFirstElementWithTag(Element target, String tagName) {
-		Elements els = target.getElementsByTag(tagName);
-		if (els == null || els.isEmpty()) {
-			return null;
-		}
-		else {
-			return els.get(0);
-		}
+	// Creates the task for the descriptor at the given position
+	private TableAlterTask newTask(int pos) {
+		TableAlterTask task = new TableAlterTask(this.descriptors.get(pos), pos, this.controlFilename);
+		task.setResourceCache(this.resourceCache);
+		return task;
 	}
 }
@@ -0,0 +1,172 @@
+package com.icf.iglistchanger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs the PageJobs of a control file concurrently, using a fixed size pool of worker threads.
+ *
+ * <p>Jobs are first partitioned into groups: any two jobs that read or write a common html file (via the generatedHTMLFile or outputHTMLFile elements)
+ * are placed in the same group. The jobs within a group are run one after another, in control file order, so the results are the same as processing the
+ * control file serially. Independent groups are run in parallel. A job that throws an exception is logged and counted as not written, and the rest of
+ * its group is still run - as the jobs of a control file are when it is run one job at a time (see runJob()).</p>
+ *
+ * <p>The worker threads are created once, and reused by every call to run() - e.g. for each control file of a batch - until shutdown() is called.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class DescriptorExecutor {
+
+	private int workers = 1;               // The number of worker threads used to process job groups
+	private ExecutorService pool = null;   // The worker threads, created by the first run()
+
+	/**
+	 * Creates an executor that uses the given number of worker threads. If the given value is less than 1, the number of available processors is used.
+	 *
+	 * @param workers - the number of worker threads
+	 */
+	public DescriptorExecutor(int workers) {
+		super();
+		this.workers = (workers < 1) ? Runtime.getRuntime().availableProcessors() : workers;
+	}
+
+	/**
+	 * Runs all of the given jobs, and waits for them to complete.
+	 *
+	 * @param jobs - the jobs to run, in control file order
+	 * @return true if every job completed without an uncaught exception, false otherwise
+	 */
+	public boolean run(List<PageJob> jobs) {
+		boolean isOk = true;
+		List<List<PageJob>> groups = groupJobs(jobs);
+		int poolSize = Math.max(1, Math.min(this.workers, groups.size()));
+		Log.info("Processing " + jobs.size() + " html file(s) in " + groups.size() + " group(s) using " + poolSize + " worker(s)");
+
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (final List<PageJob> group : groups) {
+			results.add(getPool().submit(new Callable<Boolean>() {
+				public Boolean call() {
+					boolean isGroupOk = true;
+					for (PageJob job : group) {
+						isGroupOk = runJob(job) && isGroupOk;                // A job that fails doesn't stop the rest of its group
+					}
+					return isGroupOk;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			try {
+				isOk = result.get().booleanValue() && isOk;
+			}
+			catch (Exception e) {
+				Log.error("    ERROR: A table descriptor group failed to complete. " + e.getMessage(), e);
+				isOk = false;
+			}
+		}
+		return isOk;
+	}
+
+	/**
+	 * Runs the given job. An exception thrown by the job is logged, and the job is left not written, so that the caller can go on to the next job.
+	 *
+	 * @param job - the job to run
+	 * @return false if the job threw an exception, true otherwise (whether or not the job altered and wrote its html file - see PageJob.isWritten())
+	 */
+	public static boolean runJob(PageJob job) {
+		try {
+			job.run();
+			return true;
+		}
+		catch (Exception e) {
+			Log.error("    ERROR: Processing of the html file '" + job.getGeneratedHTMLFilename() + "' failed. " + e, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Starts reading the given task's resource directory into its ResourceCache on a worker thread, without waiting for it. (See
+	 * TableAlterTask.prefetchResources()) Jobs run later on the same workers find the directory parsed - or, if it is still being read, wait for it
+	 * rather than reading it again.
+	 *
+	 * @param task - a task whose resources will be needed
+	 */
+	public void prefetch(final TableAlterTask task) {
+		getPool().submit(new Runnable() {
+			public void run() {
+				task.prefetchResources();
+			}
+		});
+	}
+
+	/**
+	 * Stops the worker threads, once the jobs already submitted have completed. Call this when the executor is no longer needed.
+	 */
+	public synchronized void shutdown() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+			this.pool = null;
+		}
+	}
+
+	private synchronized ExecutorService getPool() {
+		if (this.pool == null) {
+			this.pool = Executors.newFixedThreadPool(this.workers);
+		}
+		return this.pool;
+	}
+
+	/*
+	  Partitions the given jobs so that jobs sharing an input or output html file end up in the same group. Groups are returned in the order of
+	  their first job, and the jobs within a group keep their control file order.
+	*/
+	static List<List<PageJob>> groupJobs(List<PageJob> jobs) {
+		int[] owner = new int[jobs.size()];                            // A simple union-find: owner[i] leads to the representative job of job i's group
+		Map<String, Integer> fileOwners = new HashMap<String, Integer>();
+		for (int i = 0; i < jobs.size(); i++) {
+			owner[i] = i;
+			PageJob job = jobs.get(i);
+			for (String filename : new String[] { job.getGeneratedHTMLFilename(), job.getOutputHTMLFilename() }) {
+				String key = PageJob.fileKey(filename);
+				Integer other = fileOwners.get(key);
+				if (other == null) {
+					fileOwners.put(key, i);
+				}
+				else {
+					int a = findOwner(owner, other);
+					int b = findOwner(owner, i);
+					owner[Math.max(a, b)] = Math.min(a, b);          // Keep the earliest job as the representative
+				}
+			}
+		}
+
+		List<List<PageJob>> groups = new ArrayList<List<PageJob>>();
+		Map<Integer, List<PageJob>> byOwner = new HashMap<Integer, List<PageJob>>();
+		for (int i = 0; i < jobs.size(); i++) {
+			int root = findOwner(owner, i);
+			List<PageJob> group = byOwner.get(root);
+			if (group == null) {
+				group = new ArrayList<PageJob>();
+				byOwner.put(root, group);
+				groups.add(group);
+			}
+			group.add(jobs.get(i));
+		}
+		return groups;
+	}
+
+	// Follows the owner chain to the representative of a group
+	private static int findOwner(int[] owner, int i) {
+		while (owner[i] != i) {
+			owner[i] = owner[owner[i]];
+			i = owner[i];
+		}
+		return i;
+	}
+}
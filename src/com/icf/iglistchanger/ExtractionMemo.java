@@ -0,0 +1,107 @@
+package com.icf.iglistchanger;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * A memo of the cell values extracted from the resources of a com.icf.iglistchanger.ResourceSet, keyed by the resource (by identity) and the
+ * normalized key of the newColumn spec that extracted it (see ColumnSpec.getKey()). Table-descriptors that read the same resource directory share its
+ * cached ResourceSet, and so its memo: a column that several descriptors add - e.g. the CMS identifier, found by a regex scan of each resource's
+ * identifier array - is extracted once per resource, and looked up after that.
+ *
+ * <p>Every spec that reads its resource is memoized, whatever its kind. (A spec of unknown kind only ever extracts its default value.)</p>
+ *
+ * <p>The memo lives as long as its ResourceSet, so it is dropped along with the set when the set is evicted from the com.icf.iglistchanger.ResourceCache,
+ * or re-read because its directory changed. When the cache is disabled, every read of a directory gives a new set, so the cache instead keeps a memo
+ * per directory for the run, and gives each set a view of it (see forResources()) that keys the values by resource filename rather than by
+ * identity. The memo may be used by several threads at once. Two threads extracting the same value at the same time may both extract it; either
+ * value is kept, since they are equal.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ExtractionMemo {
+
+	private ConcurrentMap<String, ConcurrentMap<Object, String>> values = new ConcurrentHashMap<String, ConcurrentMap<Object, String>>();  // By spec key, then resource
+	private Map<JSONObject, String> filenames = null;   // For a view (see forResources()), the filename of each resource, by identity. Otherwise null.
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates an empty memo, that keys the values by resource identity.
+	 */
+	public ExtractionMemo() {
+		super();
+	}
+
+	/**
+	 * Returns a view of this memo for a set of resources read from the directory this memo's values were extracted from: the view shares this
+	 * memo's values and counts, but keys the values by resource filename, so a later read of the same (unchanged) directory finds them too.
+	 *
+	 * @param filenames - the names of the resource files, unique within their directory
+	 * @param resources - the corresponding resources. (Null entries are ignored.)
+	 * @return the view
+	 */
+	ExtractionMemo forResources(List<String> filenames, List<JSONObject> resources) {
+		ExtractionMemo view = new ExtractionMemo();
+		view.values = this.values;
+		view.hits = this.hits;
+		view.misses = this.misses;
+		view.filenames = new IdentityHashMap<JSONObject, String>();
+		for (int i = 0; i < resources.size(); i++) {
+			if (resources.get(i) != null) {
+				view.filenames.put(resources.get(i), filenames.get(i));
+			}
+		}
+		return view;
+	}
+
+	/**
+	 * Returns the value the given spec extracts from the given resource: from the memo if it has been extracted before, otherwise by extracting it
+	 * (and remembering it, if the spec is one that is memoized).
+	 *
+	 * @param spec - a compiled newColumn spec
+	 * @param resource - a resource of this memo's ResourceSet, or null
+	 * @return the cell text for the spec's column
+	 */
+	public String extract(ColumnSpec spec, JSONObject resource) {
+		Object resourceKey = (this.filenames == null) ? resource : this.filenames.get(resource);
+		if (resourceKey == null || !spec.isMemoized()) {
+			return spec.extract(resource);
+		}
+		ConcurrentMap<Object, String> specValues = this.values.get(spec.getKey());
+		if (specValues == null) {
+			this.values.putIfAbsent(spec.getKey(), new ConcurrentHashMap<Object, String>());   // (JSONObject doesn't override equals(), so resources are keyed by identity)
+			specValues = this.values.get(spec.getKey());
+		}
+		String value = specValues.get(resourceKey);
+		if (value != null) {
+			this.hits.increment();
+			return value;
+		}
+		this.misses.increment();
+		value = spec.extract(resource);
+		specValues.put(resourceKey, value);
+		return value;
+	}
+
+	/**
+	 * @return the number of values found in the memo
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return the number of values that had to be extracted, since they were not in the memo
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+}
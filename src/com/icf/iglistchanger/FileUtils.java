@@ -1,19 +1,17 @@
 package com.icf.iglistchanger;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -22,11 +20,18 @@ import org.jsoup.parser.Parser;
 /**
  * This class contains static methods for opening, closing, and reading from various files used in the processing of table descriptors.
  * 
+ * <p>Text files are read through a FileChannel and decoded as UTF-8 straight from the channel's bytes. Large resource files are memory-mapped rather
+ * than copied into the heap first. (Html files are never mapped, since the altered page may be written over the file that was read, and a mapped file
+ * can't be replaced on Windows until the mapping is garbage collected.) Html files are written with a com.icf.iglistchanger.AtomicFileWriter, so
+ * a run that is killed part way through never leaves a half-written page behind.</p>
+ * 
  * @author Dan Donahue
  *
  */
 public class FileUtils {
 
+	private static final long MAP_THRESHOLD = 1024 * 1024;   // Resource files at least this large are memory-mapped, rather than read into the heap
+
 	/**
 	 * Returns a org.jsoup.nodes.Document created by reading an XHTML (or HTML) file.
 	 *  
@@ -40,8 +45,7 @@ public class FileUtils {
 			 // System.out.println("\n\nNew Table:\n" + doc + "\n\n");
 		}
 		catch (Exception e) {
-			System.err.println("    Error parsing html file: '" + filename + "' " + e.getMessage());
-			e.printStackTrace();
+			Log.error("    Error parsing html file: '" + filename + "' " + e.getMessage(), e);
 		}
 		return doc;
 	}
@@ -53,23 +57,14 @@ public class FileUtils {
 	 * @return HTML as a string
 	 */
 	public static String getHTML_String(String filename) {
-	    StringBuilder contentBuilder = new StringBuilder();
 	    try {
 	    	// We need to make sure to enforce using UTF-8 when parsing the html files..
 	    	// (Note that this assumes the html files are UTF-8 encoded.  If not, we're kinda screwed.)
-	    	BufferedReader in = new BufferedReader(
-	    	        new InputStreamReader(
-	    	            new FileInputStream(filename), StandardCharsets.UTF_8));
-	        String str;
-	        while ((str = in.readLine()) != null) {
-	            contentBuilder.append(str);
-	        }
-	        in.close();
+	    	return readTextFile(filename, false);      // Not mapped, since the altered page may be written over this file
 	    } catch (IOException e) {
-	    	System.err.println("    Exception reading html file: '" + filename + "' " + e.getMessage());
-	    	e.printStackTrace();
+	    	Log.error("    Exception reading html file: '" + filename + "' " + e.getMessage(), e);
 	    }
-	    return contentBuilder.toString();
+	    return "";
 
 	}
 	
@@ -85,18 +80,23 @@ public class FileUtils {
 			
 			File file = new File(filename);
 			FileInputStream fis = new FileInputStream(file);
-			doc = Jsoup.parse(fis,null,"", Parser.xmlParser());
+			try {
+				doc = Jsoup.parse(fis,null,"", Parser.xmlParser());
+			}
+			finally {
+				fis.close();
+			}
 		}
 		catch (Exception e) {
-			System.err.println("    Exception reading XML file: '" + filename + "' " + e.getMessage());
-			e.printStackTrace();
+			Log.error("    Exception reading XML file: '" + filename + "' " + e.getMessage(), e);
 		}
 		return doc;
 	}
 	
 	/**
 	 * Given a org.jsoup.nodes.Document object, writes that object into a file with the given filename.
-	 * This writes the file in UTF-8 encoding.  
+	 * This writes the file in UTF-8 encoding.  The document is serialized straight into the file, rather than into a String first,
+	 * and the file is only replaced once the whole document has been written.
 	 * 
 	 * @param doc - an org.jsoup.nodes.Document to be written
 	 * @param filename - pathname of file to be written to
@@ -104,22 +104,50 @@ public class FileUtils {
 	 */
 	public static boolean writeXHtmlFile(Document doc, String filename) {
 		boolean isOk = true;
-		File file = new File(filename);
-		PrintWriter writer;
 		try {
-			writer = new PrintWriter(file,"UTF-8");
-			writer.write(doc.outerHtml() ) ;
-			writer.flush();
-			writer.close();
-
-		} catch (FileNotFoundException | UnsupportedEncodingException e) {
-			System.err.println("    Exception writing html file: '" + filename + "' " + e.getMessage());
-			e.printStackTrace();
+			AtomicFileWriter writer = new AtomicFileWriter(filename);
+			try {
+				writeXHtml(doc, writer);
+				writer.commit();
+			}
+			finally {
+				writer.close();
+			}
+		} catch (Exception e) {
+			Log.error("    Exception writing html file: '" + filename + "' " + e.getMessage(), e);
 			isOk = false;
 		}
 		return isOk;
 	}
 	
+	/**
+	 * Serializes the given org.jsoup.nodes.Document straight into the given Appendable (e.g. a Writer), with the same text as writeXHtmlFile() writes.
+	 * 
+	 * @param doc - an org.jsoup.nodes.Document to be written
+	 * @param out - where the document is written to
+	 * @throws IOException if the document cannot be written
+	 */
+	public static void writeXHtml(Document doc, Appendable out) throws IOException {
+		doc.html(new Trimmed(out));                             // The text of doc.outerHtml(), which trims the serialized document, less end of line blanks
+	}
+	
+	/**
+	 * Returns the text writeXHtml() writes for the given org.jsoup.nodes.Document - e.g. a table parsed on its own, to be spliced into a page.
+	 * 
+	 * @param doc - an org.jsoup.nodes.Document
+	 * @return the serialized document
+	 */
+	public static String toXHtml(Document doc) {
+		StringBuilder text = new StringBuilder();
+		try {
+			writeXHtml(doc, text);
+		}
+		catch (IOException e) {
+			// Not expected, since a StringBuilder doesn't throw
+		}
+		return text.toString();
+	}
+	
 	/**
 	 * Give an directory name, returns a list of filenames in the top-level of that directory
 	 * 
@@ -150,14 +178,143 @@ public class FileUtils {
 	 */
 	public static JSONObject parseJsonFile(String filename) {
 		 JSONObject jsonContent = null;
-		File file = new File(filename);
         try {
-            String content = new String(Files.readAllBytes(Paths.get(file.toURI())));
-            jsonContent = new JSONObject(content);
-         } catch (IOException e) {
-        	 System.err.println("    Exception reading json file:  '" + filename + "' " + e.getMessage());
-            e.printStackTrace();
+            jsonContent = readJsonFile(filename);
+         } catch (IOException | JSONException e) {
+        	 Log.error("    Exception reading json file:  '" + filename + "' " + e.getMessage(), e);
         }
 		return jsonContent;
 	}
+	
+	/**
+	 * Given a file pathname, reads the contents of the file as a JSON object and returns that object.
+	 * Unlike parseJsonFile, failures are not reported here, but are thrown to the caller.
+	 * 
+	 * @param filename - pathname of JSON file to read
+	 * @return JSONObject resulting from reading JSON data from the given filename.
+	 * @throws IOException if the file cannot be read
+	 * @throws JSONException if the file does not hold a JSON object
+	 */
+	public static JSONObject readJsonFile(String filename) throws IOException, JSONException {
+		return new JSONObject(readTextFile(filename, true));
+	}
+	
+	/**
+	 * Reads the given UTF-8 encoded text file into a String. Large files are memory-mapped and decoded straight from the mapping.
+	 * Bytes that are not valid UTF-8 are decoded as the replacement character, as InputStreamReader does.
+	 * 
+	 * @param filename - pathname of the file to read
+	 * @return the text of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String readTextFile(String filename) throws IOException {
+		return readTextFile(filename, true);
+	}
+	
+	/*
+	  Reads the given UTF-8 encoded text file into a String. If mayMap is set, files of at least MAP_THRESHOLD bytes are memory-mapped and decoded straight
+	  from the mapping. Otherwise the file is read into a heap buffer of its exact size, with as few reads as the channel allows.
+	*/
+	private static String readTextFile(String filename, boolean mayMap) throws IOException {
+		FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("The file is too large to read (" + size + " bytes)");
+			}
+			if (mayMap && size >= MAP_THRESHOLD) {
+				ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)
+						.decode(mapped).toString();
+			}
+			ByteBuffer buf = ByteBuffer.allocate((int) size);
+			while (buf.hasRemaining() && channel.read(buf) >= 0) {
+				// read until the buffer is full, or the file ends early
+			}
+			return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	/*
+	  Passes text through to a Writer, leaving out leading and trailing whitespace (as String.trim() does), so a document can be serialized
+	  straight into a file with the same text as its trimmed outerHtml(). Blanks at the end of a line are left out too: the pretty printer writes a
+	  whitespace-only text node (e.g. the line break between two tags in the page that was read) as a single space, just before it starts the next
+	  tag on a new line. (Text the pretty printer passes through in one piece, such as a script, is left as it is.)
+	*/
+	private static class Trimmed implements Appendable {
+		
+		private Appendable out;
+		private boolean isStarted = false;                         // True once a non-whitespace character has been passed through
+		private StringBuilder spaces = new StringBuilder();        // Whitespace held back, in case nothing but whitespace follows it
+		
+		Trimmed(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			return append(csq, 0, csq.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			int last = end - 1;
+			while (last >= start && csq.charAt(last) <= ' ') {
+				last--;
+			}
+			if (last < start) {
+				if (this.isStarted) {
+					this.spaces.append(csq, start, end);
+				}
+				return this;
+			}
+			int first = start;
+			while (csq.charAt(first) <= ' ') {
+				first++;
+			}
+			if (this.isStarted) {
+				this.spaces.append(csq, start, first);
+			}
+			this.isStarted = true;
+			flushSpaces();
+			this.out.append(csq, first, last + 1);
+			this.spaces.append(csq, last + 1, end);
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			if (c <= ' ') {
+				if (this.isStarted) {
+					this.spaces.append(c);
+				}
+				return this;
+			}
+			this.isStarted = true;
+			flushSpaces();
+			this.out.append(c);
+			return this;
+		}
+
+		// Passes the whitespace held back through, less any blanks that end a line
+		private void flushSpaces() throws IOException {
+			int from = 0;
+			for (int i = 0; i < this.spaces.length(); i++) {
+				char c = this.spaces.charAt(i);
+				if (c == '\n' || c == '\r') {
+					int blanks = i;
+					while (blanks > from && (this.spaces.charAt(blanks - 1) == ' ' || this.spaces.charAt(blanks - 1) == '\t')) {
+						blanks--;
+					}
+					this.out.append(this.spaces, from, blanks);
+					from = i;
+				}
+			}
+			this.out.append(this.spaces, from, this.spaces.length());
+			this.spaces.setLength(0);
+		}
+	}
 }
@@ -0,0 +1,593 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.parser.Parser;
+
+/**
+ * Applies the table-descriptors of a com.icf.iglistchanger.PageJob without building a DOM of the whole html page. Only the target tables are parsed;
+ * everything else in the page is copied to the output file unchanged, so the memory used is bounded by the size of the target tables rather than the
+ * size of the page.
+ *
+ * <p>The page is read twice:</p>
+ * <ol>
+ * <li>The <i>locate</i> pass scans the tags of the page, without building anything, to find where each target table starts and ends (keeping the text
+ *     of just those tables), and where the add on includes go: after the <u>last</u> stylesheet link, after the <u>last</u> jquery include, or at the
+ *     end of the body. Since it is the last of each that matters, these positions are only known once the whole page has been scanned.</li>
+ * <li>Once each target table has been rebuilt, the <i>copy</i> pass copies the page to the output file, splicing in the rebuilt tables and the includes.</li>
+ * </ol>
+ *
+ * <p>Tags, comments and CDATA sections are recognized the same way as when the whole page is parsed (see FileUtils.parseXHtmlFile), so targetTablePos
+ * refers to the same table either way. Since the rest of the page is not re-serialized, its formatting is kept as it was.</p>
+ *
+ * <p>Some pages cannot be rewritten this way - e.g. if a target table is nested in another table, or two descriptors alter the same table. run()
+ * then returns null, and the page should be parsed whole instead. When more than one descriptor adds includes to the same page, the includes are added
+ * in control file order.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class HtmlStreamRewriter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private PageJob job = null;                       // The page and the descriptors to apply to it
+
+	// Filled in by the locate pass
+	private Map<Integer, StringBuilder> tableText = new HashMap<Integer, StringBuilder>();   // The text of each target table, by table position
+	private Map<Integer, Node> tables = new HashMap<Integer, Node>();                       // Where each target table starts and ends, by table position
+	private int tableCount = 0;                       // The number of tables in the page
+	private boolean isNested = false;                 // True if a target table contains, or is contained in, another table
+	private Node stylesheet = null;                   // The last element with rel="stylesheet"
+	private Node jquery = null;                       // The last element with src="assets/js/jquery.js"
+	private Node body = null;                         // The first body element
+
+	/**
+	 * Creates a rewriter for the given job. Nothing is read until run() is called.
+	 *
+	 * @param job - the html page, and the table-descriptors to apply to it
+	 */
+	public HtmlStreamRewriter(PageJob job) {
+		super();
+		this.job = job;
+	}
+
+	/**
+	 * Applies each of the job's tasks to its target table, and writes the altered page to the job's output file.
+	 *
+	 * @return true if the page was altered and written, false if it was not altered (or could not be written), or null if the page cannot be
+	 *         rewritten by streaming, and should be parsed whole instead
+	 */
+	public Boolean run() {
+		List<TableAlterTask> tasks = this.job.getTasks();
+		Set<Integer> targets = new HashSet<Integer>();
+		boolean needsIncludes = false;
+		for (TableAlterTask task : tasks) {
+			int pos = task.getTargetTablePos();
+			if (pos < 0) {
+				return notStreamable("descriptor " + task.getDescriptorPos() + " has no valid targetTablePos");
+			}
+			if (!targets.add(pos)) {
+				return notStreamable("more than one descriptor alters table " + pos);
+			}
+			needsIncludes = needsIncludes || task.hasSearchSort();
+		}
+
+		RunMetrics metrics = this.job.getMetrics();
+		String page = this.job.getGeneratedHTMLFilename();
+		RunMetrics.Stage stage = metrics.start(page, -1, "locate");
+		try {
+			locate(targets);
+		}
+		catch (IOException e) {
+			return notStreamable("the file could not be read (" + e.getMessage() + ")");
+		}
+		stage.addBytesRead(new File(page).length()).end();
+		String reason = check(targets, needsIncludes);
+		if (reason != null) {
+			return notStreamable(reason);
+		}
+
+		List<Splice> splices = new ArrayList<Splice>();
+		StringBuilder cssIncludes = new StringBuilder();
+		StringBuilder scriptIncludes = new StringBuilder();
+		boolean isAltered = false;
+		for (TableAlterTask task : tasks) {
+			Log.info("  Descriptor " + task.getDescriptorPos() + ":");
+			int pos = task.getTargetTablePos();
+			stage = metrics.start(page, task.getDescriptorPos(), "load");
+			Document fragment = Jsoup.parse(this.tableText.remove(pos).toString(), "", Parser.xmlParser());  // Just the target table
+			task.loadFragment(fragment);
+			stage.end();
+			if (this.job.alterTable(task)) {
+				isAltered = true;
+				splices.add(new Splice(this.tables.get(pos).start, this.tables.get(pos).end, FileUtils.toXHtml(fragment)));   // The table as writeXHtmlFile() writes it
+			}
+			SearchSort sort = task.getSearchSort();
+			if (sort != null && sort.isActive()) {
+				cssIncludes.append('\n').append(sort.getCssInclude());
+				if (this.jquery == null && scriptIncludes.length() == 0) {
+					scriptIncludes.append('\n').append(sort.getJQueryInclude());  // The page doesn't include jquery, so the first descriptor with add ons includes it
+				}
+				scriptIncludes.append('\n').append(sort.getDataTablesInclude()).append('\n').append(sort.getInitScript());
+			}
+			task.release();
+		}
+		if (!isAltered) {
+			return Boolean.FALSE;
+		}
+		if (cssIncludes.length() > 0) {
+			splices.add(new Splice(this.stylesheet.end, this.stylesheet.end, cssIncludes.toString()));
+			long scriptPos = (this.jquery != null) ? this.jquery.end : this.body.innerEnd;
+			splices.add(new Splice(scriptPos, scriptPos, scriptIncludes.toString()));
+		}
+		// In file order. Includes that fall right where a table starts go before the table.
+		Collections.sort(splices, new Comparator<Splice>() {
+			@Override
+			public int compare(Splice a, Splice b) {
+				int cmp = Long.compare(a.from, b.from);
+				return (cmp != 0) ? cmp : Long.compare(a.to - a.from, b.to - b.from);
+			}
+		});
+
+		Log.info("Writing document to: " + this.job.getOutputHTMLFilename());
+		stage = metrics.start(page, -1, "write");
+		boolean isOk = write(splices);
+		stage.addBytesWritten(isOk ? new File(this.job.getOutputHTMLFilename()).length() : 0).end();
+		return isOk;
+	}
+
+	/*
+	  Reports why the page can't be streamed, and returns null so that run()'s caller parses the page whole instead.
+	*/
+	private Boolean notStreamable(String reason) {
+		Log.info("    Cannot stream '" + this.job.getGeneratedHTMLFilename() + "': " + reason + ". The whole page will be parsed instead.");
+		return null;
+	}
+
+	/*
+	  Returns the reason the page can't be rewritten by streaming, or null if it can.
+	*/
+	private String check(Set<Integer> targets, boolean needsIncludes) {
+		for (Integer pos : targets) {
+			if (pos >= this.tableCount) {
+				return "there is no table " + pos + " in the file";
+			}
+		}
+		if (this.isNested) {
+			return "a target table contains, or is contained in, another table";
+		}
+		if (needsIncludes) {
+			if (this.stylesheet == null) {
+				return "there is no stylesheet link to add the DataTables stylesheet after";
+			}
+			if (this.jquery == null && (this.body == null || this.body.innerEnd < 0)) {
+				return "there is no jquery include or body element to add the DataTables script after";
+			}
+			long scriptPos = (this.jquery != null) ? this.jquery.end : this.body.innerEnd;
+			for (Node table : this.tables.values()) {
+				if ((this.stylesheet.end > table.start && this.stylesheet.end < table.end) || (scriptPos > table.start && scriptPos < table.end)) {
+					return "the includes for the add ons would go inside a target table";
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	  The locate pass. Scans the tags of the page, tracking open elements the same way the xml parser does: an end tag closes the nearest open element
+	  with the same name (and any elements opened after it), and is ignored if there is none.
+	*/
+	private void locate(Set<Integer> targets) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(this.job.getGeneratedHTMLFilename()), StandardCharsets.UTF_8);
+		try {
+			Source in = new Source(reader);
+			List<Node> open = new ArrayList<Node>();
+			int openTables = 0;
+			int openTargets = 0;
+			int c;
+			while ((c = in.read()) >= 0) {
+				if (c != '<') {
+					continue;
+				}
+				long tagStart = in.offset - 1;
+				int n = in.peek();
+				if (n == '!') {
+					in.read();
+					skipMarkupDeclaration(in);
+				}
+				else if (n == '?') {
+					skipTo(in, '>');
+				}
+				else if (n == '/') {
+					in.read();
+					n = in.peek();
+					if (isLetter(n)) {
+						Tag tag = readTag(in, null);
+						if (tag == null) {
+							break;
+						}
+						for (int i = open.size() - 1; i >= 0; i--) {
+							if (open.get(i).name.equals(tag.name)) {
+								while (open.size() > i) {
+									Node node = open.remove(open.size() - 1);
+									boolean isMatch = (open.size() == i);
+									close(node, isMatch ? in.offset : tagStart, tagStart, in);
+									if (node.table >= 0) {
+										openTables--;
+										openTargets -= node.isTarget ? 1 : 0;
+									}
+								}
+								break;
+							}
+						}
+					}
+					else if (n >= 0 && n != '>') {
+						skipTo(in, '>');
+					}
+					else if (n == '>') {
+						in.read();
+					}
+				}
+				else if (isLetter(n)) {
+					StringBuilder raw = new StringBuilder("<");
+					Tag tag = readTag(in, raw);
+					if (tag == null) {
+						break;
+					}
+					Node node = new Node(tag.name, tagStart);
+					if ("table".equals(tag.name)) {
+						node.table = this.tableCount++;
+						node.isTarget = targets.contains(node.table);
+						if (openTables > 0 && (openTargets > 0 || node.isTarget)) {
+							this.isNested = true;
+						}
+						if (node.isTarget && in.capture == null) {
+							in.capture = raw;                                  // Keep the text of the table, starting with this tag
+							this.tableText.put(node.table, raw);
+							this.tables.put(node.table, node);
+						}
+					}
+					if ("stylesheet".equalsIgnoreCase(tag.rel.trim())) {
+						this.stylesheet = node;
+					}
+					if (SearchSort.fn_JQUERY_JS.equalsIgnoreCase(tag.src.trim())) {
+						this.jquery = node;
+					}
+					if ("body".equals(tag.name) && this.body == null) {
+						this.body = node;
+					}
+					if (tag.isSelfClosing) {
+						close(node, in.offset, -1, in);
+					}
+					else {
+						open.add(node);
+						if (node.table >= 0) {
+							openTables++;
+							openTargets += node.isTarget ? 1 : 0;
+						}
+					}
+				}
+				// Otherwise the '<' is just text
+			}
+			for (int i = open.size() - 1; i >= 0; i--) {
+				close(open.get(i), in.offset, in.offset, in);                  // Anything still open ends at the end of the file
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/*
+	  Records where the given element ends. If it is the target table being kept, its text is trimmed to end there, and keeping stops.
+	*/
+	private void close(Node node, long end, long innerEnd, Source in) {
+		node.end = end;
+		node.innerEnd = innerEnd;
+		if (node.isTarget && in.capture != null && in.capture == this.tableText.get(node.table)) {
+			in.capture.setLength((int) (end - node.start));
+			in.capture = null;
+		}
+	}
+
+	/*
+	  Reads the rest of a start or end tag, after the '<' or '</'. Returns null if the file ends within the tag (in which case it is not a tag).
+	*/
+	private static Tag readTag(Source in, StringBuilder raw) throws IOException {
+		in.raw = raw;
+		try {
+			Tag tag = new Tag();
+			StringBuilder text = new StringBuilder();
+			int c;
+			while ((c = in.peek()) >= 0 && !isSpace(c) && c != '/' && c != '>') {
+				text.append((char) in.read());
+			}
+			tag.name = text.toString().toLowerCase();
+			while (true) {
+				c = in.read();
+				if (c < 0) {
+					return null;
+				}
+				if (c == '>') {
+					return tag;
+				}
+				if (isSpace(c)) {
+					continue;
+				}
+				if (c == '/') {
+					if (in.peek() == '>') {
+						in.read();
+						tag.isSelfClosing = true;
+						return tag;
+					}
+					continue;
+				}
+				text.setLength(0);                                             // An attribute name...
+				text.append((char) c);
+				while ((c = in.peek()) >= 0 && !isSpace(c) && c != '/' && c != '=' && c != '>') {
+					text.append((char) in.read());
+				}
+				String name = text.toString().toLowerCase();
+				while ((c = in.peek()) >= 0 && isSpace(c)) {
+					in.read();
+				}
+				if (c != '=') {
+					continue;
+				}
+				in.read();                                                     // ...and its value
+				while ((c = in.peek()) >= 0 && isSpace(c)) {
+					in.read();
+				}
+				text.setLength(0);
+				if (c == '"' || c == '\'') {
+					int quote = in.read();
+					while ((c = in.read()) != quote) {
+						if (c < 0) {
+							return null;
+						}
+						text.append((char) c);
+					}
+				}
+				else {
+					while ((c = in.peek()) >= 0 && !isSpace(c) && c != '>') {
+						text.append((char) in.read());
+					}
+				}
+				if ("rel".equals(name)) {
+					tag.rel = text.toString();
+				}
+				else if ("src".equals(name)) {
+					tag.src = text.toString();
+				}
+			}
+		}
+		finally {
+			in.raw = null;
+		}
+	}
+
+	/*
+	  Skips a comment, CDATA section, doctype or other declaration, after the '<!'.
+	*/
+	private static void skipMarkupDeclaration(Source in) throws IOException {
+		int c = in.read();
+		if (c == '-' && in.peek() == '-') {                                    // A comment: <!-- ... -->
+			in.read();
+			c = in.read();
+			if (c == '>') {
+				return;                                                        // <!-->
+			}
+			int dashes = 0;
+			if (c == '-') {
+				c = in.read();
+				if (c == '>') {
+					return;                                                    // <!--->
+				}
+				dashes = (c == '-') ? 2 : 0;
+			}
+			while ((c = in.read()) >= 0) {
+				if (c == '>' && dashes >= 2) {
+					return;
+				}
+				if (c == '!' && dashes >= 2 && in.peek() == '>') {
+					in.read();
+					return;                                                    // --!>
+				}
+				dashes = (c == '-') ? dashes + 1 : 0;
+			}
+		}
+		else if (c == '[') {                                                   // Maybe a CDATA section: <![CDATA[ ... ]]>
+			String cdata = "CDATA[";
+			for (int i = 0; i < cdata.length(); i++) {
+				c = in.read();
+				if (c != cdata.charAt(i)) {
+					if (c >= 0 && c != '>') {
+						skipTo(in, '>');
+					}
+					return;
+				}
+			}
+			int brackets = 0;
+			while ((c = in.read()) >= 0) {
+				if (c == '>' && brackets >= 2) {
+					return;
+				}
+				brackets = (c == ']') ? brackets + 1 : 0;
+			}
+		}
+		else if (c >= 0 && c != '>') {                                         // A doctype, or some other declaration
+			skipTo(in, '>');
+		}
+	}
+
+	private static void skipTo(Source in, int end) throws IOException {
+		int c;
+		while ((c = in.read()) >= 0 && c != end) {
+			// skip
+		}
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	/*
+	  The copy pass. Copies the page to the output file, replacing or inserting the given splices. The output file is only replaced once the whole page
+	  has been copied, so it may be the page itself.
+	*/
+	private boolean write(List<Splice> splices) {
+		String filename = this.job.getOutputHTMLFilename();
+		try {
+			Reader in = new InputStreamReader(new FileInputStream(this.job.getGeneratedHTMLFilename()), StandardCharsets.UTF_8);
+			try {
+				AtomicFileWriter writer = new AtomicFileWriter(filename);
+				try {
+					char[] buf = new char[BUFFER_SIZE];
+					long pos = 0;
+					for (Splice splice : splices) {
+						copy(in, writer, buf, splice.from - pos);
+						writer.write(splice.text);
+						copy(in, null, buf, splice.to - splice.from);                  // Skip the original table
+						pos = splice.to;
+					}
+					copy(in, writer, buf, Long.MAX_VALUE);
+					writer.commit();
+				}
+				finally {
+					writer.close();
+				}
+			}
+			finally {
+				in.close();
+			}
+			return true;
+		}
+		catch (IOException e) {
+			Log.error("    Exception writing html file: '" + filename + "' " + e.getMessage(), e);
+			return false;
+		}
+	}
+
+	/*
+	  Copies up to count characters from in to out. If out is null, the characters are skipped.
+	*/
+	private static void copy(Reader in, Writer out, char[] buf, long count) throws IOException {
+		while (count > 0) {
+			int n = in.read(buf, 0, (int) Math.min(buf.length, count));
+			if (n < 0) {
+				return;
+			}
+			if (out != null) {
+				out.write(buf, 0, n);
+			}
+			count -= n;
+		}
+	}
+
+	/*
+	  An element found by the locate pass. Offsets are in characters from the start of the file.
+	*/
+	private static class Node {
+		String name;
+		long start;                 // Where the start tag begins
+		long end = -1;              // Just after the end tag (or where the element was implicitly closed)
+		long innerEnd = -1;         // Where a child appended to the element would go: just before the end tag. -1 if the element is self-closing.
+		int table = -1;             // If the element is a table, its position among the tables in the page
+		boolean isTarget = false;   // True if the element is a table that a descriptor alters
+
+		Node(String name, long start) {
+			this.name = name;
+			this.start = start;
+		}
+	}
+
+	/*
+	  The parts of a tag the locate pass needs.
+	*/
+	private static class Tag {
+		String name = "";
+		String rel = "";
+		String src = "";
+		boolean isSelfClosing = false;
+	}
+
+	/*
+	  A change to the page: the characters in [from, to) are replaced by the text. (If from == to, the text is inserted.)
+	*/
+	private static class Splice {
+		long from;
+		long to;
+		String text;
+
+		Splice(long from, long to, String text) {
+			this.from = from;
+			this.to = to;
+			this.text = text;
+		}
+	}
+
+	/*
+	  A buffered character source that keeps track of its offset, and copies what it reads to the raw tag text and the target table text, when asked.
+	*/
+	private static class Source {
+		private Reader in;
+		private char[] buf = new char[BUFFER_SIZE];
+		private int pos = 0;
+		private int limit = 0;
+		long offset = 0;                   // The number of characters read so far
+		StringBuilder raw = null;          // If not null, the text of the tag being read
+		StringBuilder capture = null;      // If not null, the text of the target table being read
+
+		Source(Reader in) {
+			this.in = in;
+		}
+
+		int peek() throws IOException {
+			if (this.pos >= this.limit) {
+				this.limit = this.in.read(this.buf, 0, this.buf.length);
+				this.pos = 0;
+				if (this.limit <= 0) {
+					this.limit = 0;
+					return -1;
+				}
+			}
+			return this.buf[this.pos];
+		}
+
+		int read() throws IOException {
+			int c = peek();
+			if (c >= 0) {
+				this.pos++;
+				this.offset++;
+				if (this.raw != null) {
+					this.raw.append((char) c);
+				}
+				if (this.capture != null) {
+					this.capture.append((char) c);
+				}
+			}
+			return c;
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.icf.iglistchanger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A projection is the set of JSON field paths that a table-descriptor actually reads from its resources - e.g. <i>identifier.value</i>, <i>name</i> and
+ * <i>effectivePeriod.start</i> - compiled into a tree of field names. Reading a resource file through a projection tokenizes the file once, and builds
+ * JSONObjects and JSONArrays only for the values on those paths. Everything else (such as the base64 <i>content.data</i> of a Library) is skipped
+ * without being allocated.
+ *
+ * <p>A path applies to every element of an array it passes through, so <i>identifier.value</i> keeps the <i>value</i> field of each object in the
+ * <i>identifier</i> array. A path that ends at a field keeps the whole value of that field.</p>
+ *
+ * <p>A projection is immutable once it has been built, and may be used by several threads at once.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class JsonProjection {
+
+	private boolean isAll = false;                                                  // If true, the whole value at this node is kept
+	private Map<String, JsonProjection> fields = new TreeMap<String, JsonProjection>(); // The fields to keep below this node, when isAll is false
+
+	/**
+	 * Creates an empty projection. Add paths to it with include().
+	 */
+	public JsonProjection() {
+		super();
+	}
+
+	/**
+	 * Adds a path to this projection. Each argument is one field name along the path; empty or null names are ignored, so
+	 * include("effectivePeriod", "") keeps the whole effectivePeriod field.
+	 *
+	 * @param path - the field names along the path, starting at the top level of the resource
+	 * @return this projection
+	 */
+	public JsonProjection include(String... path) {
+		JsonProjection node = this;
+		for (String field : path) {
+			if (node.isAll) {
+				return this;                                    // An enclosing field is already kept whole
+			}
+			if (field == null || field.isEmpty()) {
+				break;
+			}
+			JsonProjection child = node.fields.get(field);
+			if (child == null) {
+				child = new JsonProjection();
+				node.fields.put(field, child);
+			}
+			node = child;
+		}
+		if (node != this) {
+			node.isAll = true;
+			node.fields.clear();
+		}
+		return this;
+	}
+
+	/**
+	 * Returns a string that identifies this projection: two projections with the same key keep the same fields.
+	 *
+	 * @return the projection's key - e.g. "{effectivePeriod{start},identifier{value},name}"
+	 */
+	public String getKey() {
+		if (this.isAll) {
+			return "";
+		}
+		StringBuilder key = new StringBuilder("{");
+		for (Map.Entry<String, JsonProjection> field : this.fields.entrySet()) {
+			if (key.length() > 1) {
+				key.append(',');
+			}
+			key.append(field.getKey()).append(field.getValue().getKey());
+		}
+		return key.append('}').toString();
+	}
+
+	@Override
+	public String toString() {
+		return getKey();
+	}
+
+	/**
+	 * Reads the given UTF-8 encoded JSON file, keeping only the fields on this projection's paths.
+	 *
+	 * @param filename - pathname of the JSON file to read
+	 * @return the projected JSONObject
+	 * @throws IOException if the file cannot be read
+	 * @throws JSONException if the file does not hold a JSON object
+	 */
+	public JSONObject read(String filename) throws IOException, JSONException {
+		return read(filename, null);
+	}
+
+	/**
+	 * Reads the given UTF-8 encoded JSON file, keeping only the fields on this projection's paths.
+	 *
+	 * @param filename - pathname of the JSON file to read
+	 * @param keptChars - if not null, keptChars[0] is set to the number of characters of the file that were kept. (Used to size the cache of parsed resources.)
+	 * @return the projected JSONObject
+	 * @throws IOException if the file cannot be read
+	 * @throws JSONException if the file does not hold a JSON object
+	 */
+	public JSONObject read(String filename, long[] keptChars) throws IOException, JSONException {
+		Reader in = new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8);
+		try {
+			Scanner scanner = new Scanner(in);
+			JSONObject obj = scanner.readResource(this);
+			if (keptChars != null) {
+				keptChars[0] = scanner.kept;
+			}
+			return obj;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/*
+	  A single-pass JSON tokenizer over a Reader. Values on the projection's paths are built into org.json objects - using the same number and literal
+	  conversions as org.json's own parser, so the projected values print the same - and all other values are skipped a character at a time.
+	*/
+	private static class Scanner {
+
+		private Reader in;
+		private char[] buf = new char[8192];
+		private int pos = 0;
+		private int limit = 0;
+		private long offset = 0;                      // The number of characters consumed before buf[0], for error messages
+		private int keepDepth = 0;                    // Greater than 0 while reading a value that is being kept
+		private long kept = 0;                        // The number of characters read while keeping values
+		private StringBuilder text = new StringBuilder();
+
+		Scanner(Reader in) {
+			this.in = in;
+		}
+
+		JSONObject readResource(JsonProjection projection) throws IOException {
+			int c = peekClean();
+			if (c == '\uFEFF') {                      // Skip a byte order mark
+				this.pos++;
+				c = peekClean();
+			}
+			if (c != '{') {
+				throw error("A JSON resource must begin with '{'");
+			}
+			return readObject(projection);
+		}
+
+		// Reads the object at the current position, keeping the fields named by the given projection node
+		private JSONObject readObject(JsonProjection node) throws IOException {
+			JSONObject obj = new JSONObject();
+			next();                                   // The opening '{'
+			int c = peekClean();
+			if (c == '}') {
+				next();
+				return obj;
+			}
+			while (true) {
+				if (peekClean() != '"') {
+					throw error("Expected a field name");
+				}
+				String key = readString();
+				if (nextClean() != ':') {
+					throw error("Expected a ':' after a key");
+				}
+				JsonProjection child = node.isAll ? node : node.fields.get(key);
+				if (child == null) {
+					skipValue();
+				}
+				else {
+					obj.put(key, readValue(child));
+				}
+				c = nextClean();
+				if (c == '}') {
+					return obj;
+				}
+				if (c != ',') {
+					throw error("Expected a ',' or '}'");
+				}
+			}
+		}
+
+		// Reads the array at the current position, applying the given projection node to each element
+		private JSONArray readArray(JsonProjection node) throws IOException {
+			JSONArray arr = new JSONArray();
+			next();                                   // The opening '['
+			if (peekClean() == ']') {
+				next();
+				return arr;
+			}
+			while (true) {
+				arr.put(readValue(node));
+				int c = nextClean();
+				if (c == ']') {
+					return arr;
+				}
+				if (c != ',') {
+					throw error("Expected a ',' or ']'");
+				}
+			}
+		}
+
+		// Reads the value at the current position. Objects and arrays are projected through the given node; scalars are always kept whole.
+		private Object readValue(JsonProjection node) throws IOException {
+			this.keepDepth++;
+			try {
+				int c = peekClean();
+				switch (c) {
+					case '{': return readObject(node);
+					case '[': return readArray(node);
+					case '"': return readString();
+					default:  return readLiteral();
+				}
+			}
+			finally {
+				this.keepDepth--;
+			}
+		}
+
+		// Skips the value at the current position without building anything
+		private void skipValue() throws IOException {
+			int c = peekClean();
+			if (c == '{' || c == '[') {
+				int depth = 0;
+				do {
+					c = next();
+					if (c == '"') {
+						this.pos--;
+						skipString();
+					}
+					else if (c == '{' || c == '[') {
+						depth++;
+					}
+					else if (c == '}' || c == ']') {
+						depth--;
+					}
+					else if (c < 0) {
+						throw error("Unterminated object or array");
+					}
+				} while (depth > 0);
+			}
+			else if (c == '"') {
+				skipString();
+			}
+			else {
+				while ((c = peek()) >= 0 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+					this.pos++;
+				}
+			}
+		}
+
+		private void skipString() throws IOException {
+			next();                                   // The opening quote
+			int c;
+			while ((c = next()) != '"') {
+				if (c == '\\') {
+					next();
+				}
+				else if (c < 0) {
+					throw error("Unterminated string");
+				}
+			}
+		}
+
+		private String readString() throws IOException {
+			next();                                   // The opening quote
+			this.text.setLength(0);
+			while (true) {
+				int c = next();
+				if (c == '"') {
+					return this.text.toString();
+				}
+				if (c < 0 || c == '\n' || c == '\r') {
+					throw error("Unterminated string");
+				}
+				if (c == '\\') {
+					c = next();
+					switch (c) {
+						case 'b': this.text.append('\b'); break;
+						case 't': this.text.append('\t'); break;
+						case 'n': this.text.append('\n'); break;
+						case 'f': this.text.append('\f'); break;
+						case 'r': this.text.append('\r'); break;
+						case 'u':
+							int code = 0;
+							for (int i = 0; i < 4; i++) {
+								int d = Character.digit(next(), 16);
+								if (d < 0) {
+									throw error("Illegal escape");
+								}
+								code = (code << 4) | d;
+							}
+							this.text.append((char) code);
+							break;
+						case '"':
+						case '\'':
+						case '\\':
+						case '/': this.text.append((char) c); break;
+						default: throw error("Illegal escape");
+					}
+				}
+				else {
+					this.text.append((char) c);
+				}
+			}
+		}
+
+		// Reads a number, true, false or null
+		private Object readLiteral() throws IOException {
+			this.text.setLength(0);
+			int c;
+			while ((c = peek()) >= 0 && c != ',' && c != '}' && c != ']' && c != ':' && !Character.isWhitespace(c)) {
+				this.text.append((char) next());
+			}
+			if (this.text.length() == 0) {
+				throw error("Missing value");
+			}
+			return JSONObject.stringToValue(this.text.toString());
+		}
+
+		private int peek() throws IOException {
+			if (this.pos >= this.limit) {
+				this.offset += this.limit;
+				this.limit = this.in.read(this.buf, 0, this.buf.length);
+				this.pos = 0;
+				if (this.limit <= 0) {
+					this.limit = 0;
+					return -1;
+				}
+			}
+			return this.buf[this.pos];
+		}
+
+		private int next() throws IOException {
+			int c = peek();
+			if (c >= 0) {
+				this.pos++;
+				if (this.keepDepth > 0) {
+					this.kept++;
+				}
+			}
+			return c;
+		}
+
+		private int peekClean() throws IOException {
+			int c;
+			while ((c = peek()) >= 0 && Character.isWhitespace(c)) {
+				this.pos++;
+			}
+			return c;
+		}
+
+		private int nextClean() throws IOException {
+			peekClean();
+			return next();
+		}
+
+		private JSONException error(String message) {
+			return new JSONException(message + " at character " + (this.offset + this.pos));
+		}
+	}
+}
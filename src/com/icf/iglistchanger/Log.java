@@ -0,0 +1,358 @@
+package com.icf.iglistchanger;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * The app's diagnostic messages. Messages are written by a single background thread - ERROR and WARN messages to System.err, INFO and DEBUG messages
+ * to System.out - so the threads altering tables never wait on the console.
+ *
+ * <p>Only messages at or above the current level (INFO, unless set with -logLevel) are written. Since a column spec that doesn't match the resources
+ * fails the same way for every row of the table, ERROR and WARN messages are also de-duplicated: each distinct message is written the first time only
+ * (or the first few times - see setRepeatLimit()), and summarize() then reports how many more times each was repeated. If more than a set number of
+ * ERROR and WARN messages arrive within one second, the rest of that second's messages are counted rather than written.</p>
+ *
+ * <p>Messages are queued in the order they are logged. Call flush() to wait until every queued message has been written - e.g. before the app exits.
+ * (Queued messages are also flushed when the JVM shuts down.)</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public final class Log {
+
+	/** The levels of messages, from the most to the least severe */
+	public enum Level { ERROR, WARN, INFO, DEBUG }
+
+	private static final int QUEUE_SIZE = 8192;            // When the queue is full, logging threads wait for the appender to catch up
+	private static final int MAX_TRACKED = 10000;          // The most distinct messages counted for de-duplication. (Others are written, but not counted.)
+
+	private static volatile Level level = Level.INFO;
+	private static volatile int repeatLimit = 1;           // The number of times each distinct ERROR or WARN message is written
+	private static volatile int maxPerSecond = 500;        // The number of ERROR and WARN messages written per second, before the rest are suppressed
+
+	private static final ConcurrentMap<String, Repeat> repeats = new ConcurrentHashMap<String, Repeat>();  // The count of each distinct ERROR or WARN message
+	private static long windowStart = 0;                   // The start of the current one second rate-limiting window
+	private static int windowCount = 0;                    // The number of ERROR and WARN messages written in the current window
+	private static long suppressed = 0;                    // The number of ERROR and WARN messages not written because of the rate limit
+
+	private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+	private static final Thread appender = new Thread(new Runnable() {
+		public void run() {
+			append();
+		}
+	}, "iglistchanger-log");
+
+	static {
+		appender.setDaemon(true);
+		appender.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush(1000);
+			}
+		}));
+	}
+
+	private Log() {
+	}
+
+	/**
+	 * Sets the least severe level of message that is written
+	 *
+	 * @param newLevel - the level
+	 */
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	/**
+	 * Sets the least severe level of message that is written, by name
+	 *
+	 * @param name - one of error, warn, info or debug (in any case)
+	 * @return true if the name is a level, false otherwise (and the level is unchanged)
+	 */
+	public static boolean setLevel(String name) {
+		try {
+			level = Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+			return true;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Sets the number of times each distinct ERROR or WARN message is written, before repeats are only counted
+	 *
+	 * @param limit - the number of times. A value of 0 or less writes every repeat.
+	 */
+	public static void setRepeatLimit(int limit) {
+		repeatLimit = limit;
+	}
+
+	/**
+	 * Sets the number of ERROR and WARN messages that may be written per second, before the rest of the second's messages are suppressed
+	 *
+	 * @param limit - the number of messages. A value of 0 or less writes them all.
+	 */
+	public static void setMaxPerSecond(int limit) {
+		maxPerSecond = limit;
+	}
+
+	/**
+	 * @param messageLevel - a level
+	 * @return true if messages at the given level are written. (Use this to avoid building DEBUG messages that won't be written.)
+	 */
+	public static boolean isEnabled(Level messageLevel) {
+		return messageLevel.compareTo(level) <= 0;
+	}
+
+	/**
+	 * Logs an ERROR message
+	 *
+	 * @param message - the message
+	 */
+	public static void error(String message) {
+		log(Level.ERROR, message);
+	}
+
+	/**
+	 * Logs an ERROR message, followed by the stack trace of the given exception
+	 *
+	 * @param message - the message
+	 * @param e - the exception that caused the error
+	 */
+	public static void error(String message, Throwable e) {
+		StringWriter trace = new StringWriter();
+		e.printStackTrace(new PrintWriter(trace));
+		log(Level.ERROR, message + "\n" + trace.toString().trim());
+	}
+
+	/**
+	 * Logs a WARN message
+	 *
+	 * @param message - the message
+	 */
+	public static void warn(String message) {
+		log(Level.WARN, message);
+	}
+
+	/**
+	 * Logs a WARN message about one resource of many - e.g. a resource that lacks a newColumn's field. The message (say, the field and the column) is
+	 * de-duplicated as any other WARN message is, but the given detail (say, the exception message and the column spec) is written along with its first
+	 * occurrence only. summarize() then reports the total, as the message followed by "in N resource(s)".
+	 *
+	 * @param message - the message, the same for each resource
+	 * @param detail - what is written after the first occurrence of the message
+	 */
+	public static void warnPerResource(String message, String detail) {
+		log(Level.WARN, message, detail);
+	}
+
+	/**
+	 * Logs an INFO message
+	 *
+	 * @param message - the message
+	 */
+	public static void info(String message) {
+		log(Level.INFO, message);
+	}
+
+	/**
+	 * Logs a DEBUG message
+	 *
+	 * @param message - the message
+	 */
+	public static void debug(String message) {
+		log(Level.DEBUG, message);
+	}
+
+	/**
+	 * Writes how many times each de-duplicated message was repeated, and how many messages the rate limit suppressed, then starts counting again.
+	 * Called at the end of each run.
+	 */
+	public static void summarize() {
+		for (String message : repeats.keySet()) {
+			Repeat repeat = repeats.remove(message);              // Once removed, the repeat isn't counted any more (see log()), so its count is final
+			if (repeat == null) {
+				continue;
+			}
+			long total = repeat.count.get();
+			long more = total - Math.max(1, repeatLimit);
+			if (more > 0 && repeat.isPerResource) {
+				enqueue(repeat.level, String.format("%s in %,d resource(s)", message, total));
+			}
+			else if (more > 0) {
+				enqueue(repeat.level, String.format("    (Repeated %,d more time(s):) %s", more, message.trim()));
+			}
+		}
+		long count;
+		synchronized (Log.class) {
+			count = suppressed;
+			suppressed = 0;
+		}
+		if (count > 0) {
+			enqueue(Level.WARN, String.format("    WARNING: %,d more error and warning message(s) were not written, to keep the log rate down.", count));
+		}
+	}
+
+	/**
+	 * Waits until every message logged so far has been written
+	 */
+	public static void flush() {
+		flush(0);
+	}
+
+	private static void flush(long timeoutMillis) {
+		if (Thread.currentThread() == appender) {
+			return;
+		}
+		CountDownLatch written = new CountDownLatch(1);
+		try {
+			queue.put(new Entry(null, null, written));
+			if (timeoutMillis > 0) {
+				written.await(timeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			else {
+				written.await();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void log(Level messageLevel, String message) {
+		log(messageLevel, message, null);
+	}
+
+	// Logs the message. If a detail is given, it is written after the message - the first time the message is logged, if the message is de-duplicated
+	private static void log(Level messageLevel, String message, String detail) {
+		if (!isEnabled(messageLevel)) {
+			return;
+		}
+		long count = 1;
+		if (messageLevel.compareTo(Level.WARN) <= 0) {
+			if (repeatLimit > 0) {
+				count = count(messageLevel, message, detail != null);
+				if (count > repeatLimit) {
+					return;                                        // Counted, and reported by summarize()
+				}
+			}
+			if (maxPerSecond > 0 && isRateLimited()) {
+				return;
+			}
+		}
+		enqueue(messageLevel, (detail == null || count > 1) ? message : message + ": " + detail);
+	}
+
+	/*
+	  Counts one more of the given message, and returns its count - or 1 if the most distinct messages are already counted. The count is made within
+	  the map's compute(), so it can't be lost to summarize() removing the message's repeat at the same moment: it either counts towards the removed
+	  repeat before summarize() reads it, or starts a new one.
+	*/
+	private static long count(final Level messageLevel, String message, final boolean isPerResource) {
+		final long[] count = { 1 };
+		repeats.compute(message, new BiFunction<String, Repeat, Repeat>() {
+			public Repeat apply(String key, Repeat repeat) {
+				if (repeat == null) {
+					if (repeats.size() >= MAX_TRACKED) {
+						return null;                                   // Written, but not counted
+					}
+					repeat = new Repeat(messageLevel, isPerResource);
+				}
+				count[0] = repeat.count.incrementAndGet();
+				return repeat;
+			}
+		});
+		return count[0];
+	}
+
+	// Counts the message against the current one second window, and returns true if the window's limit has already been reached
+	private static synchronized boolean isRateLimited() {
+		long now = System.currentTimeMillis();
+		if (now - windowStart >= 1000) {
+			windowStart = now;
+			windowCount = 0;
+		}
+		if (windowCount >= maxPerSecond) {
+			suppressed++;
+			return true;
+		}
+		windowCount++;
+		return false;
+	}
+
+	private static void enqueue(Level messageLevel, String message) {
+		try {
+			queue.put(new Entry(messageLevel, message, null));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			write(messageLevel, message);                          // Write it here, rather than lose it
+		}
+	}
+
+	// The appender thread: writes each queued message, in order, until the JVM exits
+	private static void append() {
+		while (true) {
+			try {
+				Entry entry = queue.take();
+				if (entry.flushed != null) {
+					System.out.flush();
+					System.err.flush();
+					entry.flushed.countDown();
+				}
+				else {
+					write(entry.level, entry.message);
+				}
+			}
+			catch (InterruptedException e) {
+				// Keep going: the appender only stops with the JVM
+			}
+			catch (Exception e) {
+				// A failing stream must not stop the appender
+			}
+		}
+	}
+
+	private static void write(Level messageLevel, String message) {
+		if (messageLevel.compareTo(Level.WARN) <= 0) {
+			System.err.println(message);
+		}
+		else {
+			System.out.println(message);
+		}
+	}
+
+	private static class Entry {
+		private Level level;
+		private String message;
+		private CountDownLatch flushed;                        // If not null, the entry is a flush marker rather than a message
+
+		private Entry(Level level, String message, CountDownLatch flushed) {
+			this.level = level;
+			this.message = message;
+			this.flushed = flushed;
+		}
+	}
+
+	private static class Repeat {
+		private Level level;
+		private boolean isPerResource;                         // True if summarize() reports the total count per resource (see warnPerResource())
+		private AtomicLong count = new AtomicLong();
+
+		private Repeat(Level level, boolean isPerResource) {
+			this.level = level;
+			this.isPerResource = isPerResource;
+		}
+	}
+}
@@ -1,40 +1,224 @@
 package com.icf.iglistchanger;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class consists of a single static method - 'main' - that reads a control file (xml) of table descriptors, creates a new Controller class, then loops through the control file's table descriptor elements and processes each by calling the appropriate Controller class methods.
  * The main method takes a single, optional, string argument that is the pathname of the control file to use.  If no argument is provided, then a default filname is used:  "TableAlterDescritors.xml", co-located with the application jar file.
- * 
+ *
+ * <p>Several control files (e.g. one per IG) may be given instead, as pathnames or glob patterns such as "igs/&#42;/TableAlterDescriptors.xml". They are run one
+ * after another in the same JVM, sharing the worker threads and the resource cache, and a failure in one doesn't stop the others (see
+ * com.icf.iglistchanger.BatchRunner). The app ends with a summary of each control file, and exits with 0 if every control file succeeded, or 1 if any failed.</p>
+ *
+ * <p>The following optional arguments may precede the control file pathname:</p>
+ * <ul>
+ * <li><b>-workers n</b>  the number of html files to process concurrently. Defaults to the number of available processors. A value of 1 processes the html files one at a time, in control file order.</li>
+ * <li><b>-ioThreads n</b>  the number of resource files to read and parse at once, shared by all descriptors. Defaults to the number of available processors.</li>
+ * <li><b>-parallelRows n</b>  the number of rows at which a table's new cells are extracted from its resources in parallel, on the common fork-join pool
+ * (see com.icf.iglistchanger.RowCells). Defaults to 2000. A value of 0 always extracts them one row at a time.</li>
+ * <li><b>-streamJson</b>  read resource files with a streaming tokenizer that keeps only the fields named by each descriptor's newColumn elements, rather than parsing whole files.</li>
+ * <li><b>-streamHtml</b>  rewrite each html file by streaming it through, parsing only the target tables, rather than parsing the whole page. The rest of the page is copied unchanged.</li>
+ * <li><b>-cacheMB n</b>  the memory budget, in megabytes of resource files, for the cache of parsed resource directories shared by all descriptors. Defaults to 256. A value of 0 disables the cache.</li>
+ * <li><b>-incremental</b>  skip the html files whose inputs are unchanged since the last incremental run, as recorded in a build manifest (see com.icf.iglistchanger.BuildManifest).
+ * The manifest is the control file pathname with ".manifest" appended.</li>
+ * <li><b>-manifest filename</b>  the pathname of the build manifest to use. Implies -incremental. Ignored when several control files are run.</li>
+ * <li><b>-watch</b>  after processing the control file, keep running, and re-process the table descriptors whose resources, html file or control file change
+ * (see com.icf.iglistchanger.PageWatcher). Takes a single control file.</li>
+ * <li><b>-report filename</b>  write the time, allocations and volume of each stage of each table descriptor to the given file (see com.icf.iglistchanger.RunMetrics).
+ * The report is a CSV file if the filename ends with .csv, otherwise a JSON document.</li>
+ * <li><b>-logLevel level</b>  the least severe messages to write: error, warn, info (the default) or debug. Repeats of the same error or warning are
+ * counted rather than written, and summarized at the end of the run (see com.icf.iglistchanger.Log).</li>
+ * <li><b>-debounce n</b>  with -watch, how many milliseconds the files must be quiet after a change before the table descriptors are re-processed. Defaults to 500.</li>
+ * <li><b>-serve [host:]port</b>  rather than running a control file, keep running as an HTTP service that alters the pages posted to it, with -workers
+ * requests handled at once (see com.icf.iglistchanger.AlterService). The host defaults to 127.0.0.1, i.e. local clients only.</li>
+ * </ul>
+ *
  * @author Dan Donahue
  *
  */
 public class Main {
-	
+
 	public static void main(String[] args) {
-		
+
 		String controlFile = "TableAlterDescriptors.xml";  // Relative pathname, implies this file is co-located with the application.
-		if (args.length > 0) {
-			controlFile = args[0];
+		List<String> controlFiles = new ArrayList<String>();  // The control files and patterns given, if any, in place of the default
+		int workers = Runtime.getRuntime().availableProcessors();
+		long cacheBudget = ResourceCache.DEFAULT_BUDGET;
+		int ioThreads = Runtime.getRuntime().availableProcessors();
+		boolean streamJson = false;
+		boolean streamHtml = false;
+		String manifestFile = null;                       // If not null, the html files whose inputs are unchanged since the last run are skipped
+		boolean incremental = false;
+		boolean watch = false;
+		long debounce = PageWatcher.DEFAULT_DEBOUNCE;
+		String reportFile = null;                         // If not null, the run report is written to this file
+		String serve = null;                              // If not null, the [host:]port to serve requests on, rather than running the control files
+		for (int i = 0; i < args.length; i++) {
+			if ("-workers".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				try {
+					workers = Integer.parseInt(args[++i]);
+				}
+				catch (Exception e) {
+					Log.warn("    WARNING: -workers value '" + args[i] + "' is not an integer. Defaults to " + workers + " workers.");
+				}
+			}
+			else if ("-ioThreads".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				try {
+					ioThreads = Integer.parseInt(args[++i]);
+				}
+				catch (Exception e) {
+					Log.warn("    WARNING: -ioThreads value '" + args[i] + "' is not an integer. Defaults to " + ioThreads + " threads.");
+				}
+			}
+			else if ("-parallelRows".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				try {
+					RowCells.setThreshold(Integer.parseInt(args[++i]));
+				}
+				catch (Exception e) {
+					Log.warn("    WARNING: -parallelRows value '" + args[i] + "' is not an integer. Defaults to " + RowCells.getThreshold() + " rows.");
+				}
+			}
+			else if ("-streamJson".equalsIgnoreCase(args[i])) {
+				streamJson = true;
+			}
+			else if ("-streamHtml".equalsIgnoreCase(args[i])) {
+				streamHtml = true;
+			}
+			else if ("-incremental".equalsIgnoreCase(args[i])) {
+				incremental = true;
+			}
+			else if ("-manifest".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				manifestFile = args[++i];
+			}
+			else if ("-watch".equalsIgnoreCase(args[i])) {
+				watch = true;
+			}
+			else if ("-debounce".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				try {
+					debounce = Long.parseLong(args[++i]);
+				}
+				catch (Exception e) {
+					Log.warn("    WARNING: -debounce value '" + args[i] + "' is not an integer. Defaults to " + debounce + " milliseconds.");
+				}
+			}
+			else if ("-serve".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				serve = args[++i];
+			}
+			else if ("-report".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				reportFile = args[++i];
+			}
+			else if ("-logLevel".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				if (!Log.setLevel(args[++i])) {
+					Log.warn("    WARNING: -logLevel value '" + args[i] + "' is not one of error, warn, info or debug. Defaults to info.");
+				}
+			}
+			else if ("-cacheMB".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+				try {
+					cacheBudget = Long.parseLong(args[++i]) * 1024 * 1024;
+				}
+				catch (Exception e) {
+					Log.warn("    WARNING: -cacheMB value '" + args[i] + "' is not an integer. Defaults to " + (cacheBudget / (1024 * 1024)) + " MB.");
+				}
+			}
+			else {
+				controlFiles.add(args[i]);
+			}
+		}
+		final ResourceLoader loader = new ResourceLoader(ioThreads, streamJson);     // Shared by all descriptors, so the number of files read at once is bounded
+		ResourceCache cache = new ResourceCache(cacheBudget, loader); // Shared by all descriptors, so each resource directory is only parsed once
+		if (serve != null) {
+			if (!controlFiles.isEmpty() || watch) {
+				Log.warn("    WARNING: -serve takes no control file, and can't be used with -watch. The control file(s) given are ignored.");
+			}
+			String host = AlterService.DEFAULT_HOST;
+			int port = AlterService.DEFAULT_PORT;
+			int colon = serve.lastIndexOf(':');
+			try {
+				port = Integer.parseInt(serve.substring(colon + 1));
+				if (colon > 0) {
+					host = serve.substring(0, colon);
+				}
+			}
+			catch (Exception e) {
+				Log.warn("    WARNING: -serve value '" + serve + "' is not a [host:]port. Defaults to " + host + ":" + port + ".");
+			}
+			// Keep the JVM, the parsed descriptors and the cache warm, and alter the pages posted to the service until the app is stopped.
+			final AlterService service = new AlterService(cache, workers);
+			if (!service.start(host, port)) {
+				loader.shutdown();
+				Log.flush();
+				System.exit(BatchRunner.EXIT_FAILED);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					service.stop();
+					loader.shutdown();
+				}
+			}));
+			return;
+		}
+		if (controlFiles.isEmpty()) {
+			controlFiles.add(controlFile);
 		}
-		
-		File tst = new File(controlFile);
-		if (!tst.exists()) {
-			System.err.println("The control file '" + controlFile + "' was not found.");
-			
+		controlFiles = BatchRunner.expandControlFiles(controlFiles);
+
+		if (watch) {
+			controlFile = controlFiles.get(0);
+			if (controlFiles.size() > 1) {
+				Log.warn("    WARNING: -watch takes a single control file. Only '" + controlFile + "' is watched.");
+			}
+			if (!new File(controlFile).isFile()) {
+				Log.error("The control file '" + controlFile + "' was not found.");
+				loader.shutdown();
+				Log.flush();
+				System.exit(BatchRunner.EXIT_FAILED);
+			}
+			Log.info("Using control file: " + controlFile);
+			// Keep the JVM, the cache and the parsed control file warm, and re-process only what each change affects.
+			String manifestName = (incremental || manifestFile != null) ? ((manifestFile == null) ? controlFile + ".manifest" : manifestFile) : null;
+			PageWatcher watcher = new PageWatcher(controlFile, cache, new BuildManifest(manifestName, "streamHtml=" + streamHtml));
+			watcher.setWorkers(workers);
+			watcher.setStreamHtml(streamHtml);
+			watcher.setDebounce(debounce);
+			watcher.setReportFile(reportFile);
+			watcher.run();
+			loader.shutdown();
+			Log.flush();
+			return;
 		}
-		else {
-			System.out.println("Using control file: " + controlFile);
-			Controller control = new Controller(controlFile);
-			// For each descriptor in the above control file, alter the table in the .html file identified in each, then save changes to a new (or the same) html file.
-			while (control.next()) {
-				control.processTableHeader();
-				control.processTableRows();
-				control.updateOriginalDocument();
+		RunMetrics metrics = (reportFile == null) ? RunMetrics.DISABLED : new RunMetrics();
+		BatchRunner batch = new BatchRunner(cache, workers);  // Every control file shares the workers and the cache, and fails on its own
+		batch.setStreamHtml(streamHtml);
+		batch.setIncremental(incremental);
+		batch.setMetrics(metrics);
+		if (manifestFile != null) {
+			if (controlFiles.size() > 1) {
+				Log.warn("    WARNING: -manifest is ignored when several control files are run. Each control file's manifest is its pathname with \".manifest\" appended.");
+				batch.setIncremental(true);
+			}
+			else {
+				batch.setManifestFile(manifestFile);
 			}
 		}
+		for (String file : controlFiles) {
+			batch.run(file);
+		}
+		batch.shutdown();
+		Log.info(cache.getSummary());
+		if (reportFile != null) {
+			metrics.writeReport(reportFile);
+		}
+		loader.shutdown();
+		if (controlFiles.size() > 1) {
+			Log.info(batch.getSummary());
+		}
+		Log.summarize();
+		Log.flush();                                      // Wait for the last messages to be written before the app exits
+		System.exit(batch.getExitCode());
 
 	}
-			
+
 
 }
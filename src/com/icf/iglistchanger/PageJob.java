@@ -0,0 +1,216 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.nodes.Document;
+
+/**
+ * A PageJob applies every table-descriptor that reads the same generatedHTMLFile and writes the same outputHTMLFile to a single, shared, parsed document.
+ * The html file is parsed once, each descriptor's table alteration is applied to the in-memory document in control file order, and the document is then written once.
+ *
+ * <p>Use the static plan() method to group a control file's TableAlterTasks into PageJobs. If streamHtml is set, the page is rewritten by a
+ * com.icf.iglistchanger.HtmlStreamRewriter, which parses only the target tables, rather than the whole page.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class PageJob {
+
+	private String generatedHTMLFilename = null;       // The html file that is read
+	private String outputHTMLFilename = null;          // The file the altered html document is written to
+	private List<TableAlterTask> tasks = null;         // The descriptors that alter tables in this page, in control file order
+	private boolean streamHtml = false;                // If true, the page is streamed through, and only its target tables are parsed
+	private boolean isWritten = false;                 // Set by run(): true if the document was altered and written
+	private RunMetrics metrics = RunMetrics.DISABLED;  // Where the time and volume of each stage is recorded
+
+	/**
+	 * Creates a job that reads the given html file, and writes the altered document to the given output file.
+	 *
+	 * @param generatedHTMLFilename - pathname of the html file to edit
+	 * @param outputHTMLFilename - pathname of the file to write the altered html document to
+	 */
+	public PageJob(String generatedHTMLFilename, String outputHTMLFilename) {
+		super();
+		this.generatedHTMLFilename = generatedHTMLFilename;
+		this.outputHTMLFilename = outputHTMLFilename;
+		this.tasks = new ArrayList<TableAlterTask>();
+	}
+
+	/**
+	 * Groups the given tasks into PageJobs, one per distinct (generatedHTMLFile, outputHTMLFile) pair. Jobs are returned in the order of their first task,
+	 * and the tasks within a job keep their control file order.
+	 *
+	 * @param tasks - the tasks of a control file, in control file order
+	 * @return List&lt;PageJob&gt; - the planned jobs
+	 */
+	public static List<PageJob> plan(List<TableAlterTask> tasks) {
+		Map<String, PageJob> jobs = new LinkedHashMap<String, PageJob>();
+		for (TableAlterTask task : tasks) {
+			String key = fileKey(task.getGeneratedHTMLFilename()) + "|" + fileKey(task.getOutputHTMLFilename());
+			PageJob job = jobs.get(key);
+			if (job == null) {
+				job = new PageJob(task.getGeneratedHTMLFilename(), task.getOutputHTMLFilename());
+				jobs.put(key, job);
+			}
+			job.tasks.add(task);
+		}
+		return new ArrayList<PageJob>(jobs.values());
+	}
+
+	/**
+	 * Parses the html file, applies each task's table alteration to the parsed document, then writes the document to the output file.
+	 *
+	 * @return true if the document was altered and written, false otherwise
+	 */
+	public boolean run() {
+		this.isWritten = alter();
+		return this.isWritten;
+	}
+
+	/**
+	 * Returns the result of the last call to run()
+	 *
+	 * @return true if the document was altered and written, false if it was not (or the job has not been run)
+	 */
+	public boolean isWritten() {
+		return this.isWritten;
+	}
+
+	private boolean alter() {
+		Log.info("\n\nProcessing file '" + this.generatedHTMLFilename + "' (" + this.tasks.size() + " table descriptor(s))");
+		if (this.generatedHTMLFilename == null || this.generatedHTMLFilename.isEmpty()) {
+			Log.error("   ERROR: No file found. Check '<generatedHTMLFile>' element");
+			return false;
+		}
+		if (this.streamHtml) {
+			Boolean isWritten = new HtmlStreamRewriter(this).run();
+			if (isWritten != null) {
+				return isWritten;
+			}
+			// Otherwise the page can't be streamed, so fall through and parse it whole
+		}
+		RunMetrics.Stage stage = this.metrics.start(this.generatedHTMLFilename, -1, "parse");
+		Document doc = FileUtils.parseXHtmlFile(this.generatedHTMLFilename);  // Parse the page once, for all of the tasks
+		stage.addBytesRead(new File(this.generatedHTMLFilename).length()).end();
+		if (doc == null) {
+			Log.error("   ERROR: No file found. Check '<generatedHTMLFile>' element");
+			return false;
+		}
+
+		boolean isAltered = false;
+		for (TableAlterTask task : this.tasks) {
+			// Each target table is located only after the previous tasks have replaced their tables - the same as if the page had been re-read between descriptors.
+			Log.info("  Descriptor " + task.getDescriptorPos() + ":");
+			stage = this.metrics.start(this.generatedHTMLFilename, task.getDescriptorPos(), "load");
+			task.load(doc);
+			stage.end();
+			isAltered = alterTable(task) || isAltered;
+			task.release();
+		}
+
+		if (!isAltered) {
+			return false;
+		}
+		Log.info("Writing document to: " + this.outputHTMLFilename);
+		stage = this.metrics.start(this.generatedHTMLFilename, -1, "write");
+		boolean isOk = FileUtils.writeXHtmlFile(doc, this.outputHTMLFilename);
+		stage.addBytesWritten(isOk ? new File(this.outputHTMLFilename).length() : 0).end();
+		return isOk;
+	}
+
+	/**
+	 * Rebuilds the header and rows of a loaded task's table, and replaces the table, recording the header and rows stages in this job's metrics.
+	 * (Used by both the parsed and the streamed rewrite of the page.)
+	 *
+	 * @param task - a task that has been loaded
+	 * @return true if the table was replaced, false if there was no table to replace
+	 */
+	boolean alterTable(TableAlterTask task) {
+		RunMetrics.Stage stage = this.metrics.start(this.generatedHTMLFilename, task.getDescriptorPos(), "header");
+		task.processTableHeader();
+		int cells = task.getCellsProduced();
+		stage.addCells(cells).end();
+		stage = this.metrics.start(this.generatedHTMLFilename, task.getDescriptorPos(), "rows");
+		task.processTableRows();
+		boolean isReplaced = task.replaceTable();
+		stage.addRows(task.getRowsProduced()).addCells(task.getCellsProduced() - cells).end();
+		return isReplaced;
+	}
+
+	/**
+	 * Sets whether the page is rewritten by streaming, parsing only its target tables, rather than by parsing the whole page.
+	 * (If a page can't be streamed, it is parsed whole regardless.)
+	 *
+	 * @param streamHtml - true to stream the page
+	 */
+	public void setStreamHtml(boolean streamHtml) {
+		this.streamHtml = streamHtml;
+	}
+
+	/**
+	 * Sets where the time and volume of each stage of this job are recorded.
+	 *
+	 * @param metrics - the metrics of the run, or RunMetrics.DISABLED to record nothing
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = (metrics == null) ? RunMetrics.DISABLED : metrics;
+	}
+
+	/**
+	 * Returns where the time and volume of each stage of this job are recorded
+	 *
+	 * @return the metrics of the run
+	 */
+	public RunMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Returns the pathname of the html file this job reads
+	 *
+	 * @return pathname of the html file to edit
+	 */
+	public String getGeneratedHTMLFilename() {
+		return this.generatedHTMLFilename;
+	}
+
+	/**
+	 * Returns the pathname of the file this job writes
+	 *
+	 * @return pathname of the file to write the altered html document to
+	 */
+	public String getOutputHTMLFilename() {
+		return this.outputHTMLFilename;
+	}
+
+	/**
+	 * Returns the tasks applied by this job, in control file order
+	 *
+	 * @return List&lt;TableAlterTask&gt;
+	 */
+	public List<TableAlterTask> getTasks() {
+		return this.tasks;
+	}
+
+	/**
+	 * Returns a key that identifies a file, regardless of how its pathname is spelled in the control file
+	 *
+	 * @param filename - a full or relative pathname
+	 * @return the canonical (or, failing that, the absolute) pathname of the file
+	 */
+	static String fileKey(String filename) {
+		if (filename == null) {
+			return "";
+		}
+		try {
+			return new File(filename).getCanonicalPath();
+		}
+		catch (Exception e) {
+			return new File(filename).getAbsolutePath();
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a control file, then keeps watching its inputs, and re-runs the table-descriptors affected by each change - for local IG authoring, where the
+ * IG Publisher regenerates a few pages or resources at a time. Since the JVM, the ResourceCache and the parsed control file stay warm between runs,
+ * each re-run only costs the pages it rewrites.
+ *
+ * <p>A java.nio.file.WatchService watches the folder of the control file, each resourceDirectory, and the folder of each generatedHTMLFile. Change events
+ * are collected until no new event has arrived for the debounce period (the IG Publisher writes many files in a burst), then mapped to the PageJobs
+ * they affect:</p>
+ * <ul>
+ * <li>a change to any file in a resourceDirectory affects every job with a descriptor that reads the directory</li>
+ * <li>a change to a generatedHTMLFile affects the job that reads it</li>
+ * <li>a change to the control file re-reads the control file, and affects every job</li>
+ * </ul>
+ *
+ * <p>Affected jobs are run together with every job they share an html file with (see com.icf.iglistchanger.DescriptorExecutor), and only if their inputs
+ * really changed, as told by a com.icf.iglistchanger.BuildManifest. So the events caused by this app writing a page - e.g. a page altered in place - don't
+ * cause the page to be altered again.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class PageWatcher {
+
+	/** The default debounce period, in milliseconds */
+	public static final long DEFAULT_DEBOUNCE = 500;
+
+	private String controlFilename = null;                 // The control file being run
+	private ResourceCache resourceCache = null;            // Shared by every run, so unchanged resource directories are not read again
+	private BuildManifest manifest = null;                 // Tells which of the affected jobs' inputs really changed since they were last run
+	private int workers = 1;                               // The number of html files to process at once
+	private boolean streamHtml = false;                    // Passed on to each PageJob
+	private long debounce = DEFAULT_DEBOUNCE;              // How long the inputs must be quiet before the affected jobs are run
+	private String reportFile = null;                      // If not null, a run report for the jobs run since the watcher started is written here after each run
+	private RunMetrics metrics = RunMetrics.DISABLED;
+	private DescriptorExecutor executor = null;            // Reused by every run, when workers > 1
+
+	private List<PageJob> jobs = null;                     // The jobs of the control file, in control file order
+	private Map<String, List<PageJob>> jobsByFile = null;   // The jobs affected by a change to a file or folder, by the file key of the file or folder
+	private WatchService watchService = null;
+	private Map<WatchKey, Path> watchedFolders = null;      // The folder each registered WatchKey watches
+
+	/**
+	 * Creates a watcher for the given control file.
+	 *
+	 * @param controlFilename - pathname of the control file
+	 * @param resourceCache - the cache the table-descriptors read their resource directories through
+	 * @param manifest - the manifest that tells which jobs' inputs have changed. (If it has a file, the file is saved after each run.)
+	 */
+	public PageWatcher(String controlFilename, ResourceCache resourceCache, BuildManifest manifest) {
+		super();
+		this.controlFilename = controlFilename;
+		this.resourceCache = resourceCache;
+		this.manifest = manifest;
+		this.watchedFolders = new HashMap<WatchKey, Path>();
+	}
+
+	/**
+	 * @param workers - the number of html files to process at once. 1 processes them one at a time, in control file order.
+	 */
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * @param streamHtml - true to rewrite pages by streaming them (see com.icf.iglistchanger.PageJob)
+	 */
+	public void setStreamHtml(boolean streamHtml) {
+		this.streamHtml = streamHtml;
+	}
+
+	/**
+	 * @param debounce - how long, in milliseconds, the inputs must be quiet before the affected jobs are run
+	 */
+	public void setDebounce(long debounce) {
+		this.debounce = Math.max(0, debounce);
+	}
+
+	/**
+	 * @param reportFile - if not null, the file a run report (see com.icf.iglistchanger.RunMetrics) is written to after each run. The report covers
+	 *        every job run since the watcher started.
+	 */
+	public void setReportFile(String reportFile) {
+		this.reportFile = reportFile;
+		this.metrics = (reportFile == null) ? RunMetrics.DISABLED : new RunMetrics();
+	}
+
+	/**
+	 * Runs every job of the control file, then watches for changes until the thread is interrupted (or the app is stopped).
+	 *
+	 * @return false if the folders could not be watched, otherwise doesn't return until interrupted
+	 */
+	public boolean run() {
+		try {
+			this.watchService = FileSystems.getDefault().newWatchService();
+		}
+		catch (Exception e) {
+			Log.error("    ERROR: Unable to watch for file changes. " + e.getMessage());
+			return false;
+		}
+		try {
+			loadControlFile();
+			runJobs(this.jobs);
+			while (!Thread.currentThread().isInterrupted()) {
+				Log.info("\nWatching " + this.watchedFolders.size() + " folder(s) for changes. Press Ctrl+C to stop.");
+				Set<String> changed = waitForChanges();
+				List<PageJob> affected = getAffectedJobs(changed);
+				if (!affected.isEmpty()) {
+					runJobs(affected);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			try {
+				this.watchService.close();
+			}
+			catch (Exception e) {
+				// Nothing more to do
+			}
+			if (this.executor != null) {
+				this.executor.shutdown();
+			}
+		}
+		return true;
+	}
+
+	/*
+	  Reads the control file, plans its jobs, and registers the folders they read.
+	*/
+	private void loadControlFile() {
+		Controller control = new Controller(this.controlFilename);
+		control.setResourceCache(this.resourceCache);
+		this.jobs = control.getPageJobs();
+		this.jobsByFile = new HashMap<String, List<PageJob>>();
+		Set<String> folders = new LinkedHashSet<String>();
+		folders.add(new File(PageJob.fileKey(this.controlFilename)).getParent());
+		for (PageJob job : this.jobs) {
+			job.setStreamHtml(this.streamHtml);
+			job.setMetrics(this.metrics);
+			String page = PageJob.fileKey(job.getGeneratedHTMLFilename());
+			addJob(page, job);
+			folders.add(new File(page).getParent());
+			for (TableAlterTask task : job.getTasks()) {
+				String dir = task.getResourceDirectory();
+				if (dir != null && !dir.isEmpty()) {
+					addJob(PageJob.fileKey(dir), job);
+					folders.add(PageJob.fileKey(dir));
+				}
+			}
+		}
+
+		for (WatchKey key : this.watchedFolders.keySet()) {
+			key.cancel();
+		}
+		this.watchedFolders.clear();
+		for (String folder : folders) {
+			if (folder == null || !new File(folder).isDirectory()) {
+				Log.warn("    WARNING: The folder '" + folder + "' does not exist, so it can't be watched for changes.");
+				continue;
+			}
+			try {
+				Path path = new File(folder).toPath();
+				WatchKey key = path.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				this.watchedFolders.put(key, path);
+			}
+			catch (Exception e) {
+				Log.warn("    WARNING: Unable to watch the folder '" + folder + "' for changes. " + e.getMessage());
+			}
+		}
+	}
+
+	private void addJob(String fileKey, PageJob job) {
+		List<PageJob> fileJobs = this.jobsByFile.get(fileKey);
+		if (fileJobs == null) {
+			fileJobs = new ArrayList<PageJob>();
+			this.jobsByFile.put(fileKey, fileJobs);
+		}
+		if (!fileJobs.contains(job)) {
+			fileJobs.add(job);
+		}
+	}
+
+	/*
+	  Waits for the first change event, then collects events until none has arrived for the debounce period. Returns the file keys of the changed files,
+	  and of the folders they are in. (If events were lost, the control file's key is returned, so that every job is checked.)
+	*/
+	private Set<String> waitForChanges() throws InterruptedException {
+		Set<String> changed = new LinkedHashSet<String>();
+		WatchKey key = this.watchService.take();
+		while (key != null) {
+			Path folder = this.watchedFolders.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || folder == null) {
+					changed.add(PageJob.fileKey(this.controlFilename));
+				}
+				else {
+					changed.add(PageJob.fileKey(folder.resolve((Path) event.context()).toString()));
+					changed.add(PageJob.fileKey(folder.toString()));
+				}
+			}
+			if (!key.reset()) {
+				this.watchedFolders.remove(key);                   // The folder was deleted. (It is registered again if the control file is re-read.)
+			}
+			key = this.watchService.poll(this.debounce, TimeUnit.MILLISECONDS);
+		}
+		return changed;
+	}
+
+	/*
+	  Returns the jobs affected by the given changed files, along with every job they share an html file with, group by group.
+	  If the control file changed, it is re-read, and every job is returned.
+	*/
+	private List<PageJob> getAffectedJobs(Set<String> changed) {
+		if (changed.contains(PageJob.fileKey(this.controlFilename))) {
+			Log.info("\nThe control file '" + this.controlFilename + "' has changed. Reading it again.");
+			loadControlFile();
+			return this.jobs;
+		}
+		Set<PageJob> affected = new LinkedHashSet<PageJob>();
+		for (String fileKey : changed) {
+			List<PageJob> fileJobs = this.jobsByFile.get(fileKey);
+			if (fileJobs != null) {
+				affected.addAll(fileJobs);
+			}
+		}
+		List<PageJob> results = new ArrayList<PageJob>();
+		for (List<PageJob> group : DescriptorExecutor.groupJobs(this.jobs)) {
+			for (PageJob job : group) {
+				if (affected.contains(job)) {
+					results.addAll(group);
+					break;
+				}
+			}
+		}
+		return results;
+	}
+
+	/*
+	  Runs those of the given jobs whose inputs have changed since they were last run, then records them in the manifest.
+	*/
+	private void runJobs(List<PageJob> candidates) {
+		List<PageJob> stale = this.manifest.getStaleJobs(candidates);
+		if (!stale.isEmpty()) {
+			if (this.workers > 1) {
+				if (this.executor == null) {
+					this.executor = new DescriptorExecutor(this.workers);
+				}
+				this.executor.run(stale);
+			}
+			else {
+				for (PageJob job : stale) {
+					DescriptorExecutor.runJob(job);
+				}
+			}
+		}
+		this.manifest.record();
+		this.manifest.save();
+		Log.summarize();
+		Log.info(this.manifest.getSummary());
+		Log.info(this.resourceCache.getSummary());
+		if (this.reportFile != null) {
+			this.metrics.writeReport(this.reportFile);
+		}
+		this.manifest.rollOver();
+	}
+}
@@ -0,0 +1,575 @@
+package com.icf.iglistchanger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A compiled path expression: the path attribute of a &lt;newColumn&gt; spec, which reads a value at any depth of a resource, selecting array
+ * elements by their fields along the way. The syntax is a small subset of FHIRPath - e.g.
+ * <pre>
+ *   relatedArtifact.where(type='depends-on').resource
+ *   identifier.where(system='http://hl7.org/fhir/cqi/ecqm/Measure/Identifier/cms').value
+ *   Measure.contact.telecom.where(system='url' and value.startsWith('https')).value
+ * </pre>
+ *
+ * <p>An expression is a series of steps, separated by dots. Each step is applied to every value the steps before it produced:</p>
+ * <ul>
+ * <li><b>name</b>  the field of that name. If the field holds an array, each of its elements is a value, so a path passes through arrays.</li>
+ * <li><b>where(condition)</b>  the values for which the condition is true</li>
+ * <li><b>first()</b>, <b>last()</b>, <b>[n]</b>  the first, last or nth (from 0) of all of the values</li>
+ * </ul>
+ * <p>A first name that starts with a capital letter is a resource type: the rest of the path is only read from resources of that resourceType.</p>
+ *
+ * <p>A condition is a path relative to the value being tested, followed by one of: <b>= literal</b> (true if any of the path's values is the literal),
+ * <b>!= literal</b> (true if none is), <b>.exists()</b>, <b>.empty()</b>, <b>.startsWith('text')</b>, <b>.contains('text')</b> or
+ * <b>.matches('regex')</b> (true if any of the path's values does, or for exists(), if there are any). A path on its own is the same as path.exists().
+ * Conditions may be combined with <b>and</b> and <b>or</b> (and binds the more tightly), and grouped with parentheses. A literal is a string in
+ * single or double quotes (with \' or \" for a quote), a number, or true or false.</p>
+ *
+ * <p>The expression's value is every value its steps produce, joined with ", " - e.g. each of a Measure's depends-on artifacts. Add first(), last()
+ * or [n] to the end of the path to read just one of them.</p>
+ *
+ * <p>The expression is parsed once, into a tree of steps and conditions with their names, literals and regular expressions resolved, so evaluating
+ * it does no parsing. A PathExpression is immutable, and may be used by several threads at once.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class PathExpression {
+
+	private static final List<Object> NONE = Collections.emptyList();
+	private static final String SEPARATOR = ", ";            // Between the values of an expression that reads several
+
+	private String text = null;                  // The expression, as written
+	private String resourceType = null;          // If not null, the resourceType the expression applies to
+	private Step[] steps = null;                 // The steps of the expression, in order
+
+	private PathExpression(String text, String resourceType, Step[] steps) {
+		this.text = text;
+		this.resourceType = resourceType;
+		this.steps = steps;
+	}
+
+	/**
+	 * Parses the given expression.
+	 *
+	 * @param text - a path expression, e.g. "identifier.where(system='urn:ietf:rfc:3986').value"
+	 * @return the compiled expression
+	 * @throws IllegalArgumentException if the expression isn't valid, with a message saying where
+	 */
+	public static PathExpression compile(String text) {
+		Parser parser = new Parser(text);
+		String resourceType = null;
+		int start = parser.pos;
+		String name = parser.name();
+		if (Character.isUpperCase(name.charAt(0)) && parser.peek() == '.') {
+			resourceType = name;
+			parser.expect('.');
+		}
+		else {
+			parser.pos = start;
+		}
+		List<Step> steps = parser.steps(false);
+		if (!(steps.get(0) instanceof Field)) {
+			throw parser.error("The path must start with a field name");
+		}
+		parser.end();
+		return new PathExpression(text, resourceType, steps.toArray(new Step[steps.size()]));
+	}
+
+	/**
+	 * Returns the values the expression reads from the given resource, as text: a string or number as it is, and an object or array as JSON. Several
+	 * values are joined with ", ", in the order they are read.
+	 *
+	 * @param resource - a parsed resource, or null
+	 * @return the values, or null if the expression reads nothing from the resource
+	 */
+	public String evaluate(JSONObject resource) {
+		if (resource == null || (this.resourceType != null && !this.resourceType.equals(resource.optString("resourceType")))) {
+			return null;
+		}
+		List<Object> values = apply(this.steps, resource);
+		if (values.isEmpty()) {
+			return null;
+		}
+		if (values.size() == 1) {
+			return values.get(0).toString();
+		}
+		StringBuilder text = new StringBuilder();
+		for (Object value : values) {
+			text.append((text.length() == 0) ? "" : SEPARATOR).append(value);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Adds the JSON field paths the expression reads - along its steps, and along the paths of its conditions - to the given projection
+	 *
+	 * @param projection - the projection to add to
+	 */
+	public void addTo(JsonProjection projection) {
+		if (this.resourceType != null) {
+			projection.include("resourceType");
+		}
+		addTo(this.steps, new ArrayList<String>(), projection);
+	}
+
+	@Override
+	public String toString() {
+		return this.text;
+	}
+
+	// Applies the given steps to the given value, returning the values produced
+	private static List<Object> apply(Step[] steps, Object value) {
+		List<Object> values = Collections.singletonList(value);
+		for (Step step : steps) {
+			values = step.apply(values);
+			if (values.isEmpty()) {
+				break;
+			}
+		}
+		return values;
+	}
+
+	// Adds the field paths read by the given steps, below the given path, to the projection. The path ends up holding the fields the steps lead to.
+	private static void addTo(Step[] steps, List<String> path, JsonProjection projection) {
+		for (Step step : steps) {
+			step.addTo(path, projection);
+		}
+		projection.include(path.toArray(new String[path.size()]));
+	}
+
+	/*
+	  A step of an expression: maps the values produced by the steps before it to new values.
+	*/
+	private abstract static class Step {
+
+		abstract List<Object> apply(List<Object> values);
+
+		void addTo(List<String> path, JsonProjection projection) {
+		}
+	}
+
+	// The named field of each value that is an object. The elements of an array field are each a value.
+	private static class Field extends Step {
+
+		private String name;
+
+		Field(String name) {
+			this.name = name;
+		}
+
+		@Override
+		List<Object> apply(List<Object> values) {
+			List<Object> out = NONE;
+			for (Object value : values) {
+				Object field = (value instanceof JSONObject) ? ((JSONObject) value).opt(this.name) : null;
+				if (field == null || field == JSONObject.NULL) {
+					continue;
+				}
+				if (out == NONE) {
+					if (values.size() == 1 && !(field instanceof JSONArray)) {
+						return Collections.singletonList(field);       // The usual case: one object, with a plain field
+					}
+					out = new ArrayList<Object>();
+				}
+				if (field instanceof JSONArray) {
+					JSONArray array = (JSONArray) field;
+					for (int i = 0; i < array.length(); i++) {
+						Object element = array.opt(i);
+						if (element != null && element != JSONObject.NULL) {
+							out.add(element);
+						}
+					}
+				}
+				else {
+					out.add(field);
+				}
+			}
+			return out;
+		}
+
+		@Override
+		void addTo(List<String> path, JsonProjection projection) {
+			path.add(this.name);
+		}
+	}
+
+	// The values for which a condition is true
+	private static class Where extends Step {
+
+		private Condition condition;
+
+		Where(Condition condition) {
+			this.condition = condition;
+		}
+
+		@Override
+		List<Object> apply(List<Object> values) {
+			List<Object> out = NONE;
+			for (Object value : values) {
+				if (this.condition.test(value)) {
+					if (out == NONE) {
+						out = new ArrayList<Object>();
+					}
+					out.add(value);
+				}
+			}
+			return out;
+		}
+
+		@Override
+		void addTo(List<String> path, JsonProjection projection) {
+			this.condition.addTo(path, projection);
+		}
+	}
+
+	// The value at a position: from the start if the index is 0 or more, otherwise from the end (so -1 is the last value)
+	private static class Index extends Step {
+
+		private int index;
+
+		Index(int index) {
+			this.index = index;
+		}
+
+		@Override
+		List<Object> apply(List<Object> values) {
+			int i = (this.index < 0) ? values.size() + this.index : this.index;
+			return (i >= 0 && i < values.size()) ? Collections.singletonList(values.get(i)) : NONE;
+		}
+	}
+
+	/*
+	  A condition of a where() step, tested against each value in turn.
+	*/
+	private abstract static class Condition {
+
+		abstract boolean test(Object value);
+
+		abstract void addTo(List<String> path, JsonProjection projection);
+	}
+
+	private static class And extends Condition {
+
+		private Condition left;
+		private Condition right;
+
+		And(Condition left, Condition right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(Object value) {
+			return this.left.test(value) && this.right.test(value);
+		}
+
+		@Override
+		void addTo(List<String> path, JsonProjection projection) {
+			this.left.addTo(path, projection);
+			this.right.addTo(path, projection);
+		}
+	}
+
+	private static class Or extends Condition {
+
+		private Condition left;
+		private Condition right;
+
+		Or(Condition left, Condition right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(Object value) {
+			return this.left.test(value) || this.right.test(value);
+		}
+
+		@Override
+		void addTo(List<String> path, JsonProjection projection) {
+			this.left.addTo(path, projection);
+			this.right.addTo(path, projection);
+		}
+	}
+
+	/*
+	  A test of the values of a relative path: =, exists(), startsWith(), contains() or matches() - true if any value passes - or the negation of
+	  one (!= and empty()).
+	*/
+	private static class Test extends Condition {
+
+		private enum Op { EQUALS, EXISTS, STARTS_WITH, CONTAINS, MATCHES }
+
+		private Step[] steps;
+		private Op op;
+		private boolean isNegated;
+		private String literal;              // The literal to compare with, for EQUALS, STARTS_WITH and CONTAINS
+		private Pattern pattern;             // The regular expression to match, for MATCHES
+
+		Test(List<Step> steps, Op op, boolean isNegated, String literal, Pattern pattern) {
+			this.steps = steps.toArray(new Step[steps.size()]);
+			this.op = op;
+			this.isNegated = isNegated;
+			this.literal = literal;
+			this.pattern = pattern;
+		}
+
+		@Override
+		boolean test(Object value) {
+			return anyPasses(apply(this.steps, value)) != this.isNegated;
+		}
+
+		private boolean anyPasses(List<Object> values) {
+			if (this.op == Op.EXISTS) {
+				return !values.isEmpty();
+			}
+			for (Object value : values) {
+				String text = value.toString();
+				switch (this.op) {
+					case EQUALS :      if (text.equals(this.literal)) { return true; } break;
+					case STARTS_WITH : if (text.startsWith(this.literal)) { return true; } break;
+					case CONTAINS :    if (text.contains(this.literal)) { return true; } break;
+					case MATCHES :     if (this.pattern.matcher(text).matches()) { return true; } break;
+					default :          break;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		void addTo(List<String> path, JsonProjection projection) {
+			PathExpression.addTo(this.steps, new ArrayList<String>(path), projection);
+		}
+	}
+
+	/*
+	  A recursive descent parser of path expressions. Whitespace is allowed between the tokens of a condition.
+	*/
+	private static class Parser {
+
+		private String text;
+		private int pos = 0;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		// Parses a series of steps, up to the end of the expression - or, within a condition, up to a comparison, function or the condition's end
+		List<Step> steps(boolean isCondition) {
+			List<Step> steps = new ArrayList<Step>();
+			while (true) {
+				int start = this.pos;
+				String name = name();
+				if (peek() == '(') {
+					if (isCondition && !name.equals("where") && !name.equals("first") && !name.equals("last")) {
+						this.pos = start;                   // A test function, such as exists(): it ends the condition's path
+						break;
+					}
+					steps.add(function(name));
+				}
+				else {
+					steps.add(new Field(name));
+				}
+				while (peek() == '[') {
+					expect('[');
+					steps.add(new Index(integer()));
+					expect(']');
+				}
+				if (peek() != '.') {
+					break;
+				}
+				expect('.');
+			}
+			return steps;
+		}
+
+		// Parses the arguments of the named step function, e.g. where(...)
+		private Step function(String name) {
+			expect('(');
+			Step step;
+			switch (name) {
+				case "where" : step = new Where(condition()); break;
+				case "first" : step = new Index(0); break;
+				case "last" :  step = new Index(-1); break;
+				default : throw error("Unknown function '" + name + "()'");
+			}
+			expect(')');
+			return step;
+		}
+
+		// condition := and ('or' and)*
+		private Condition condition() {
+			Condition condition = and();
+			while (keyword("or")) {
+				condition = new Or(condition, and());
+			}
+			return condition;
+		}
+
+		// and := term ('and' term)*
+		private Condition and() {
+			Condition condition = term();
+			while (keyword("and")) {
+				condition = new And(condition, term());
+			}
+			return condition;
+		}
+
+		// term := '(' condition ')' | path ('=' literal | '!=' literal | '.' test '(' args ')')?
+		private Condition term() {
+			if (peek() == '(') {
+				expect('(');
+				Condition condition = condition();
+				expect(')');
+				return condition;
+			}
+			List<Step> steps = steps(true);
+			if (peek() == '=') {
+				expect('=');
+				return new Test(steps, Test.Op.EQUALS, false, literal(), null);
+			}
+			if (peek() == '!') {
+				expect('!');
+				expect('=');
+				return new Test(steps, Test.Op.EQUALS, true, literal(), null);
+			}
+			int start = skipBlanks();
+			String name = Character.isLetter(peek()) ? name() : "";
+			if (peek() != '(') {
+				this.pos = start;                                   // No test, e.g. where(telecom): the same as telecom.exists()
+				return new Test(steps, Test.Op.EXISTS, false, null, null);
+			}
+			expect('(');
+			Test test;
+			switch (name) {
+				case "exists" :     test = new Test(steps, Test.Op.EXISTS, false, null, null); break;
+				case "empty" :      test = new Test(steps, Test.Op.EXISTS, true, null, null); break;
+				case "startsWith" : test = new Test(steps, Test.Op.STARTS_WITH, false, string(), null); break;
+				case "contains" :   test = new Test(steps, Test.Op.CONTAINS, false, string(), null); break;
+				case "matches" :
+					int at = this.pos;
+					try {
+						test = new Test(steps, Test.Op.MATCHES, false, null, Pattern.compile(string()));
+					}
+					catch (PatternSyntaxException e) {
+						this.pos = at;
+						throw error("Bad regular expression (" + e.getDescription() + ")");
+					}
+					break;
+				default : throw error("Unknown function '" + name + "()'");
+			}
+			expect(')');
+			return test;
+		}
+
+		// A field or function name
+		private String name() {
+			int start = skipBlanks();
+			while (this.pos < this.text.length() && (Character.isLetterOrDigit(this.text.charAt(this.pos)) || this.text.charAt(this.pos) == '_')) {
+				this.pos++;
+			}
+			if (this.pos == start) {
+				throw error("Expected a name");
+			}
+			return this.text.substring(start, this.pos);
+		}
+
+		// A literal: a quoted string, a number, true or false. Numbers and booleans are compared as written.
+		private String literal() {
+			if (peek() == '\'' || peek() == '"') {
+				return string();
+			}
+			int start = skipBlanks();
+			while (this.pos < this.text.length() && (Character.isLetterOrDigit(this.text.charAt(this.pos)) || "+-.".indexOf(this.text.charAt(this.pos)) >= 0)) {
+				this.pos++;
+			}
+			String literal = this.text.substring(start, this.pos);
+			if (!literal.equals("true") && !literal.equals("false")) {
+				try {
+					Double.parseDouble(literal);
+				}
+				catch (NumberFormatException e) {
+					this.pos = start;
+					throw error("Expected a quoted string, a number, true or false");
+				}
+			}
+			return literal;
+		}
+
+		// A string in single or double quotes, in which a backslash quotes the next character (e.g. \' or \" a quote, \\ a backslash)
+		private String string() {
+			char quote = (peek() == '"') ? '"' : '\'';
+			expect(quote);
+			StringBuilder string = new StringBuilder();
+			while (this.pos < this.text.length() && this.text.charAt(this.pos) != quote) {
+				char c = this.text.charAt(this.pos++);
+				if (c == '\\' && this.pos < this.text.length()) {
+					c = this.text.charAt(this.pos++);
+				}
+				string.append(c);
+			}
+			expect(quote);
+			return string.toString();
+		}
+
+		private int integer() {
+			int start = skipBlanks();
+			while (this.pos < this.text.length() && Character.isDigit(this.text.charAt(this.pos))) {
+				this.pos++;
+			}
+			if (this.pos == start) {
+				throw error("Expected an index");
+			}
+			return Integer.parseInt(this.text.substring(start, this.pos));
+		}
+
+		// Returns true, and reads past it, if the given word is next
+		private boolean keyword(String word) {
+			int start = skipBlanks();
+			int end = start + word.length();
+			if (this.text.startsWith(word, start) && (end == this.text.length() || !Character.isLetterOrDigit(this.text.charAt(end)))) {
+				this.pos = end;
+				return true;
+			}
+			return false;
+		}
+
+		// Returns the next character that isn't a blank, without reading past it, or 0 at the end
+		private char peek() {
+			skipBlanks();
+			return (this.pos < this.text.length()) ? this.text.charAt(this.pos) : 0;
+		}
+
+		private void expect(char c) {
+			if (peek() != c) {
+				throw error("Expected '" + c + "'");
+			}
+			this.pos++;
+		}
+
+		private void end() {
+			if (peek() != 0) {
+				throw error("Unexpected '" + this.text.charAt(this.pos) + "'");
+			}
+		}
+
+		private int skipBlanks() {
+			while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) {
+				this.pos++;
+			}
+			return this.pos;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + this.pos + " of the path '" + this.text + "'");
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package com.icf.iglistchanger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONObject;
+
+/**
+ * A cache of parsed resource directories, shared by all of the TableAlterTasks in a run. Most table-descriptors in a control file point at one of a
+ * handful of resource directories, so each directory only needs to be listed and parsed once.
+ *
+ * <p>Entries are keyed by the canonical pathname of the directory (plus, when the loader streams JSON, the key of the JsonProjection the directory
+ * was read through, since differently projected sets of the same directory hold different fields), and are re-validated on every lookup against the directory's current listing
+ * (the names, sizes and modification times of its files). If anything in the directory has changed, the directory is re-read.</p>
+ *
+ * <p>The cache is bounded by a memory budget, expressed as the total size of the resource files it holds. When the budget is exceeded, the least
+ * recently used directories are evicted. (The parsed JSON objects take more heap than the files they were read from, so the budget should be set
+ * well below the maximum heap size.) A directory larger than the whole budget is loaded, but not cached.</p>
+ *
+ * <p>Each cached set carries the com.icf.iglistchanger.ExtractionMemo of the cell values extracted from its resources, so the descriptors sharing a
+ * directory also share the values extracted from it. A disabled cache keeps no sets, but still keeps a memo for each directory (and projection) it
+ * reads, until the directory changes, so the descriptors sharing a directory share its values just the same. (The memo holds only the extracted
+ * values, not the parsed resources.) The cache's summary includes the memos' hits and misses.</p>
+ *
+ * <p>The cache may be used from several threads at once. If two threads ask for the same directory at the same time, only one of them reads it.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ResourceCache {
+
+	/** The default memory budget: 256 MB of resource files */
+	public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+	private long budget = DEFAULT_BUDGET;                                                           // The maximum total size, in bytes, of the cached resource files
+	private long cachedSize = 0;                                                                    // The current total size, in bytes, of the cached resource files
+	private LinkedHashMap<String, ResourceSet> entries = new LinkedHashMap<String, ResourceSet>(16, 0.75f, true); // In least-recently-used order
+	private Map<String, Object> loadLocks = new ConcurrentHashMap<String, Object>();                // One lock per directory being read, so a directory is only read by one thread at a time
+	private ResourceLoader loader = null;                                                           // Reads the directories that are not cached
+	private Map<String, ExtractionMemo> runMemos = new HashMap<String, ExtractionMemo>();            // When disabled, the memo of each directory read, by cache key
+	private Map<String, Long> runStamps = new HashMap<String, Long>();                              // and the stamp of the directory the memo's values were extracted from
+	private long hits = 0;
+	private long misses = 0;
+	private long memoHits = 0;                                                                      // The extraction memo hits and misses of the sets no longer cached
+	private long memoMisses = 0;
+
+	/**
+	 * Creates a cache with the given memory budget, that reads directories one file at a time.
+	 *
+	 * @param budget - the maximum total size, in bytes, of the resource files to keep parsed. A value of 0 or less disables caching.
+	 */
+	public ResourceCache(long budget) {
+		this(budget, new ResourceLoader(1));
+	}
+
+	/**
+	 * Creates a cache with the given memory budget, that reads directories with the given loader.
+	 *
+	 * @param budget - the maximum total size, in bytes, of the resource files to keep parsed. A value of 0 or less disables caching.
+	 * @param loader - the loader used to read directories that are not cached
+	 */
+	public ResourceCache(long budget, ResourceLoader loader) {
+		super();
+		this.budget = budget;
+		this.loader = loader;
+	}
+
+	/**
+	 * Returns the parsed resources of the given directory, reading them if they are not cached, or if the directory has changed since they were cached.
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @return the ResourceSet for the directory
+	 */
+	public ResourceSet get(String directory) {
+		return get(directory, null);
+	}
+
+	/**
+	 * Returns the parsed resources of the given directory, as read through the given projection, reading them if they are not cached, or if the
+	 * directory has changed since they were cached.
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @param projection - the fields a table-descriptor reads from its resources, or null for whole resources
+	 * @return the ResourceSet for the directory
+	 */
+	public ResourceSet get(String directory, JsonProjection projection) {
+		if (this.budget <= 0) {
+			ResourceSet set = this.loader.load(directory, projection);
+			set.shareMemo(runMemo(keyOf(directory, projection), set.getStamp()));
+			return set;
+		}
+		JsonProjection effective = this.loader.effectiveProjection(projection);
+		String key = keyOf(directory, projection);
+		long stamp = ResourceSet.stamp(directory);              // The directory's current listing, taken outside of the cache lock
+		ResourceSet set = lookup(key, stamp, false);
+		if (set != null) {
+			return set;
+		}
+
+		Object lock = this.loadLocks.get(key);
+		if (lock == null) {
+			this.loadLocks.putIfAbsent(key, new Object());
+			lock = this.loadLocks.get(key);
+		}
+		synchronized (lock) {
+			try {
+				set = lookup(key, stamp, true);                // Another thread may have loaded the directory while we waited. (That counts as a hit.)
+				if (set == null) {
+					set = this.loader.load(directory, effective);
+					store(key, set);
+				}
+			}
+			finally {
+				// Once the set is stored, later lookups find it without a lock, so the lock is dropped - otherwise a long running process (-serve,
+				// -watch) would keep one for every directory and projection it ever read. Threads already waiting on it still find the stored set.
+				this.loadLocks.remove(key, lock);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the key the given directory, read through the given projection, is cached under. Two lookups with the same key share an entry.
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @param projection - the fields a table-descriptor reads from its resources, or null for whole resources
+	 * @return the cache key
+	 */
+	String keyOf(String directory, JsonProjection projection) {
+		JsonProjection effective = this.loader.effectiveProjection(projection);
+		return PageJob.fileKey(directory) + ((effective == null) ? "" : "#" + effective.getKey());
+	}
+
+	/**
+	 * @return true if the cache keeps the directories it reads, i.e. its budget is more than 0
+	 */
+	public boolean isEnabled() {
+		return this.budget > 0;
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public synchronized void clear() {
+		for (ResourceSet set : this.entries.values()) {
+			retire(set);
+		}
+		this.entries.clear();
+		this.cachedSize = 0;
+		for (ExtractionMemo memo : this.runMemos.values()) {
+			retire(memo);
+		}
+		this.runMemos.clear();
+		this.runStamps.clear();
+	}
+
+	/**
+	 * @return a one line summary of the cache's hit and miss counts, its current size, and the extraction memo's hit and miss counts
+	 */
+	public synchronized String getSummary() {
+		long[] memo = memoCounts();
+		return "Resource cache: " + this.hits + " hit(s), " + this.misses + " miss(es), " + this.entries.size() + " directories, "
+				+ (this.cachedSize / 1024) + " KB of " + (this.budget / 1024) + " KB budget; extraction memo: " + memo[0] + " hit(s), " + memo[1] + " miss(es)";
+	}
+
+	/**
+	 * @return the cache's hit and miss counts, its current size, and the extraction memo's hit and miss counts, as a JSON object
+	 */
+	public synchronized JSONObject toJSON() {
+		long[] memo = memoCounts();
+		JSONObject json = new JSONObject();
+		json.put("hits", this.hits);
+		json.put("misses", this.misses);
+		json.put("directories", this.entries.size());
+		json.put("cachedBytes", this.cachedSize);
+		json.put("budgetBytes", this.budget);
+		json.put("memoHits", memo[0]);
+		json.put("memoMisses", memo[1]);
+		return json;
+	}
+
+	// Returns the cached set for the given key if it is still current, counting a hit. If countMiss is true, a lookup that finds nothing is counted as a miss
+	private synchronized ResourceSet lookup(String key, long stamp, boolean countMiss) {
+		ResourceSet set = this.entries.get(key);
+		boolean isHit = (set != null && set.getStamp() == stamp);
+		if (isHit) {
+			this.hits++;
+		}
+		else if (countMiss) {
+			this.misses++;
+		}
+		return isHit ? set : null;
+	}
+
+	// Adds a newly loaded set to the cache, replacing any stale entry, then evicts least recently used entries until the cache is within its budget
+	private synchronized void store(String key, ResourceSet set) {
+		ResourceSet old = this.entries.remove(key);
+		if (old != null) {
+			this.cachedSize -= old.getSize();
+			retire(old);
+		}
+		if (set.getSize() > this.budget) {
+			Log.info("    Resource directory '" + set.getDirectory() + "' is larger than the resource cache budget, so it is not cached.");
+			return;
+		}
+		this.entries.put(key, set);
+		this.cachedSize += set.getSize();
+		Iterator<Map.Entry<String, ResourceSet>> it = this.entries.entrySet().iterator();
+		while (this.cachedSize > this.budget && it.hasNext()) {
+			ResourceSet eldest = it.next().getValue();
+			if (eldest != set) {
+				this.cachedSize -= eldest.getSize();
+				retire(eldest);
+				it.remove();
+			}
+		}
+	}
+
+	// Returns the memo a disabled cache keeps for the given key, replacing it with an empty one if the directory has changed since its values were extracted
+	private synchronized ExtractionMemo runMemo(String key, long stamp) {
+		ExtractionMemo memo = this.runMemos.get(key);
+		Long memoStamp = this.runStamps.get(key);
+		if (memo == null || memoStamp.longValue() != stamp) {
+			if (memo != null) {
+				retire(memo);
+			}
+			memo = new ExtractionMemo();
+			this.runMemos.put(key, memo);
+			this.runStamps.put(key, stamp);
+		}
+		return memo;
+	}
+
+	// Keeps the extraction memo counts of a set that is leaving the cache
+	private void retire(ResourceSet set) {
+		retire(set.getMemo());
+	}
+
+	// Keeps the counts of a memo that is being dropped
+	private void retire(ExtractionMemo memo) {
+		this.memoHits += memo.getHits();
+		this.memoMisses += memo.getMisses();
+	}
+
+	// Returns the extraction memo hits and misses of the sets cached now, of the memos kept while disabled, and of those dropped before
+	private long[] memoCounts() {
+		long[] counts = { this.memoHits, this.memoMisses };
+		for (ResourceSet set : this.entries.values()) {
+			counts[0] += set.getMemo().getHits();
+			counts[1] += set.getMemo().getMisses();
+		}
+		for (ExtractionMemo memo : this.runMemos.values()) {
+			counts[0] += memo.getHits();
+			counts[1] += memo.getMisses();
+		}
+		return counts;
+	}
+}
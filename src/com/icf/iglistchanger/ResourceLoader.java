@@ -0,0 +1,208 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.json.JSONObject;
+
+/**
+ * Reads and parses the .json files of a resource directory, using a bounded fork-join pool so that several files are read and parsed at once.
+ *
+ * <p>The parsed resources are returned in the same order as the filenames returned by FileUtils.getDirFiles, so the row-to-resource correspondence
+ * relied on by TableAlterTask.processTableRows() is kept. A file that cannot be read or parsed does not stop the others from loading: its entry in the
+ * resource list is null (so the default column values are used for its row), and every failure is reported once the directory has been loaded.</p>
+ *
+ * <p>If the loader is created with streamJson set, each file is read through the JsonProjection of the table-descriptor that asked for it, so only
+ * the fields the descriptor's columns read are kept. (See com.icf.iglistchanger.JsonProjection)</p>
+ *
+ * <p>A single loader (and so a single pool) is meant to be shared by all of the tasks in a run, which bounds the number of files being read at once
+ * regardless of how many descriptors are being processed concurrently.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ResourceLoader {
+
+	private static final int FILES_PER_TASK = 4;           // Below this many files, a fork-join task parses its files itself rather than splitting further
+	private static final ThreadLocal<long[]> PARSED = new ThreadLocal<long[]>() {    // The number of files, and of bytes, loaded at the request of each thread
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+
+	private ForkJoinPool pool = null;                      // The pool the files are parsed in. If null, files are parsed one at a time on the calling thread.
+	private boolean streamJson = false;                    // If true, files are read through the caller's JsonProjection, rather than parsed whole
+
+	/**
+	 * Creates a loader that parses up to the given number of files at once, keeping the whole of each file.
+	 *
+	 * @param threads - the number of files to read and parse at once. A value of 1 or less parses files one at a time on the calling thread.
+	 */
+	public ResourceLoader(int threads) {
+		this(threads, false);
+	}
+
+	/**
+	 * Creates a loader that parses up to the given number of files at once.
+	 *
+	 * @param threads - the number of files to read and parse at once. A value of 1 or less parses files one at a time on the calling thread.
+	 * @param streamJson - if true, files are read through the projection given to load(), keeping only the projected fields
+	 */
+	public ResourceLoader(int threads, boolean streamJson) {
+		super();
+		if (threads > 1) {
+			this.pool = new ForkJoinPool(threads);
+		}
+		this.streamJson = streamJson;
+	}
+
+	/**
+	 * Returns the projection that load() will actually apply for the given projection: the projection itself if this loader streams JSON, otherwise null.
+	 *
+	 * @param projection - the fields a table-descriptor reads from its resources
+	 * @return the projection applied when loading, or null if whole files are parsed
+	 */
+	public JsonProjection effectiveProjection(JsonProjection projection) {
+		return this.streamJson ? projection : null;
+	}
+
+	/**
+	 * Reads and parses every file in the top level of the given directory.
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @return the loaded ResourceSet. If the directory holds no files, the set is empty.
+	 */
+	public ResourceSet load(String directory) {
+		return load(directory, null);
+	}
+
+	/**
+	 * Reads and parses every file in the top level of the given directory. If this loader streams JSON and a projection is given, only the projected
+	 * fields of each file are kept, and the set's size is the number of characters kept rather than the size of the files.
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @param projection - the fields a table-descriptor reads from its resources, or null to keep whole files
+	 * @return the loaded ResourceSet. If the directory holds no files, the set is empty.
+	 */
+	public ResourceSet load(final String directory, JsonProjection projection) {
+		long stamp = ResourceSet.stamp(directory);                      // Taken first, so a file that changes while we are reading is picked up by the next load
+		final List<String> filenames = FileUtils.getDirFiles(directory);
+		final JSONObject[] resources = new JSONObject[filenames.size()];
+		final String[] errors = new String[filenames.size()];
+		final long[] sizes = new long[filenames.size()];
+
+		ParseFiles all = new ParseFiles(directory, effectiveProjection(projection), filenames, resources, errors, sizes, 0, filenames.size());
+		if (this.pool == null || filenames.size() <= FILES_PER_TASK) {
+			all.compute();
+		}
+		else {
+			this.pool.invoke(all);
+		}
+
+		long size = 0;
+		long bytesRead = 0;
+		List<String> failed = new ArrayList<String>();
+		for (int i = 0; i < filenames.size(); i++) {
+			size += sizes[i];
+			bytesRead += new File(directory, filenames.get(i)).length();
+			if (errors[i] != null) {
+				failed.add(filenames.get(i));
+			}
+		}
+		if (!failed.isEmpty()) {
+			StringBuilder message = new StringBuilder("    ERROR: " + failed.size() + " of " + filenames.size() + " resource files in '" + directory + "' could not be read. Default column values will be used for them:");
+			for (int i = 0; i < filenames.size(); i++) {
+				if (errors[i] != null) {
+					message.append("\n        ").append(filenames.get(i)).append(": ").append(errors[i]);
+				}
+			}
+			Log.error(message.toString());
+		}
+		long[] parsed = PARSED.get();
+		parsed[0] += filenames.size();
+		parsed[1] += bytesRead;
+		return new ResourceSet(directory, filenames, Arrays.asList(resources), failed, stamp, size);
+	}
+
+	/**
+	 * Returns the number of resource files, and the number of bytes of resource files, that have been loaded at the request of the calling thread.
+	 * (The files may have been parsed by the loader's pool, but are counted for the thread that asked for them. Directories found in a
+	 * com.icf.iglistchanger.ResourceCache are not counted.)
+	 *
+	 * @return a two element array: the number of files, then the number of bytes
+	 */
+	static long[] getParsedByThread() {
+		return PARSED.get().clone();
+	}
+
+	/**
+	 * Stops the loader's pool, once no more directories will be loaded.
+	 */
+	public void shutdown() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+		}
+	}
+
+	/*
+	  Parses the files in the range [from, to) of the directory listing, splitting the range in half until it is small enough to parse directly.
+	  Each file's result goes into its own slot of the shared arrays, so no locking is needed and the listing order is kept.
+	*/
+	private static class ParseFiles extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private String directory;
+		private JsonProjection projection;
+		private List<String> filenames;
+		private JSONObject[] resources;
+		private String[] errors;
+		private long[] sizes;
+		private int from;
+		private int to;
+
+		ParseFiles(String directory, JsonProjection projection, List<String> filenames, JSONObject[] resources, String[] errors, long[] sizes, int from, int to) {
+			this.directory = directory;
+			this.projection = projection;
+			this.filenames = filenames;
+			this.resources = resources;
+			this.errors = errors;
+			this.sizes = sizes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= FILES_PER_TASK) {
+				long[] kept = new long[1];
+				for (int i = this.from; i < this.to; i++) {
+					File file = new File(this.directory, this.filenames.get(i));
+					try {
+						if (this.projection == null) {
+							this.sizes[i] = file.length();
+							this.resources[i] = FileUtils.readJsonFile(file.getPath());
+						}
+						else {
+							this.resources[i] = this.projection.read(file.getPath(), kept);
+							this.sizes[i] = kept[0];
+						}
+					}
+					catch (Exception e) {
+						this.errors[i] = String.valueOf(e.getMessage());
+					}
+				}
+			}
+			else {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new ParseFiles(this.directory, this.projection, this.filenames, this.resources, this.errors, this.sizes, this.from, mid),
+						  new ParseFiles(this.directory, this.projection, this.filenames, this.resources, this.errors, this.sizes, mid, this.to));
+			}
+		}
+	}
+}
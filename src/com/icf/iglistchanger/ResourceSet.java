@@ -0,0 +1,157 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * The parsed contents of a resource directory: the names of the .json resource files in the directory (in the order returned by FileUtils.getDirFiles),
+ * and the corresponding list of parsed JSON documents. A ResourceSet is not changed once it has been loaded, so it may be shared by several TableAlterTasks,
+ * including tasks running on different threads. (See com.icf.iglistchanger.ResourceCache)
+ *
+ * <p>The tasks sharing a set also share its com.icf.iglistchanger.ExtractionMemo of the cell values extracted from its resources. (The memo is the one
+ * part of a set that changes, and may be used by several threads at once.) When the ResourceCache is disabled, the memo is a view of one the cache
+ * keeps for the set's directory, so the sets read from the same directory in a run share it too.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class ResourceSet {
+
+	private String directory = null;                // The full or relative path to the directory the resources were read from
+	private List<String> filenames = null;          // The names of the .json resource files found in the directory
+	private List<JSONObject> resources = null;      // The corresponding list of .json documents. (An entry is null if its file could not be read.)
+	private List<String> failedFilenames = null;    // The names of the resource files that could not be read or parsed
+	private long stamp = 0;                         // A signature of the directory listing (names, sizes and modification times) when it was read
+	private long size = 0;                          // The total size, in bytes, of the resource files
+	private ExtractionMemo memo = new ExtractionMemo();  // The cell values extracted from the resources so far
+
+	ResourceSet(String directory, List<String> filenames, List<JSONObject> resources, List<String> failedFilenames, long stamp, long size) {
+		super();
+		this.directory = directory;
+		this.filenames = Collections.unmodifiableList(filenames);
+		this.resources = Collections.unmodifiableList(resources);
+		this.failedFilenames = Collections.unmodifiableList(failedFilenames);
+		this.stamp = stamp;
+		this.size = size;
+	}
+
+	/**
+	 * Reads and parses every file in the top level of the given directory, one file at a time on the calling thread.
+	 * (See com.icf.iglistchanger.ResourceLoader to read the files of a directory in parallel.)
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @return the loaded ResourceSet. If the directory holds no files, the set is empty.
+	 */
+	public static ResourceSet load(String directory) {
+		return new ResourceLoader(1).load(directory);
+	}
+
+	/**
+	 * Creates a ResourceSet from resources that are already in memory - e.g. held by a service between requests, or built rather than read from
+	 * files. The lists are copied.
+	 *
+	 * @param filenames - a name for each resource, used in diagnostic messages
+	 * @param resources - the resources, in the order they are paired with the table rows (unless the descriptor has a &lt;join&gt; element)
+	 * @return the ResourceSet
+	 */
+	public static ResourceSet of(List<String> filenames, List<JSONObject> resources) {
+		if (filenames.size() != resources.size()) {
+			throw new IllegalArgumentException("There are " + filenames.size() + " resource names for " + resources.size() + " resources.");
+		}
+		return new ResourceSet("(in memory)", new ArrayList<String>(filenames), new ArrayList<JSONObject>(resources), new ArrayList<String>(), 0, 0);
+	}
+
+	/**
+	 * Returns a signature of the given directory's current listing. Two signatures are equal when the directory holds the same files, with the same
+	 * sizes and modification times - i.e. when a previously loaded ResourceSet for the directory is still up to date.
+	 *
+	 * @param directory - pathname of the resource directory
+	 * @return a 64 bit signature of the directory listing
+	 */
+	public static long stamp(String directory) {
+		long hash = 0xcbf29ce484222325L;              // FNV-1a, folded over each file's name, size and modification time
+		File[] files = (directory == null) ? null : new File(directory).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					hash = fold(hash, file.getName().hashCode());
+					hash = fold(hash, file.length());
+					hash = fold(hash, file.lastModified());
+				}
+			}
+		}
+		return hash;
+	}
+
+	// Folds a value into an FNV-1a hash, one byte at a time
+	private static long fold(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the pathname of the directory the resources were read from
+	 */
+	public String getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * @return the (unmodifiable) list of resource filenames, in directory listing order
+	 */
+	public List<String> getFilenames() {
+		return this.filenames;
+	}
+
+	/**
+	 * @return the (unmodifiable) list of parsed resources, in the same order as getFilenames()
+	 */
+	public List<JSONObject> getResources() {
+		return this.resources;
+	}
+
+	/**
+	 * @return the (unmodifiable) list of the names of resource files that could not be read or parsed. Their entries in getResources() are null.
+	 */
+	public List<String> getFailedFilenames() {
+		return this.failedFilenames;
+	}
+
+	/**
+	 * @return the signature of the directory listing at the time the resources were read
+	 */
+	public long getStamp() {
+		return this.stamp;
+	}
+
+	/**
+	 * @return the total size, in bytes, of the resource files
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * @return the memo of the cell values extracted from this set's resources, shared by every task that uses the set
+	 */
+	public ExtractionMemo getMemo() {
+		return this.memo;
+	}
+
+	/**
+	 * Makes this set's memo a view of the given memo, which is shared with the other sets read from the same directory. Called before the set is
+	 * handed out.
+	 *
+	 * @param shared - the memo of the values extracted from the directory's resources
+	 */
+	void shareMemo(ExtractionMemo shared) {
+		this.memo = shared.forResources(this.filenames, this.resources);
+	}
+}
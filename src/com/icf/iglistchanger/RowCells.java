@@ -0,0 +1,126 @@
+package com.icf.iglistchanger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.json.JSONObject;
+
+/**
+ * Extracts the text of the new cells of a table's rows from the rows' resources - for a table of at least the threshold number of rows, in parallel,
+ * on the common fork-join pool, with each fork-join task extracting the cells of a chunk of rows.
+ *
+ * <p>Only the text is computed here. The cells themselves are added to the table by TableAlterTask.processTableRows(), on a single thread and in row
+ * order, since jsoup nodes may not be changed by several threads at once. ColumnSpecs and parsed resources are only read, so may be shared by the
+ * fork-join tasks.</p>
+ *
+ * <p>The threshold is set with the -parallelRows option (see com.icf.iglistchanger.Main). Smaller tables are extracted on the calling thread, where the
+ * cost of splitting the work would outweigh the gain.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class RowCells {
+
+	/** The default threshold: tables with at least this many rows have their cells extracted in parallel. */
+	public static final int DEFAULT_THRESHOLD = 2000;
+
+	private static final int ROWS_PER_TASK = 256;          // Below this many rows, a fork-join task extracts its rows itself rather than splitting further
+	private static final String[] NO_CELLS = new String[0];
+
+	private static volatile int threshold = DEFAULT_THRESHOLD;
+
+	/**
+	 * Sets the number of rows at which a table's cells are extracted in parallel.
+	 *
+	 * @param rows - the least number of rows to extract in parallel. A value of 0 or less extracts every table on the calling thread.
+	 */
+	public static void setThreshold(int rows) {
+		threshold = rows;
+	}
+
+	/**
+	 * @return the least number of rows whose cells are extracted in parallel, or 0 or less if cells are always extracted on the calling thread
+	 */
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Extracts the text of the new cells of each of the given rows. A row gets the new columns that follow each of its column positions, in the order
+	 * ColumnPlan.getNewColumns() gives them - the order they are added to the row in.
+	 *
+	 * @param plan - the compiled column specs of the table-descriptor
+	 * @param memo - the values already extracted from the resources (see com.icf.iglistchanger.ExtractionMemo), or null to extract every value
+	 * @param resources - the resource of each row, or null where a row has none (so its columns' default values are used)
+	 * @param widths - the number of cells in each row of the original table
+	 * @return for each row, the text of its new cells
+	 */
+	public static String[][] extract(ColumnPlan plan, ExtractionMemo memo, JSONObject[] resources, int[] widths) {
+		String[][] cells = new String[resources.length][];
+		int limit = threshold;
+		if (limit > 0 && resources.length >= limit) {
+			ForkJoinPool.commonPool().invoke(new ExtractRows(plan, memo, resources, widths, cells, 0, resources.length));
+		}
+		else {
+			extractRows(plan, memo, resources, widths, cells, 0, resources.length);
+		}
+		return cells;
+	}
+
+	// Extracts the new cells of the rows from 'from' (inclusive) to 'to' (exclusive)
+	private static void extractRows(ColumnPlan plan, ExtractionMemo memo, JSONObject[] resources, int[] widths, String[][] cells, int from, int to) {
+		for (int r = from; r < to; r++) {
+			int count = 0;
+			for (int i = 0; i < widths[r]; i++) {
+				count += plan.getNewColumns(i).length;
+			}
+			String[] row = (count == 0) ? NO_CELLS : new String[count];
+			int c = 0;
+			for (int i = 0; i < widths[r]; i++) {
+				for (ColumnSpec newColSpec : plan.getNewColumns(i)) {
+					row[c++] = (memo == null) ? newColSpec.extract(resources[r]) : memo.extract(newColSpec, resources[r]);
+				}
+			}
+			cells[r] = row;
+		}
+	}
+
+	/*
+	  Extracts the new cells of a range of rows, splitting the range in two until it is small enough to extract directly. Each row's cells are stored
+	  at the row's own index, so the result doesn't depend on the order the tasks run in.
+	*/
+	private static class ExtractRows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private ColumnPlan plan;
+		private ExtractionMemo memo;
+		private JSONObject[] resources;
+		private int[] widths;
+		private String[][] cells;
+		private int from;
+		private int to;
+
+		ExtractRows(ColumnPlan plan, ExtractionMemo memo, JSONObject[] resources, int[] widths, String[][] cells, int from, int to) {
+			this.plan = plan;
+			this.memo = memo;
+			this.resources = resources;
+			this.widths = widths;
+			this.cells = cells;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= ROWS_PER_TASK) {
+				extractRows(this.plan, this.memo, this.resources, this.widths, this.cells, this.from, this.to);
+			}
+			else {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new ExtractRows(this.plan, this.memo, this.resources, this.widths, this.cells, this.from, mid),
+						  new ExtractRows(this.plan, this.memo, this.resources, this.widths, this.cells, mid, this.to));
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.icf.iglistchanger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.json.JSONObject;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * A compiled &lt;join&gt; element of a table-descriptor. By default, the rows of a table are paired with the resources in the order the resource files
+ * are listed in the resource directory, which only works if that order happens to match the order of the rows. A join instead pairs each row with the
+ * resource whose key matches the row's key, regardless of order.
+ *
+ * <p>A sample element:</p>
+ * <pre>
+ * {@code
+ *   <join cell="0" rowKey="href" pattern="Measure-(.*)\.html" resourceField="id" />
+ * }
+ * </pre>
+ * <ul>
+ * <li><b>cell</b>  the position of the cell, in the original table row, that holds the row's key. Defaults to 0.</li>
+ * <li><b>rowKey</b>  either <i>href</i> (the href attribute of the first link in the cell) or <i>text</i> (the text of the cell). Defaults to <i>text</i>.</li>
+ * <li><b>pattern</b>  optional. A regular expression that is searched for in the row key. If it matches, and has a group, the text of the first group is the key;
+ *     if it matches without a group, the matched text is the key. If it does not match, the row has no key.</li>
+ * <li><b>resourceField</b>  the top-level field of each resource that holds the resource's key - e.g. <i>id</i>, <i>url</i> or <i>name</i>.</li>
+ * </ul>
+ *
+ * A RowJoin is immutable, and may be used by several threads at once.
+ *
+ * @author Dan Donahue
+ *
+ */
+public class RowJoin {
+
+	private static final int MAX_REPORTED = 10;      // The most unmatched keys or files listed individually in a report
+
+	private int cell = 0;                            // The position of the cell holding the row key
+	private boolean useHref = false;                 // If true, the row key is the href of the cell's first link. Otherwise it is the cell's text.
+	private Pattern pattern = null;                  // Optional pattern that extracts the key from the cell's href or text
+	private String resourceField = "";               // The resource field that holds the resource key
+
+	/**
+	 * Compiles the given &lt;join&gt; element.
+	 *
+	 * @param join - a join element from a table-descriptor
+	 */
+	public RowJoin(Element join) {
+		super();
+		try {
+			this.cell = join.attr("cell").trim().isEmpty() ? 0 : Integer.parseInt(join.attr("cell").trim());
+		}
+		catch (Exception e) {
+			Log.warn("    WARNING: cell attribute of <join> element is not an integer. Defaults to cell 0.");
+		}
+		this.useHref = "href".equalsIgnoreCase(join.attr("rowKey"));
+		if (!join.attr("pattern").isEmpty()) {
+			try {
+				this.pattern = Pattern.compile(join.attr("pattern"));
+			}
+			catch (PatternSyntaxException e) {
+				Log.error("    ERROR: pattern attribute of <join> element is not a valid regular expression. " + e.getMessage());
+			}
+		}
+		this.resourceField = join.attr("resourceField");
+		if (this.resourceField.isEmpty()) {
+			Log.error("    ERROR: <join> element has no resourceField attribute. No rows will be matched to resources.");
+		}
+	}
+
+	/**
+	 * @return the top-level resource field that holds each resource's key
+	 */
+	public String getResourceField() {
+		return this.resourceField;
+	}
+
+	/**
+	 * Returns the key of the given table row, as described by this join.
+	 *
+	 * @param cells - the td elements of the row
+	 * @return the row's key, or null if the row has no key
+	 */
+	public String rowKey(Elements cells) {
+		if (this.cell >= cells.size()) {
+			return null;
+		}
+		Element td = cells.get(this.cell);
+		String key = null;
+		if (this.useHref) {
+			Elements links = td.getElementsByAttribute("href");
+			key = links.isEmpty() ? null : links.get(0).attr("href");
+		}
+		else {
+			key = td.text();
+		}
+		if (key != null && this.pattern != null) {
+			Matcher m = this.pattern.matcher(key);
+			key = !m.find() ? null : (m.groupCount() > 0 ? m.group(1) : m.group());
+		}
+		return (key == null) ? null : key.trim();
+	}
+
+	/**
+	 * Builds a hash index over the given resources, from each resource's key to the resource's position in the list.
+	 * Resources with no key, and resources whose key is already taken by an earlier resource, are reported and left out of the index.
+	 *
+	 * @param resources - the parsed resources (an entry may be null, if its file could not be read)
+	 * @param filenames - the corresponding resource filenames, for diagnostic messages
+	 * @return the index
+	 */
+	public Index index(List<JSONObject> resources, List<String> filenames) {
+		Index index = new Index(resources, filenames);
+		for (int i = 0; i < resources.size(); i++) {
+			JSONObject resource = resources.get(i);
+			Object key = (resource == null) ? null : resource.opt(this.resourceField);
+			if (key == null) {
+				if (resource != null) {
+					Log.warn("    WARNING: Resource '" + filenames.get(i) + "' has no '" + this.resourceField + "' field, so it cannot be matched to a table row.");
+				}
+				continue;
+			}
+			String keyStr = key.toString().trim();
+			Integer other = index.positions.get(keyStr);
+			if (other != null) {
+				Log.warn("    WARNING: Resources '" + filenames.get(other) + "' and '" + filenames.get(i) + "' have the same " + this.resourceField + " '" + keyStr + "'. Only the first is used.");
+				continue;
+			}
+			index.positions.put(keyStr, i);
+		}
+		return index;
+	}
+
+	/**
+	 * A hash index from resource keys to resources, built by RowJoin.index(). It also keeps track of which rows and resources were matched, so
+	 * the unmatched ones can be reported once the whole table has been processed. An Index belongs to a single table, and is not thread safe.
+	 */
+	public static class Index {
+
+		private List<JSONObject> resources;
+		private List<String> filenames;
+		private Map<String, Integer> positions = new HashMap<String, Integer>();
+		private boolean[] used;
+		private List<String> unmatchedRows = new ArrayList<String>();
+
+		private Index(List<JSONObject> resources, List<String> filenames) {
+			this.resources = resources;
+			this.filenames = filenames;
+			this.used = new boolean[resources.size()];
+		}
+
+		/**
+		 * Returns the resource with the given key, or null if there is none. (A row with no resource gets the default column values.)
+		 *
+		 * @param key - a row key, or null
+		 * @param rowNum - the position of the row, for diagnostic messages
+		 * @return the matching resource, or null
+		 */
+		public JSONObject lookup(String key, int rowNum) {
+			Integer pos = (key == null) ? null : this.positions.get(key);
+			if (pos == null) {
+				this.unmatchedRows.add("row " + rowNum + ((key == null) ? " (no key)" : " (key '" + key + "')"));
+				return null;
+			}
+			this.used[pos] = true;
+			return this.resources.get(pos);
+		}
+
+		/**
+		 * Reports the table rows that matched no resource, and the resources that matched no row.
+		 */
+		public void report() {
+			if (!this.unmatchedRows.isEmpty()) {
+				Log.warn("    WARNING: " + this.unmatchedRows.size() + " table row(s) matched no resource. Default column values were used for them:" + listSome(this.unmatchedRows));
+			}
+			List<String> unusedFiles = new ArrayList<String>();
+			for (int i = 0; i < this.used.length; i++) {
+				if (!this.used[i] && this.resources.get(i) != null) {
+					unusedFiles.add(this.filenames.get(i));
+				}
+			}
+			if (!unusedFiles.isEmpty()) {
+				Log.warn("    WARNING: " + unusedFiles.size() + " resource(s) matched no table row:" + listSome(unusedFiles));
+			}
+		}
+
+		// Returns the first few of the given items, one per line
+		private static String listSome(List<String> items) {
+			StringBuilder list = new StringBuilder();
+			for (int i = 0; i < items.size() && i < MAX_REPORTED; i++) {
+				list.append("\n        ").append(items.get(i));
+			}
+			if (items.size() > MAX_REPORTED) {
+				list.append("\n        ... and ").append(items.size() - MAX_REPORTED).append(" more");
+			}
+			return list.toString();
+		}
+	}
+}
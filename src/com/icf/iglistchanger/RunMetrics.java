@@ -0,0 +1,296 @@
+package com.icf.iglistchanger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Collects timing and volume measurements for each stage of a run, and writes them as a machine-readable report, so a slow run can be traced to the
+ * stage it spends its time in, and runs can be compared over time (e.g. in CI).
+ *
+ * <p>The stages measured for each html file are:</p>
+ * <ul>
+ * <li><b>parse</b>  reading and parsing the html file (or, when the page is streamed, <b>locate</b>: scanning it for the target tables)</li>
+ * <li><b>load</b>  for each table-descriptor, locating the target table and loading its resources</li>
+ * <li><b>header</b>  for each table-descriptor, rebuilding the table header (processTableHeader)</li>
+ * <li><b>rows</b>  for each table-descriptor, rebuilding the table rows (processTableRows) and replacing the table</li>
+ * <li><b>write</b>  serializing and writing the altered html file</li>
+ * </ul>
+ *
+ * <p>Each stage records its wall time, the bytes allocated by the thread that ran it (where the JVM supports measuring this - otherwise -1), the bytes
+ * read and written, the rows and cells produced, and the number of resource files parsed. Resource files are counted for the stage that asked for them,
+ * though they may have been parsed by the -ioThreads pool, whose allocations are not included. Resource directories found in the
+ * com.icf.iglistchanger.ResourceCache are not parsed again, so are not counted. Likewise, the cells of a table of at least -parallelRows rows are
+ * extracted on the common fork-join pool, and those allocations are not included in the rows stage.</p>
+ *
+ * <p>Stages may be measured on several threads at once.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class RunMetrics {
+
+	/** Metrics that record nothing: the default for a PageJob, when no report has been asked for. */
+	public static final RunMetrics DISABLED = new RunMetrics(false);
+
+	private static final String[] CSV_COLUMNS = { "page", "descriptor", "stage", "wallMillis", "allocatedBytes", "bytesRead", "bytesWritten", "rows", "cells", "resources" };
+
+	private boolean isEnabled = true;
+	private long started = 0;                                  // When the run started, in milliseconds since the epoch
+	private long startedNanos = 0;
+	private List<Stage> stages = new ArrayList<Stage>();       // The ended stages, in the order they ended
+
+	/**
+	 * Creates an empty set of metrics. The run's wall time is measured from now.
+	 */
+	public RunMetrics() {
+		this(true);
+	}
+
+	private RunMetrics(boolean isEnabled) {
+		super();
+		this.isEnabled = isEnabled;
+		this.started = System.currentTimeMillis();
+		this.startedNanos = System.nanoTime();
+	}
+
+	/**
+	 * Starts measuring a stage on the calling thread. The stage is recorded when its end() method is called, on the same thread.
+	 *
+	 * @param page - pathname of the html file the stage works on
+	 * @param descriptorPos - the position of the table-descriptor the stage works for, or -1 for a stage that works on the whole page
+	 * @param name - the name of the stage: parse, locate, load, header, rows or write
+	 * @return the started Stage
+	 */
+	public Stage start(String page, int descriptorPos, String name) {
+		return new Stage(this, page, descriptorPos, name);
+	}
+
+	/**
+	 * Writes the report to the given file: a CSV file with one line per stage if the filename ends with .csv, otherwise a JSON document holding
+	 * each stage, and the totals of each kind of stage.
+	 *
+	 * @param filename - pathname of the report file
+	 * @return true if the report was written, false otherwise
+	 */
+	public boolean writeReport(String filename) {
+		try {
+			AtomicFileWriter out = new AtomicFileWriter(filename);
+			try {
+				if (filename.toLowerCase(Locale.ROOT).endsWith(".csv")) {
+					writeCsv(out);
+				}
+				else {
+					toJSON().write(out, 1, 0);
+				}
+				out.commit();
+			}
+			finally {
+				out.close();
+			}
+			Log.info("Run report written to: " + filename);
+			return true;
+		}
+		catch (Exception e) {
+			Log.error("    ERROR: Unable to write the run report '" + filename + "'. " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the metrics as a JSON document: the run's start time and wall time, each stage, and the totals of each kind of stage.
+	 *
+	 * @return the report as a JSONObject
+	 */
+	public synchronized JSONObject toJSON() {
+		JSONArray stageList = new JSONArray();
+		Map<String, Stage> totals = new LinkedHashMap<String, Stage>();
+		for (Stage stage : this.stages) {
+			stageList.put(stage.toJSON());
+			Stage total = totals.get(stage.name);
+			if (total == null) {
+				total = new Stage(stage.name);
+				totals.put(stage.name, total);
+			}
+			total.add(stage);
+		}
+		JSONObject totalsJSON = new JSONObject();
+		for (Map.Entry<String, Stage> entry : totals.entrySet()) {
+			JSONObject total = entry.getValue().toJSON();
+			total.remove("page");
+			total.remove("descriptor");
+			total.remove("stage");
+			total.put("count", entry.getValue().count);
+			totalsJSON.put(entry.getKey(), total);
+		}
+		JSONObject report = new JSONObject();
+		report.put("started", Instant.ofEpochMilli(this.started).toString());
+		report.put("wallMillis", millis(System.nanoTime() - this.startedNanos));
+		report.put("stages", stageList);
+		report.put("totals", totalsJSON);
+		return report;
+	}
+
+	private synchronized void writeCsv(Appendable out) throws java.io.IOException {
+		for (int i = 0; i < CSV_COLUMNS.length; i++) {
+			out.append((i == 0) ? "" : ",").append(CSV_COLUMNS[i]);
+		}
+		out.append('\n');
+		for (Stage stage : this.stages) {
+			JSONObject json = stage.toJSON();
+			for (int i = 0; i < CSV_COLUMNS.length; i++) {
+				String value = String.valueOf(json.opt(CSV_COLUMNS[i]));
+				if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+					value = '"' + value.replace("\"", "\"\"") + '"';
+				}
+				out.append((i == 0) ? "" : ",").append(value);
+			}
+			out.append('\n');
+		}
+	}
+
+	private synchronized void add(Stage stage) {
+		this.stages.add(stage);
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;              // To the microsecond
+	}
+
+	// Returns the number of bytes the calling thread has allocated so far, or -1 if the JVM can't tell
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The measurements of a single stage. Counts are added while the stage runs, and the stage is recorded by end().
+	 */
+	public static class Stage {
+		private RunMetrics metrics = null;
+		private String page = null;
+		private int descriptorPos = -1;
+		private String name = null;
+		private long wallNanos = 0;                            // Until end(), the time the stage started
+		private long allocatedBytes = 0;                       // Until end(), the thread's allocated bytes when the stage started
+		private long[] parsed = null;                          // Until end(), the thread's parsed resource counts when the stage started
+		private long bytesRead = 0;
+		private long bytesWritten = 0;
+		private long rows = 0;
+		private long cells = 0;
+		private long resources = 0;
+		private int count = 1;                                 // The number of stages added together (for the totals)
+
+		// Creates an empty total, to add stages of the given name to
+		private Stage(String name) {
+			this.metrics = DISABLED;
+			this.name = name;
+			this.count = 0;
+		}
+
+		private Stage(RunMetrics metrics, String page, int descriptorPos, String name) {
+			this.metrics = metrics;
+			this.page = page;
+			this.descriptorPos = descriptorPos;
+			this.name = name;
+			if (metrics.isEnabled) {
+				this.parsed = ResourceLoader.getParsedByThread();
+				this.allocatedBytes = allocatedBytes();
+				this.wallNanos = System.nanoTime();
+			}
+		}
+
+		/**
+		 * @param bytes - the number of bytes of html the stage read
+		 * @return this stage
+		 */
+		public Stage addBytesRead(long bytes) {
+			this.bytesRead += bytes;
+			return this;
+		}
+
+		/**
+		 * @param bytes - the number of bytes the stage wrote
+		 * @return this stage
+		 */
+		public Stage addBytesWritten(long bytes) {
+			this.bytesWritten += bytes;
+			return this;
+		}
+
+		/**
+		 * @param rows - the number of table rows the stage produced
+		 * @return this stage
+		 */
+		public Stage addRows(long rows) {
+			this.rows += rows;
+			return this;
+		}
+
+		/**
+		 * @param cells - the number of table cells the stage produced
+		 * @return this stage
+		 */
+		public Stage addCells(long cells) {
+			this.cells += cells;
+			return this;
+		}
+
+		/**
+		 * Ends the stage, and records it. Must be called on the thread that started the stage.
+		 */
+		public void end() {
+			if (!this.metrics.isEnabled) {
+				return;
+			}
+			this.wallNanos = System.nanoTime() - this.wallNanos;
+			long allocated = allocatedBytes();
+			this.allocatedBytes = (allocated < 0 || this.allocatedBytes < 0) ? -1 : allocated - this.allocatedBytes;
+			long[] now = ResourceLoader.getParsedByThread();
+			this.resources += now[0] - this.parsed[0];
+			this.bytesRead += now[1] - this.parsed[1];
+			this.metrics.add(this);
+		}
+
+		// Adds the given stage's measurements to this one's
+		private void add(Stage other) {
+			this.wallNanos += other.wallNanos;
+			this.allocatedBytes = (this.allocatedBytes < 0 || other.allocatedBytes < 0) ? -1 : this.allocatedBytes + other.allocatedBytes;
+			this.bytesRead += other.bytesRead;
+			this.bytesWritten += other.bytesWritten;
+			this.rows += other.rows;
+			this.cells += other.cells;
+			this.resources += other.resources;
+			this.count++;
+		}
+
+		private JSONObject toJSON() {
+			JSONObject json = new JSONObject();
+			json.put("page", (this.page == null) ? JSONObject.NULL : this.page);
+			json.put("descriptor", this.descriptorPos);
+			json.put("stage", this.name);
+			json.put("wallMillis", millis(this.wallNanos));
+			json.put("allocatedBytes", this.allocatedBytes);
+			json.put("bytesRead", this.bytesRead);
+			json.put("bytesWritten", this.bytesWritten);
+			json.put("rows", this.rows);
+			json.put("cells", this.cells);
+			json.put("resources", this.resources);
+			return json;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.icf.iglistchanger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * An inverted index of the words in a table's cells, built when the table is altered, so a search in the browser looks up the index rather than
+ * scanning every cell. (See the searchIndex and dataFile attributes of the &lt;addOns&gt; element, in com.icf.iglistchanger.SearchSort.)
+ *
+ * <p>A word is a run of word characters, lowercased: the characters of WORD_CHARS - ASCII letters and digits, and the Unicode blocks of letters
+ * and ideographs, but not punctuation or symbols such as &rsquo; &ndash; &mdash; &laquo; &raquo; &reg; or &middot;. The same definition splits the cells'
+ * text here and the search text in the browser, so text pasted from a cell finds its row. The index holds, as JSON:</p>
+ * <ul>
+ * <li><b>terms</b>  the distinct words, sorted (by UTF-16 code unit, as JavaScript sorts strings), so all of the words starting with a search term are
+ * found together, with a binary search</li>
+ * <li><b>postings</b>  for each term, the rows it appears in, delta-encoded: the first row number, then the gap to each following row. Gaps are small
+ * for common words, which keeps the index compact.</li>
+ * </ul>
+ *
+ * <p>SEARCH_FUNCTION is the JavaScript that searches the index: a row matches if, for each word of the search text, it holds a word that starts
+ * with it.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class SearchIndex {
+
+	/**
+	 * The word characters, as the body of a character class that reads the same as a Java and as a JavaScript regular expression. (Lowercase only,
+	 * since text is lowercased before it is split. Characters outside of the basic multilingual plane are not word characters.)
+	 */
+	public static final String WORD_CHARS = "0-9a-z\\u00c0-\\u00d6\\u00d8-\\u00f6\\u00f8-\\u1fff\\u2c00-\\u2dff\\u2e80-\\u2fff\\u3040-\\ud7ff"
+	                                      + "\\uf900-\\ufdff\\ufe70-\\ufefe\\uff10-\\uff19\\uff21-\\uff3a\\uff41-\\uff5a\\uff66-\\uffdc";
+
+	private static final Pattern NON_WORD = Pattern.compile("[^" + WORD_CHARS + "]+");
+
+	/**
+	 * The JavaScript function igListChangerSearch(index, text), which returns the rows matching the given search text, as an object whose keys are
+	 * the matching row numbers - or null if the text holds no words. (It has no &lt;, &gt; or &amp; characters, so it reads the same after the
+	 * page is parsed as xml by a later run.)
+	 */
+	public static final String SEARCH_FUNCTION = "function igListChangerSearch(index, text) { " +
+	                                                 "var terms = $.trim(text).toLowerCase().split(/[^" + WORD_CHARS + "]+/), keep = null, found, i, k, r, row, lo, hi, mid; " +
+	                                                 "for (i = 0; i !== terms.length; i++) { " +
+	                                                   "if (terms[i] === '') { continue; } " +
+	                                                   "lo = 0; hi = index.terms.length; " +
+	                                                   "while (lo !== hi) { " +
+	                                                     "mid = Math.floor((lo + hi) / 2); " +
+	                                                     "if (index.terms[mid] !== terms[i] ? [index.terms[mid], terms[i]].sort()[0] === index.terms[mid] : false) { lo = mid + 1; } else { hi = mid; } " +
+	                                                   "} " +
+	                                                   "found = {}; " +
+	                                                   "for (k = lo; k !== index.terms.length; k++) { " +
+	                                                     "if (index.terms[k].lastIndexOf(terms[i], 0) !== 0) { break; } " +
+	                                                     "r = 0; $.each(index.postings[k], function(j, gap) { r += gap; found[r] = true; }); " +
+	                                                   "} " +
+	                                                   "if (keep === null) { keep = found; } else { for (row in keep) { if (found[row] !== true) { delete keep[row]; } } } " +
+	                                                 "} " +
+	                                                 "return keep; " +
+	                                               "}";
+
+	private String[] terms = null;                  // The distinct words, sorted
+	private int[][] postings = null;                // For each term, the rows it appears in, delta-encoded
+
+	/**
+	 * Creates the index of the given table rows. Rows are numbered from 0, in the given order.
+	 *
+	 * @param rows - the &lt;tr&gt; elements of the table body
+	 */
+	public SearchIndex(Elements rows) {
+		this(cellText(rows));
+	}
+
+	/**
+	 * Creates the index of the given cell text. Rows are numbered from 0, in the given order.
+	 *
+	 * @param rows - for each row, the text of each of its cells
+	 */
+	SearchIndex(List<String[]> rows) {
+		super();
+		Map<String, List<Integer>> words = new TreeMap<String, List<Integer>>();
+		for (int r = 0; r < rows.size(); r++) {
+			for (String text : rows.get(r)) {
+				for (String word : words(text)) {
+					List<Integer> wordRows = words.get(word);
+					if (wordRows == null) {
+						wordRows = new ArrayList<Integer>();
+						words.put(word, wordRows);
+					}
+					if (wordRows.isEmpty() || wordRows.get(wordRows.size() - 1) != r) {
+						wordRows.add(r);
+					}
+				}
+			}
+		}
+		this.terms = new String[words.size()];
+		this.postings = new int[words.size()][];
+		int t = 0;
+		for (Map.Entry<String, List<Integer>> word : words.entrySet()) {
+			List<Integer> wordRows = word.getValue();
+			int[] gaps = new int[wordRows.size()];
+			int previous = 0;
+			for (int i = 0; i < gaps.length; i++) {
+				gaps[i] = wordRows.get(i) - previous;
+				previous = wordRows.get(i);
+			}
+			this.terms[t] = word.getKey();
+			this.postings[t] = gaps;
+			t++;
+		}
+	}
+
+	/**
+	 * @return the number of distinct words in the index
+	 */
+	public int getTermCount() {
+		return this.terms.length;
+	}
+
+	/**
+	 * @return the index as a JSON object holding its sorted terms, and the delta-encoded postings of each
+	 */
+	public JSONObject toJSON() {
+		JSONArray termList = new JSONArray();
+		JSONArray postingList = new JSONArray();
+		for (int t = 0; t < this.terms.length; t++) {
+			termList.put(this.terms[t]);
+			JSONArray gaps = new JSONArray();
+			for (int gap : this.postings[t]) {
+				gaps.put(gap);
+			}
+			postingList.put(gaps);
+		}
+		JSONObject json = new JSONObject();
+		json.put("terms", termList);
+		json.put("postings", postingList);
+		return json;
+	}
+
+	/**
+	 * Splits the given text into lowercase words: runs of WORD_CHARS. (SEARCH_FUNCTION splits search text the same way.)
+	 *
+	 * @param text - the text to split
+	 * @return the words, in the order they appear
+	 */
+	static List<String> words(String text) {
+		List<String> words = new ArrayList<String>();
+		for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+
+	// Returns the text of each td cell of each of the given rows
+	private static List<String[]> cellText(Elements rows) {
+		List<String[]> text = new ArrayList<String[]>();
+		for (Element row : rows) {
+			Elements cells = row.getElementsByTag("td");
+			String[] cellText = new String[cells.size()];
+			for (int c = 0; c < cells.size(); c++) {
+				cellText[c] = cells.get(c).text();
+			}
+			text.add(cellText);
+		}
+		return text;
+	}
+}
@@ -21,7 +21,11 @@ import org.jsoup.nodes.Element;
  *  <li>       <b>paging</b>           -  if present, and if value is <i>true</i>, then add pagination to the table<br>
  *  <li>       <b>pageLength</b>       -  if present, and if paging is <i>true</i>, then sets the size of the pages (number of rows) to display per page. Default is 10<br>
  *  <li>      <b>lengthChange</b>     -  if paging is <i>true</i>, and if present and value is <i>true</i>, then provides a drop-down list allowing user to change page size.<br>  
- *  <li>      <b>useOnlineDataTables</b> - if <i>true</i>, then load jQuery DataTables library and css from online source. Otherwise, load from local "assets/js" and "assets/css" folders.</ul>
+ *  <li>      <b>useOnlineDataTables</b> - if <i>true</i>, then load jQuery DataTables library and css from online source. Otherwise, load from local "assets/js" and "assets/css" folders.<br>
+ *  <li>      <b>dataFile</b>         -  if present, the pathname, relative to the altered html file, of a JSON file to write the table's rows to (see com.icf.iglistchanger.TableDataFile).
+ *                                     The html file then only holds the first page of rows, and DataTables pages, sorts and searches the rest from the data file.<br>
+ *  <li>      <b>searchIndex</b>      -  if searching is <i>true</i>, and if present and value is <i>true</i>, then embed an index of the table's words in the page, and search it rather than
+ *                                     every cell (see com.icf.iglistchanger.SearchIndex). A table with a dataFile always searches an index, held in the data file.</ul>
  * 
  * <p>
  * In general, the process method of this class will: <br><br>
@@ -58,10 +62,14 @@ public class SearchSort {
 	private int pageSize = 10;                   // If pagination enabled, this specifies the size (in table rows) of each page to display
 	private String tableID = "";                 // The "id" attribute of the table we are altering
 	private String tableClass = "display";       // The css "class" attribute of the table we are altering. Note: This value is appended to any existing "class" attribute value.
+	private String dataFile = "";                // If not empty, the table's rows are read from this JSON file (relative to the html page), rather than from the page
+	private int recordsTotal = 0;                // With a dataFile, the number of rows in the data file
+	private boolean useSearchIndex = false;      // If true, searches look up an index of the table's words, embedded in the page, rather than scanning the cells
+	private String searchIndex = null;           // With useSearchIndex, the index, as JSON
 	
 	// Static variables for various javascript and css files we may need to include.  Also format statements we'll use to add script and link elements to the html file.
 	// Also format statements we'll use to add script and link elements to the html file.
-	private final String fn_JQUERY_JS = "assets/js/jquery.js";
+	static final String fn_JQUERY_JS = "assets/js/jquery.js";
 	private final String fn_DATATABLES_JS = "assets/js/jquery.dataTables.min.js";
 	private final String fn_DATATABLES_CSS = "assets/css/jquery.dataTables.min.css";
 	private final String fn_DATATABLES_JS_ONLINE = "https://cdn.datatables.net/1.12.1/js/jquery.dataTables.min.js";
@@ -77,6 +85,56 @@ public class SearchSort {
 			                                                                                      "bSort: true, " +
 	                                                                                              "lengthMenu: [ %d, 10, 25, 50, 75, 100 ]" +
 	                                                                                              "}); }); </script>";
+	// The init script for a table with a dataFile. The page holds the first page of rows (deferLoading), and every later draw is answered from the data file,
+	// which is fetched once. (The script has no <, > or & characters, so it reads the same after the page is parsed as xml by a later run.)
+	private final String fmt_DATATABLES_DATA_INIT = "<script>$( document ).ready(function() { var data = null; $('#%s').DataTable({" +
+	                                                                                              "paging: %s, " +
+	                                                                                              "ordering: %s, " +
+	                                                                                              "searching: %s, " +
+	                                                                                              "pageLength: %d, " +
+	                                                                                              "lengthChange: %s, " +
+	                                                                                              "bSort: true, " +
+	                                                                                              "lengthMenu: [ %d, 10, 25, 50, 75, 100 ], " +
+	                                                                                              "order: [], " +
+	                                                                                              "serverSide: true, " +
+	                                                                                              "deferLoading: %d, " +
+	                                                                                              "ajax: function(request, callback) { " +
+	                                                                                              "(data === null ? $.getJSON('%s') : $.Deferred().resolve(data)).done(function(json) { data = json; callback(igListChangerDraw(data, request)); }); " +
+	                                                                                              "}}); }); " +
+	                                                                                              DRAW_FUNCTION + " " + SearchIndex.SEARCH_FUNCTION + " </script>";
+	// The init script for a table with a searchIndex. Searches look up the index embedded in the script, rather than scanning the cells: the search box
+	// is re-bound to filter the rows the index matches. (No <, > or & characters, as above.)
+	private final String fmt_DATATABLES_INDEX_INIT = "<script>$( document ).ready(function() { var index = %s, matches = null; " +
+	                                                                                              "$.fn.dataTable.ext.search.push(function(settings, data, dataIndex) { return settings.nTable.id !== '%s' || matches === null || matches[dataIndex] === true; }); " +
+	                                                                                              "var table = $('#%s').DataTable({" +
+	                                                                                              "paging: %s, " +
+	                                                                                              "ordering: %s, " +
+	                                                                                              "searching: %s, " +
+	                                                                                              "pageLength: %d, " +
+	                                                                                              "lengthChange: %s, " +
+	                                                                                              "bSort: true, " +
+	                                                                                              "lengthMenu: [ %d, 10, 25, 50, 75, 100 ]" +
+	                                                                                              "}); " +
+	                                                                                              "$('#%s_filter input').off().on('input', function() { matches = igListChangerSearch(index, this.value); table.draw(); }); " +
+	                                                                                              "}); " + SearchIndex.SEARCH_FUNCTION + " </script>";
+	// Answers a DataTables server-side request from a data file: keeps the rows the search index matches (see SearchIndex.SEARCH_FUNCTION), in the
+	// requested column's pre-sorted order, and returns the requested page of them.
+	private static final String DRAW_FUNCTION = "function igListChangerDraw(data, request) { " +
+	                                                                                              "var keep = data.search ? igListChangerSearch(data.search, request.search.value) : null, i, row; " +
+	                                                                                              "var n = data.rows.length, sort = request.order || []; " +
+	                                                                                              "var order = (sort.length === 0 || !data.order) ? null : data.order[sort[0].column]; " +
+	                                                                                              "var desc = (order !== null) ? sort[0].dir === 'desc' : false; " +
+	                                                                                              "var last = (request.length === -1) ? n : request.start + request.length - 1; " +
+	                                                                                              "var out = [], filtered = 0; " +
+	                                                                                              "for (i = 0; i !== n; i++) { " +
+	                                                                                              "row = (order === null) ? i : order[desc ? n - 1 - i : i]; " +
+	                                                                                              "if (keep === null || keep[row]) { " +
+	                                                                                              "if (Math.max(request.start, Math.min(filtered, last)) === filtered) { out.push(data.rows[row]); } " +
+	                                                                                              "filtered++; " +
+	                                                                                              "} " +
+	                                                                                              "} " +
+	                                                                                              "return { draw: request.draw, recordsTotal: n, recordsFiltered: filtered, data: out }; " +
+	                                                                                              "}";
 	/**
 	 * Calls the init() method of this class with the given &lt;addOns&gt; element as its argument.
 	 * Also sets the tableID value within the class, using the given tablePos value. (A table ID string is created by appending the given tablePos value to the string "Table-". This ID is used as the "id" attribute in the table being altered, unless that table already has an "id" attribute.)
@@ -116,6 +174,143 @@ public class SearchSort {
 			maybeAddJQuery(theDoc);
 		}
 	}
+
+	/**
+	 * Alters only the given table element (its id and class attributes), leaving it to the caller to add the includes returned by getCssInclude(),
+	 * getJQueryInclude(), getDataTablesInclude() and getInitScript() to the html page. (See com.icf.iglistchanger.HtmlStreamRewriter)
+	 *
+	 * @param theTable the table to alter
+	 */
+	public void processTable(Element theTable) {
+		if (this.isActive) {
+			maybeAddTableAttributes(theTable);
+		}
+	}
+
+	/**
+	 * Returns true if any one of sorting, searching, or pagination is enabled by the given &lt;addOns&gt; element.
+	 *
+	 * @param addOns - an &lt;addOns&gt; element, or null
+	 * @return true if the element enables any of the table add ons
+	 */
+	public static boolean isActive(Element addOns) {
+		return addOns != null && (addOns.attr("paging").equalsIgnoreCase("true") || addOns.attr("searching").equalsIgnoreCase("true") || addOns.attr("ordering").equalsIgnoreCase("true"));
+	}
+
+	/**
+	 * @return true if any one of sorting, searching, or pagination is enabled
+	 */
+	public boolean isActive() {
+		return this.isActive;
+	}
+
+	/**
+	 * @return the link element that includes the DataTables stylesheet. It goes after the last stylesheet link in the page.
+	 */
+	public String getCssInclude() {
+		return String.format(this.fmt_CSS_INCLUDE, (this.useOnline)? this.fn_DATATABLES_CSS_ONLINE : this.fn_DATATABLES_CSS);
+	}
+
+	/**
+	 * @return the script element that includes jquery. It is only needed if the page does not already include it.
+	 */
+	public String getJQueryInclude() {
+		return String.format(this.fmt_SCRIPT_INCLUDE, fn_JQUERY_JS);
+	}
+
+	/**
+	 * @return the script element that includes the DataTables library. It goes after the jquery include.
+	 */
+	public String getDataTablesInclude() {
+		return String.format(this.fmt_SCRIPT_INCLUDE, (this.useOnline)? this.fn_DATATABLES_JS_ONLINE : this.fn_DATATABLES_JS);
+	}
+
+	/**
+	 * @return the 'documentReady' script element that initializes the table with DataTables capabilities. It goes after the DataTables include.
+	 */
+	public String getInitScript() {
+		if (hasSearchIndex() && this.searchIndex != null) {
+			return String.format(this.fmt_DATATABLES_INDEX_INIT, this.searchIndex, this.tableID, this.tableID, this.doPage, this.doSort, this.doSearch, this.pageSize,
+					this.allowSizeChange, this.pageSize, this.tableID);
+		}
+		if (hasDataFile()) {
+			String url = this.dataFile.replace('\\', '/').replace("'", "\\'");
+			return String.format(this.fmt_DATATABLES_DATA_INIT, this.tableID, this.doPage, this.doSort, this.doSearch, this.pageSize, this.allowSizeChange, this.pageSize,
+					this.recordsTotal, url);
+		}
+		return String.format(this.fmt_DATATABLES_INIT,this.tableID, this.doPage, this.doSort, this.doSearch, this.pageSize, this.allowSizeChange, this.pageSize );
+	}
+
+	/**
+	 * @return true if the table's rows are to be written to a data file, and paged, sorted and searched from it (see getDataFile())
+	 */
+	public boolean hasDataFile() {
+		return this.isActive && !this.dataFile.isEmpty();
+	}
+
+	/**
+	 * @return true if searches are to look up an index embedded in the page (see setSearchIndex()), i.e. searching and searchIndex are enabled, and
+	 *         there is no dataFile
+	 */
+	public boolean hasSearchIndex() {
+		return this.isActive && this.doSearch && this.useSearchIndex && !hasDataFile();
+	}
+
+	/**
+	 * @param searchIndex - the index of the table's words, to embed in the init script. (Until it is set, the init script searches the cells.)
+	 */
+	public void setSearchIndex(SearchIndex searchIndex) {
+		this.searchIndex = searchIndex.toJSON().toString();
+	}
+
+	/**
+	 * @return the dataFile attribute of the &lt;addOns&gt; element: the pathname of the table's data file, relative to the altered html file. Empty if none.
+	 */
+	public String getDataFile() {
+		return this.dataFile;
+	}
+
+	/**
+	 * Drops the data file, so the table keeps all of its rows, and is paged, sorted and searched in the page - e.g. when the data file can't be written.
+	 */
+	public void clearDataFile() {
+		this.dataFile = "";
+	}
+
+	/**
+	 * @param recordsTotal - the number of rows written to the data file. (The init script tells DataTables, so it can page before the data file is read.)
+	 */
+	public void setRecordsTotal(int recordsTotal) {
+		this.recordsTotal = recordsTotal;
+	}
+
+	/**
+	 * @return true if pagination is enabled
+	 */
+	public boolean isPaging() {
+		return this.doPage;
+	}
+
+	/**
+	 * @return true if sorting is enabled
+	 */
+	public boolean isOrdering() {
+		return this.doSort;
+	}
+
+	/**
+	 * @return true if searching is enabled
+	 */
+	public boolean isSearching() {
+		return this.doSearch;
+	}
+
+	/**
+	 * @return the number of rows per page
+	 */
+	public int getPageSize() {
+		return this.pageSize;
+	}
 	
 
 	/*
@@ -131,8 +326,10 @@ public class SearchSort {
 			this.doPage = (addOns.attr("paging").equalsIgnoreCase("true"));
 			this.doSearch = (addOns.attr("searching").equalsIgnoreCase("true"));
 			this.doSort = (addOns.attr("ordering").equalsIgnoreCase("true"));
-			this.isActive = this.doPage || this.doSearch || this.doSort;
+			this.isActive = isActive(addOns);
 			this.useOnline = (addOns.attr("useOnlineDataTables").equalsIgnoreCase("true"));
+			this.dataFile = addOns.attr("dataFile").trim();
+			this.useSearchIndex = (addOns.attr("searchIndex").equalsIgnoreCase("true"));
 			// If paging is enabled, then set up the related variables...
 			if (this.doPage) { 
 				this.allowSizeChange = (addOns.attr("lengthChange").equalsIgnoreCase("true"));
@@ -140,13 +337,13 @@ public class SearchSort {
 					this.pageSize = Integer.parseInt(addOns.attr("pageLength"));
 				}
 				catch (Exception e) {
-					System.err.println("    WARNING: pageSize attribute of <addOns> element not found or not an integer. Defaults to " + this.pageSize + " table rows per page.");
+					Log.warn("    WARNING: pageSize attribute of <addOns> element not found or not an integer. Defaults to " + this.pageSize + " table rows per page.");
 				}
 			}
-			System.out.println("    Table add ons: " + addOns.toString());
+			Log.info("    Table add ons: " + addOns.toString());
 		}
 		else {
-			System.out.println("    No additional add ons. (<addOns> element not found.)");
+			Log.info("    No additional add ons. (<addOns> element not found.)");
 		}
 	}
 
@@ -170,20 +367,19 @@ public class SearchSort {
 	 */
 	private  void maybeAddJQuery(Document theDoc) {
 		
-		String cssLink = (this.useOnline)? this.fn_DATATABLES_CSS_ONLINE : this.fn_DATATABLES_CSS;
 		String jsLink =  (this.useOnline)? this.fn_DATATABLES_JS_ONLINE : this.fn_DATATABLES_JS;
 		
 		Element jqueryCSSAdd = theDoc.getElementsByAttributeValue("rel", "stylesheet").last();
 		
-	    jqueryCSSAdd.after(String.format(this.fmt_CSS_INCLUDE, cssLink));
-	    Element jqueryAdd = theDoc.getElementsByAttributeValue("src", this.fn_JQUERY_JS).last();
+	    jqueryCSSAdd.after(getCssInclude());
+	    Element jqueryAdd = theDoc.getElementsByAttributeValue("src", fn_JQUERY_JS).last();
 		
 		if (jqueryAdd == null) {
-			theDoc.body().append(String.format(this.fmt_SCRIPT_INCLUDE, this.fn_JQUERY_JS));
-			theDoc.body().append(String.format(this.fmt_SCRIPT_INCLUDE, jsLink));
+			theDoc.body().append(getJQueryInclude());
+			theDoc.body().append(getDataTablesInclude());
 		}
 		else {
-			jqueryAdd.after(String.format(this.fmt_SCRIPT_INCLUDE, jsLink));
+			jqueryAdd.after(getDataTablesInclude());
 		}
 		
 		jqueryAdd = theDoc.getElementsByAttributeValue("src", jsLink).last();
@@ -208,7 +404,6 @@ public class SearchSort {
 	  Adds a jQuery document ready javascript to the given document that adds search and sort capabilities to the given table element
 	*/
 	private  void addScripts(Element afterElement) {
-		String script = String.format(this.fmt_DATATABLES_INIT,this.tableID, this.doPage, this.doSort, this.doSearch, this.pageSize, this.allowSizeChange, this.pageSize );
-		afterElement.after(script);
+		afterElement.after(getInitScript());
 	}
 }
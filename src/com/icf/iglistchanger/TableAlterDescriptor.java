@@ -0,0 +1,527 @@
+package com.icf.iglistchanger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+import org.jsoup.select.Elements;
+
+/**
+ * An immutable table-descriptor: what a com.icf.iglistchanger.TableAlterer does to one table. (See com.icf.iglistchanger.Controller for the elements of a
+ * table-descriptor.) A descriptor is either parsed from a table-descriptor element - from a control file, or from control file text that never touches
+ * the disk (see parseAll()) - or built with a Builder:
+ *
+ * <pre>
+ * {@code
+ *   TableAlterDescriptor descriptor = TableAlterDescriptor.builder()
+ *           .targetTablePos(0)
+ *           .keepColumn()
+ *           .newColumn(0, "CMS ID", "array", "identifier", "value", "-").regex(".*FHIR")
+ *           .keepColumn()
+ *           .build();
+ * }
+ * </pre>
+ *
+ * <p>The descriptor's column specs are compiled into a com.icf.iglistchanger.ColumnPlan the first time they are needed, and the plan is kept, so a
+ * descriptor that is parsed once may be applied any number of times, by several threads at once, without being compiled again.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public final class TableAlterDescriptor {
+
+	private final Element element;                        // A detached copy of the table-descriptor element. Never changed, and never handed out.
+	private final String generatedHTMLFile;
+	private final String outputHTMLFile;                  // Empty if the descriptor has no outputHTMLFile element
+	private final Integer targetTablePos;                 // Null if the targetTablePos value is not an integer
+	private final String resourceDirectory;
+	private final String headerClass;
+	private final String headerStyle;
+	private final Element addOns;                         // The addOns element within the copy, or null
+	private volatile String canonical = null;             // The element's text without the whitespace between its elements, for equals(). Made the first time it is asked for
+	private volatile ColumnPlan plan = null;              // Compiled the first time it is asked for
+
+	private TableAlterDescriptor(Element element) {
+		super();
+		this.element = element;
+		this.generatedHTMLFile = getValue("generatedHTMLFile");
+		this.outputHTMLFile = getValue("outputHTMLFile");
+		this.resourceDirectory = getValue("resourceDirectory");
+		this.headerClass = getValue("headerClass");
+		this.headerStyle = getValue("headerStyle");
+		Integer pos = null;
+		try {
+			pos = Integer.valueOf(getValue("targetTablePos"));
+		}
+		catch (Exception e) {
+			// Reported when the descriptor is applied
+		}
+		this.targetTablePos = pos;
+		Elements els = element.getElementsByTag("addOns");
+		this.addOns = els.isEmpty() ? null : els.get(0);
+	}
+
+	/**
+	 * Creates a descriptor from a table-descriptor element. The element is copied, so later changes to it don't change the descriptor.
+	 *
+	 * @param descriptor - a table-descriptor org.jsoup.nodes.Element, e.g. from a control file
+	 * @return the descriptor
+	 */
+	public static TableAlterDescriptor parse(Element descriptor) {
+		return new TableAlterDescriptor(copy(descriptor));
+	}
+
+	/*
+	  Creates a descriptor from a table-descriptor element that nothing else holds - one just read by com.icf.iglistchanger.ControlFileReader - without
+	  copying it. The element must be the only child of a document made by newHolder(), and must not be changed afterwards.
+	*/
+	static TableAlterDescriptor adopt(Element descriptor) {
+		return new TableAlterDescriptor(descriptor);
+	}
+
+	/**
+	 * Parses the text of a control file, and returns a descriptor for each of its table-descriptor elements, in the order they appear.
+	 *
+	 * @param xml - the control file text: a table-descriptors element holding any number of table-descriptor elements
+	 * @return the descriptors. (Empty if the text holds no table-descriptor elements.)
+	 */
+	public static List<TableAlterDescriptor> parseAll(String xml) {
+		List<TableAlterDescriptor> descriptors = new ArrayList<TableAlterDescriptor>();
+		for (Element descriptor : Jsoup.parse(xml, "", Parser.xmlParser()).getElementsByTag("table-descriptor")) {
+			descriptors.add(new TableAlterDescriptor(copy(descriptor)));
+		}
+		return descriptors;
+	}
+
+	/**
+	 * @return a new, empty, Builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the generatedHTMLFile value: the pathname of the html file to edit. Empty if the descriptor has none.
+	 */
+	public String getGeneratedHTMLFile() {
+		return this.generatedHTMLFile;
+	}
+
+	/**
+	 * @return the pathname the altered html document is written to: the outputHTMLFile value or, if the descriptor has none, the generatedHTMLFile value
+	 */
+	public String getOutputHTMLFile() {
+		return this.outputHTMLFile.isEmpty() ? this.generatedHTMLFile : this.outputHTMLFile;
+	}
+
+	/**
+	 * @return true if the descriptor's targetTablePos value is an integer
+	 */
+	public boolean hasTargetTablePos() {
+		return this.targetTablePos != null;
+	}
+
+	/**
+	 * @return the position of the table to alter, among all of the tables in the html document, or -1 if the targetTablePos value is not an integer
+	 */
+	public int getTargetTablePos() {
+		return (this.targetTablePos == null) ? -1 : this.targetTablePos.intValue();
+	}
+
+	/**
+	 * @return the resourceDirectory value: the directory holding the resource files. Empty if the descriptor has none.
+	 */
+	public String getResourceDirectory() {
+		return this.resourceDirectory;
+	}
+
+	/**
+	 * @return the headerClass value, added to the class attribute of the table's thead. Empty if the descriptor has none.
+	 */
+	public String getHeaderClass() {
+		return this.headerClass;
+	}
+
+	/**
+	 * @return the headerStyle value, added to the style attribute of the table's thead. Empty if the descriptor has none.
+	 */
+	public String getHeaderStyle() {
+		return this.headerStyle;
+	}
+
+	/**
+	 * @return true if the descriptor has an &lt;addOns&gt; element that enables sorting, searching or paging
+	 */
+	public boolean hasSearchSort() {
+		return SearchSort.isActive(this.addOns);
+	}
+
+	/**
+	 * @return the dataFile attribute of an &lt;addOns&gt; element that enables sorting, searching or paging: the pathname of the table's data file,
+	 *         relative to the altered html file. Empty if the table has no data file.
+	 */
+	public String getDataFile() {
+		return hasSearchSort() ? this.addOns.attr("dataFile").trim() : "";
+	}
+
+	/**
+	 * Returns a new SearchSort for the descriptor's &lt;addOns&gt; element, for the table at the given position.
+	 *
+	 * @param tablePos - the position of the table being altered
+	 * @return the SearchSort, or null if the descriptor has no &lt;addOns&gt; element
+	 */
+	SearchSort newSearchSort(int tablePos) {
+		return (this.addOns == null) ? null : new SearchSort(this.addOns, tablePos);
+	}
+
+	/**
+	 * Returns the descriptor's column specs, compiled into a ColumnPlan. The plan is compiled the first time it is asked for, then kept.
+	 *
+	 * @return the compiled ColumnPlan
+	 */
+	public ColumnPlan getPlan() {
+		ColumnPlan compiled = this.plan;
+		if (compiled == null) {
+			synchronized (this) {
+				compiled = this.plan;
+				if (compiled == null) {
+					compiled = new ColumnPlan(this.element);
+					this.plan = compiled;
+				}
+			}
+		}
+		return compiled;
+	}
+
+	/**
+	 * Returns the JSON field paths that the descriptor's new column specs (and join) read from the resources, e.g. to read the resources with
+	 * com.icf.iglistchanger.ResourceLoader's streamJson set.
+	 *
+	 * @return the JsonProjection of the descriptor
+	 */
+	public JsonProjection getProjection() {
+		return getPlan().getProjection();
+	}
+
+	/**
+	 * @return the descriptor as a table-descriptor xml element
+	 */
+	public String toXml() {
+		return this.element.outerHtml();
+	}
+
+	/**
+	 * Two descriptors are equal if their table-descriptor elements have the same elements, attributes and values. (Layout whitespace is ignored, so a
+	 * built descriptor equals the one parsed from its toXml().)
+	 */
+	@Override
+	public boolean equals(Object other) {
+		return (other instanceof TableAlterDescriptor) && getCanonical().equals(((TableAlterDescriptor) other).getCanonical());
+	}
+
+	@Override
+	public int hashCode() {
+		return getCanonical().hashCode();
+	}
+
+	// Returns the canonical text, making it the first time it is asked for. (Two threads may both make it, with the same result.)
+	private String getCanonical() {
+		String text = this.canonical;
+		if (text == null) {
+			text = canonicalize(this.element);
+			this.canonical = text;
+		}
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return toXml();
+	}
+
+	/*
+	  Returns a copy of the given element, in a document of its own with the output settings of a parsed control file, so toXml() gives the same text
+	  as the element in its control file.
+	*/
+	private static Element copy(Element descriptor) {
+		Document holder = newHolder();
+		holder.appendChild(descriptor.clone());
+		return holder.child(0);
+	}
+
+	/*
+	  Returns an empty document with the output settings of a document parsed by jsoup's xml parser, to hold a descriptor element.
+	*/
+	static Document newHolder() {
+		Document holder = new Document("");
+		holder.outputSettings().syntax(Document.OutputSettings.Syntax.xml);
+		return holder;
+	}
+
+	/*
+	  Returns the text of the given element with its whitespace-only text removed and its other text trimmed, and without pretty printing.
+	*/
+	private static String canonicalize(Element element) {
+		Element copy = copy(element);
+		copy.ownerDocument().outputSettings().prettyPrint(false);
+		for (Element el : copy.getAllElements()) {
+			for (TextNode text : new ArrayList<TextNode>(el.textNodes())) {
+				if (text.isBlank()) {
+					text.remove();
+				}
+				else {
+					text.text(text.text().trim());
+				}
+			}
+		}
+		return copy.outerHtml();
+	}
+
+	/*
+	  Reads the text value of the first element with the given tag name. Since all elements are optional in the descriptor, a missing element is not an error.
+	*/
+	private String getValue(String tagname) {
+		Elements els = this.element.getElementsByTag(tagname);
+		return els.isEmpty() ? "" : els.get(0).ownText();
+	}
+
+	/**
+	 * Builds a TableAlterDescriptor from its parts, in the order they would appear in a table-descriptor element. Old column specs apply by their
+	 * order: the first describes column 0, and so on. A Builder is not thread safe, but each descriptor it builds is independent of it.
+	 */
+	public static class Builder {
+
+		private Element element = new Element(Tag.valueOf("table-descriptor"), "");
+		private int oldColumns = 0;                        // The number of old column specs added
+		private Element lastNewColumn = null;              // The newColumn element that nth(), maxLen() and regex() apply to
+
+		private Builder() {
+			super();
+		}
+
+		/**
+		 * @param filename - the pathname of the html file to edit
+		 * @return this builder
+		 */
+		public Builder generatedHTMLFile(String filename) {
+			return value("generatedHTMLFile", filename);
+		}
+
+		/**
+		 * @param filename - the pathname to write the altered html document to. If not set, the generatedHTMLFile is overwritten.
+		 * @return this builder
+		 */
+		public Builder outputHTMLFile(String filename) {
+			return value("outputHTMLFile", filename);
+		}
+
+		/**
+		 * @param pos - the position of the table to alter, among all of the tables in the html document. 0 for the first table.
+		 * @return this builder
+		 */
+		public Builder targetTablePos(int pos) {
+			return value("targetTablePos", Integer.toString(pos));
+		}
+
+		/**
+		 * @param directory - the directory holding the resource files
+		 * @return this builder
+		 */
+		public Builder resourceDirectory(String directory) {
+			return value("resourceDirectory", directory);
+		}
+
+		/**
+		 * @param headerClass - added to the class attribute of the table's thead
+		 * @return this builder
+		 */
+		public Builder headerClass(String headerClass) {
+			return value("headerClass", headerClass);
+		}
+
+		/**
+		 * @param headerStyle - added to the style attribute of the table's thead
+		 * @return this builder
+		 */
+		public Builder headerStyle(String headerStyle) {
+			return value("headerStyle", headerStyle);
+		}
+
+		/**
+		 * Sets the &lt;addOns&gt; element. (See com.icf.iglistchanger.SearchSort)
+		 *
+		 * @param paging - true to add pagination to the table
+		 * @param ordering - true to sort the table by clicking a column header
+		 * @param searching - true to add a search bar above the table
+		 * @param pageLength - with paging, the number of rows per page
+		 * @param lengthChange - with paging, true to let the reader change the page length
+		 * @param useOnlineDataTables - true to load DataTables from its CDN, rather than from the local assets folders
+		 * @return this builder
+		 */
+		public Builder addOns(boolean paging, boolean ordering, boolean searching, int pageLength, boolean lengthChange, boolean useOnlineDataTables) {
+			this.element.getElementsByTag("addOns").remove();
+			this.element.appendElement("addOns").attr("paging", Boolean.toString(paging)).attr("ordering", Boolean.toString(ordering))
+					.attr("searching", Boolean.toString(searching)).attr("pageLength", Integer.toString(pageLength))
+					.attr("lengthChange", Boolean.toString(lengthChange)).attr("useOnlineDataTables", Boolean.toString(useOnlineDataTables));
+			return this;
+		}
+
+		/**
+		 * Sets the dataFile attribute of the &lt;addOns&gt; element set by addOns(), so the table's rows are written to a data file, and only the first page
+		 * of rows is kept in the html page. (See com.icf.iglistchanger.TableDataFile)
+		 *
+		 * @param dataFile - the pathname of the data file, relative to the altered html file
+		 * @return this builder
+		 * @throws IllegalStateException if addOns() has not been called
+		 */
+		public Builder dataFile(String dataFile) {
+			Elements addOns = this.element.getElementsByTag("addOns");
+			if (addOns.isEmpty()) {
+				throw new IllegalStateException("dataFile applies to the addOns element, but addOns has not been set.");
+			}
+			addOns.get(0).attr("dataFile", dataFile);
+			return this;
+		}
+
+		/**
+		 * Sets the searchIndex attribute of the &lt;addOns&gt; element set by addOns(), so searches look up an index of the table's words embedded in
+		 * the page. (See com.icf.iglistchanger.SearchIndex)
+		 *
+		 * @param searchIndex - true to embed a search index
+		 * @return this builder
+		 * @throws IllegalStateException if addOns() has not been called
+		 */
+		public Builder searchIndex(boolean searchIndex) {
+			Elements addOns = this.element.getElementsByTag("addOns");
+			if (addOns.isEmpty()) {
+				throw new IllegalStateException("searchIndex applies to the addOns element, but addOns has not been set.");
+			}
+			addOns.get(0).attr("searchIndex", Boolean.toString(searchIndex));
+			return this;
+		}
+
+		/**
+		 * Sets the &lt;join&gt; element, which pairs rows with resources by key. (See com.icf.iglistchanger.RowJoin)
+		 *
+		 * @param cell - the position of the cell holding the row's key
+		 * @param rowKey - href or text
+		 * @param pattern - a regular expression that extracts the key from the row key, or null
+		 * @param resourceField - the top-level resource field that holds each resource's key
+		 * @return this builder
+		 */
+		public Builder join(int cell, String rowKey, String pattern, String resourceField) {
+			this.element.getElementsByTag("join").remove();
+			Element join = this.element.appendElement("join").attr("cell", Integer.toString(cell)).attr("rowKey", rowKey).attr("resourceField", resourceField);
+			if (pattern != null) {
+				join.attr("pattern", pattern);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds an old column spec that keeps the next column of the original table
+		 *
+		 * @return this builder
+		 */
+		public Builder keepColumn() {
+			return oldColumn("keep");
+		}
+
+		/**
+		 * Adds an old column spec that removes the next column of the original table
+		 *
+		 * @return this builder
+		 */
+		public Builder removeColumn() {
+			return oldColumn("remove");
+		}
+
+		/**
+		 * Adds a new column spec. Use nth(), maxLen() or regex() next, to choose the object of an array field, or path() to read the value with a path
+		 * expression instead.
+		 *
+		 * @param afterPos - the position of the original column the new column is added after
+		 * @param label - the column header text
+		 * @param type - string, object or array, or null if the value is read with path()
+		 * @param resourceField - the resource field to read, or null if the value is read with path()
+		 * @param subField - for an object or array field, the field to read from the object, or null
+		 * @param defaultValue - the cell text when the field can't be read
+		 * @return this builder
+		 */
+		public Builder newColumn(int afterPos, String label, String type, String resourceField, String subField, String defaultValue) {
+			this.lastNewColumn = this.element.appendElement("newColumn").attr("afterPos", Integer.toString(afterPos)).attr("label", label)
+					.attr("type", (type == null) ? "" : type).attr("resourceField", (resourceField == null) ? "" : resourceField)
+					.attr("subField", (subField == null) ? "" : subField).attr("default", (defaultValue == null) ? "" : defaultValue);
+			return this;
+		}
+
+		/**
+		 * Sets the path attribute of the last new column added, so its value is read with a path expression (see com.icf.iglistchanger.PathExpression) in
+		 * place of its type, resourceField, subField, nth, maxLen and regex. E.g.
+		 * {@code newColumn(0, "CMS ID", null, null, null, "-").path("identifier.where(system='http://hl7.org/fhir/cqi/ecqm/Measure/Identifier/cms').value")}
+		 *
+		 * @param path - for the last new column added: the path expression that reads its value
+		 * @return this builder
+		 */
+		public Builder path(String path) {
+			return newColumnAttr("path", path);
+		}
+
+		/**
+		 * @param nth - for the last new column added: first, last or the position of the array object to read
+		 * @return this builder
+		 */
+		public Builder nth(String nth) {
+			return newColumnAttr("nth", nth);
+		}
+
+		/**
+		 * @param maxLen - for the last new column added: read the first array object whose subField value is no longer than this
+		 * @return this builder
+		 */
+		public Builder maxLen(int maxLen) {
+			return newColumnAttr("maxLen", Integer.toString(maxLen));
+		}
+
+		/**
+		 * @param regex - for the last new column added: read the first array object whose subField value matches this regular expression
+		 * @return this builder
+		 */
+		public Builder regex(String regex) {
+			return newColumnAttr("regex", regex);
+		}
+
+		/**
+		 * @return a descriptor of everything added so far. The builder may go on being used, without changing the descriptor.
+		 */
+		public TableAlterDescriptor build() {
+			return TableAlterDescriptor.parse(this.element);
+		}
+
+		private Builder oldColumn(String action) {
+			this.element.appendElement("oldColumn").attr("oldPos", Integer.toString(this.oldColumns++)).attr("action", action);
+			return this;
+		}
+
+		private Builder newColumnAttr(String name, String value) {
+			if (this.lastNewColumn == null) {
+				throw new IllegalStateException(name + " applies to a new column, but no new column has been added.");
+			}
+			this.lastNewColumn.attr(name, value);
+			return this;
+		}
+
+		// Sets the text of the child element with the given tag name, replacing any earlier value
+		private Builder value(String tagname, String text) {
+			Elements els = this.element.getElementsByTag(tagname);
+			Element child = els.isEmpty() ? this.element.appendElement(tagname) : els.get(0);
+			child.text((text == null) ? "" : text);
+			return this;
+		}
+	}
+}
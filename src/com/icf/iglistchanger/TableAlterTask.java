@@ -0,0 +1,643 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Holds all of the processing state for a single table-descriptor, and performs the table alteration that the descriptor describes.
+ * A TableAlterTask is created for each table-descriptor in a control file (see com.icf.iglistchanger.Controller for the format of a table-descriptor).
+ * The descriptor itself is an immutable com.icf.iglistchanger.TableAlterDescriptor, which may be shared by any number of tasks.
+ * Since all of the state used while altering a table lives in the task - rather than in the Controller - independent tasks may be run concurrently on different threads.
+ *
+ * <p>A task is used by calling, in order: load(), processTableHeader(), processTableRows(), updateOriginalDocument().
+ * When several tasks alter the same html file, a com.icf.iglistchanger.PageJob instead calls load(Document) and replaceTable() for each, and writes the file once.
+ * When the page is rewritten by streaming (see com.icf.iglistchanger.HtmlStreamRewriter), loadFragment() is called instead of load(Document).
+ * To alter a document in memory, with resources that have already been read, see com.icf.iglistchanger.TableAlterer.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class TableAlterTask {
+
+	// Most of the following are populated by reading data from the table alteration descriptor.
+	// We could not use these vars, and instead just read from the descriptor whenever we access the data. Reading the variables in locally trades storage space
+	// in favor of processing speed, and also facilitates debugging and troubleshooting.
+
+	private String controlFilename = null;              // The control file the descriptor was read from. (Only used in diagnostic messages.)
+	private int descriptorPos = 0;                      // The position of the descriptor within the control file
+	private TableAlterDescriptor descriptor = null;     // The table alteration descriptor this task processes
+	private Document htmlDoc = null;					// The actual html file (loaded as a document) that we are editing
+	private Element oldTable = null;					// The table in the html file we are editing
+	private Element newTable = null;					// The rebuilt table: a copy of the actual table's element, filled with the kept (moved) and new cells
+	private int targetTablePos = 0;					    // Which table in the html file to edit. (The file may contain more than one table.)
+	private List<String> resourceFilenames = null;		// The names of the .json resource files that we'll use to populate new columns in the table
+	private List<JSONObject> resources = null;          // The corresponding list of .json documents
+	private ExtractionMemo memo = null;                 // The cell values already extracted from the resources, shared with the other tasks using them
+	private String resourceDir = null;                  // The full or relative path to the directory where the resource files are located
+	private String outputHTMLFilename = null;           // The full or relative pathname of the file to write the altered html document to
+	private ResourceCache resourceCache = null;         // Optional cache of parsed resource directories, shared with other tasks
+	private boolean isFragment = false;                 // If true, htmlDoc holds only the target table, rather than the whole html page
+	private boolean isInMemory = false;                 // If true, the document and resources were given (see TableAlterer), and no files are written
+	private SearchSort searchSort = null;               // The sorting, searching and paging add ons for the table, if the descriptor has an <addOns> element
+	private int rowsProduced = 0;                       // The number of rows added to the new table since the task was loaded
+	private int cellsProduced = 0;                      // The number of header and row cells added to the new table since the task was loaded
+
+	/**
+	 * Creates a task for the given table-descriptor element. No files are read until load() is called.
+	 *
+	 * @param descriptor - a table-descriptor org.jsoup.nodes.Element from a control file
+	 * @param descriptorPos - the position of the descriptor within its control file
+	 * @param controlFilename - the pathname of the control file the descriptor was read from
+	 */
+	public TableAlterTask(Element descriptor, int descriptorPos, String controlFilename) {
+		this(TableAlterDescriptor.parse(descriptor), descriptorPos, controlFilename);
+	}
+
+	/**
+	 * Creates a task for the given descriptor. No files are read until load() is called.
+	 *
+	 * @param descriptor - the table-descriptor
+	 * @param descriptorPos - the position of the descriptor within its control file
+	 * @param controlFilename - the pathname of the control file the descriptor was read from, or null if it wasn't read from a file
+	 */
+	public TableAlterTask(TableAlterDescriptor descriptor, int descriptorPos, String controlFilename) {
+		super();
+		this.descriptor = descriptor;
+		this.descriptorPos = descriptorPos;
+		this.controlFilename = controlFilename;
+	}
+
+	/**
+	 * Runs the complete alteration for this task's descriptor: loads the html file and resources, rebuilds the target table, and writes the altered document.
+	 */
+	public void run() {
+		load();
+		processTableHeader();
+		processTableRows();
+		updateOriginalDocument();
+	}
+
+	/**
+	 * Returns the value of the generatedHTMLFile element of this task's descriptor
+	 *
+	 * @return pathname of the html file to edit
+	 */
+	public String getGeneratedHTMLFilename() {
+		return this.descriptor.getGeneratedHTMLFile();
+	}
+
+	/**
+	 * Returns the pathname the altered html document will be written to. If the descriptor has no outputHTMLFile element, this is the generatedHTMLFile pathname.
+	 *
+	 * @return pathname of the file to write the altered html document to
+	 */
+	public String getOutputHTMLFilename() {
+		return this.descriptor.getOutputHTMLFile();
+	}
+
+	/**
+	 * Returns the value of the resourceDirectory element of this task's descriptor
+	 *
+	 * @return the full or relative path to the directory where the resource files are located
+	 */
+	public String getResourceDirectory() {
+		return this.descriptor.getResourceDirectory();
+	}
+
+	/**
+	 * Returns the pathname the table's data file will be written to: the dataFile of the descriptor's &lt;addOns&gt; element, resolved against the
+	 * folder of the output html file.
+	 *
+	 * @return pathname of the table's data file, or null if the table has no data file
+	 */
+	public String getDataFilename() {
+		String dataFile = this.descriptor.getDataFile();
+		if (dataFile.isEmpty()) {
+			return null;
+		}
+		File page = new File(getOutputHTMLFilename()).getAbsoluteFile();
+		return new File(page.getParentFile(), dataFile).getPath();
+	}
+
+	/**
+	 * Returns the table-descriptor this task processes
+	 *
+	 * @return the immutable TableAlterDescriptor
+	 */
+	public TableAlterDescriptor getDescriptor() {
+		return this.descriptor;
+	}
+
+	/**
+	 * Sets the cache this task reads its resource directory through. If no cache is set, the resource directory is read directly.
+	 *
+	 * @param resourceCache - a cache of parsed resource directories, possibly shared with other tasks
+	 */
+	public void setResourceCache(ResourceCache resourceCache) {
+		this.resourceCache = resourceCache;
+	}
+
+	/**
+	 * Reads this task's resource directory into its ResourceCache, ahead of load(), so the directory is already parsed when the task needs it.
+	 * Does nothing if the task has no cache, or the cache keeps nothing.
+	 */
+	public void prefetchResources() {
+		if (this.resourceCache == null || !this.resourceCache.isEnabled()) {
+			return;
+		}
+		try {
+			this.resourceCache.get(getResourceDirectory(), getProjection());
+		}
+		catch (Exception e) {
+			Log.warn("    WARNING: Unable to prefetch the resource directory '" + getResourceDirectory() + "'. It will be read when it is needed. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the position of this task's descriptor within its control file
+	 *
+	 * @return 0 for the first descriptor, 1 for the second, and so on.
+	 */
+	public int getDescriptorPos() {
+		return this.descriptorPos;
+	}
+
+	/**
+	 * Initializes all of the processing variables from the table alteration descriptor: opens the html file, locates the target table, and reads the resource files.
+	 */
+	public void load() {
+
+		/*
+		<table-descriptors>
+		    <table-descriptor>
+		        <generatedHTMLFile>C:\ICF-work\Dev\Measures\Ecqm-content-r4-2021\git-myFork\ecqm-content-r4-2021\output\measures.html</generated>
+		        <outputHTMLFile>measures-new.html</outputHTMLFile>
+		        <targetTablePos>0</targetTablePos>
+		        <addOns paging="true" ordering="true" searching="true" pageLength="5" lengthChange="false" useOnlineDataTables="true" />
+		        <headerClass>navbar navbar-inverse</headerClass>
+		        <headerStyle>color:white;</headerStyle>
+		        <resourceDirectory>C:\ICF-work\Dev\Measures\Ecqm-content-r4-2021\git-myFork\ecqm-content-r4-2021\input\resources\measure</resourceDirectory>
+		        <oldColumn oldPpos="0" action="keep" resourceField="title"></oldColumn>
+		        <newColumn afterPos="0" label="CMS ID" resourceField="identifier" subField="value" type="array" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
+		        <oldColumn oldPpos="1" action="keep"  resourceField="description"></oldColumn>
+		        <newColumn afterPos="1" label="Name" resourceField="name" subField="value" type="string" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
+		        <newColumn afterPos="1" label="Start" resourceField="effectivePeriod" subField="start" type="object" nth="" maxLen="" regex=".*FHIR" default="-"></newColumn>
+		        <newColumn afterPos="1" label="Contact" resourceField="contact" subField="telecom" type="array" nth="first" maxLen="" regex=".*FHIR" default="-"></newColumn>
+		    </table-descriptor>
+		  </table-descriptors>
+		  */
+
+		String targetFilename =  getGeneratedHTMLFilename();
+		Log.info("\n\nProcessing file '" + targetFilename + "' (descriptor " + this.descriptorPos + ")");
+		if (targetFilename == null || targetFilename.isEmpty()) {
+			Log.error("   ERROR: No file found. Check '<generatedHTMLFile>' element");
+			return;
+		}
+
+		Document doc = FileUtils.parseXHtmlFile(targetFilename); // open the actual html file (generated by tooling) as an html Document
+		if (doc == null) {
+			Log.error("   ERROR: No file found. Check '<generatedHTMLFile>' element");
+			return;
+		}
+		load(doc);
+	}
+
+	/**
+	 * Initializes all of the processing variables from the table alteration descriptor, using an html document that has already been read:
+	 * locates the target table within the given document, and reads the resource files.
+	 * This lets several descriptors that alter tables in the same html file share a single parsed document. (See com.icf.iglistchanger.PageJob)
+	 *
+	 * @param doc - the html document containing the table to alter
+	 */
+	public void load(Document doc) {
+		load(doc, null);
+	}
+
+	/**
+	 * Initializes all of the processing variables from the table alteration descriptor, using an html document and resources that have already been
+	 * read: locates the target table within the given document. No files are read.
+	 *
+	 * @param doc - the html document containing the table to alter
+	 * @param resourceSet - the resources to populate the new columns from, or null to read the descriptor's resourceDirectory
+	 */
+	public void load(Document doc, ResourceSet resourceSet) {
+		this.htmlDoc = doc;
+		this.isFragment = false;
+		this.isInMemory = (resourceSet != null);
+		if (this.htmlDoc == null) {
+			return;
+		}
+		if (!this.descriptor.hasTargetTablePos()) {
+			Log.error("    ERROR: Problem determining targetTablePos value. It must be an integer.");
+		}
+		this.targetTablePos = this.descriptor.getTargetTablePos();                       // The actual html file may have multiple tables. This tells us which one we will alter
+		this.oldTable = getTargetTable();                                              // The table element from the target html file, determined by the nth position, above
+		if (this.oldTable == null) {
+			return;  // Whaddya gonna do if there's no table to alter?
+		}
+		loadTableData(resourceSet);
+	}
+
+	/**
+	 * Initializes all of the processing variables from the table alteration descriptor, using a document that holds only the target table - the table
+	 * at targetTablePos, cut out of the html page - and reads the resource files. The table is altered within the fragment, and any includes its
+	 * add ons need (see getSearchSort()) are left for the caller to add to the page.
+	 *
+	 * @param fragment - a document whose first table is the table to alter
+	 */
+	public void loadFragment(Document fragment) {
+		this.htmlDoc = fragment;
+		this.isFragment = true;
+		this.isInMemory = false;
+		if (this.htmlDoc == null) {
+			return;
+		}
+		this.targetTablePos = getTargetTablePos();
+		this.oldTable = this.getFirstElementWithTag(fragment, "table");
+		if (this.oldTable == null) {
+			Log.error("    ERROR: No table elements were found in this html file.");
+			return;
+		}
+		loadTableData(null);
+	}
+
+	/*
+	  Starts the new table, and reads the resource files - unless the resources are given. (Common to load(Document) and loadFragment().)
+	*/
+	private void loadTableData(ResourceSet resourceSet) {
+		this.newTable = emptyCopy(this.oldTable);                                      // The table element, without its contents - processTableHeader() and processTableRows() fill it
+		this.rowsProduced = 0;
+		this.cellsProduced = 0;
+
+
+		this.resourceDir = getResourceDirectory();                                     // where the resource files are located
+		if (resourceSet == null) {
+			resourceSet = (this.resourceCache == null) ? ResourceSet.load(this.resourceDir) : this.resourceCache.get(this.resourceDir, getProjection());
+		}
+		this.resourceFilenames = resourceSet.getFilenames();                           // the list of resource filenames found in the above dir
+		this.resources = resourceSet.getResources();                                   // and the corresponding parsed resources
+		this.memo = resourceSet.getMemo();                                             // and the values other descriptors have already extracted from them
+		this.outputHTMLFilename = getOutputHTMLFilename();                             // Optional name of a file to output when we finish editing. (If not present, we overwrite the original.)
+		getPlan();
+		if (this.resourceFilenames.isEmpty()) {
+			Log.error("    **ERROR:  No resources files found at: " + resourceSet.getDirectory() + "\n   Table-Descriptor Default column values will be used throughout."
+					+ ((this.controlFilename == null) ? "" : " See " + this.controlFilename));
+		}
+
+
+	}
+
+	/**
+	 * Using the data from the table alteration descriptor, re-generate the target table's header info
+	 * by moving existing columns from the original table to a new table, and by creating new columns
+	 * based on the new-cols specs from the descriptor.
+	 * (Kept cells are moved rather than copied, so once the header and rows are processed, the original table is no longer whole. It is replaced by the
+	 * new table in replaceTable().)
+	 */
+	public void processTableHeader() {
+		if (this.oldTable == null) {
+			return;
+		}
+		Element header =  this.getFirstElementWithTag(oldTable, "thead"); //.oldTable.getElementsByTag("thead").get(0);   // Assumes the source table we are working with has a single header element.
+		boolean isMovable = isMovable(header);
+		Element newHeader = emptyCopy(header);                             // Copy the header element, without its children
+		// If there are additional class or style elements specified in the descriptor, then add those to the new table's header element.
+		String oldClass = newHeader.attr("class");
+		String oldStyle = newHeader.attr("style");
+		String newClass = oldClass + " " + this.descriptor.getHeaderClass();
+		String newStyle = oldStyle + " " + this.descriptor.getHeaderStyle();
+		if (!newClass.isEmpty()) {
+			newHeader.attr("class", newClass);
+		}
+		if (!newStyle.isEmpty()) {
+			newHeader.attr("style", newStyle);
+		}
+
+		Element row =  this.getFirstElementWithTag(header, "tr"); //   header.getElementsByTag("tr").get(0);
+		Element newRow = emptyCopy(row);                                   // Copy the single row (<tr>) of the source table header, without its children. (We'll re-populate from the source, with changes.)
+		Elements oldCols = row.getElementsByTag("th");                     // Get the header column elements from the source
+		ColumnPlan plan = getPlan();
+		for (int i = 0; i < oldCols.size(); i++ ) {                        // For each header column, if we want to keep the column, move it from the source to the new header row.
+			Element oldCol = oldCols.get(i);
+			if (plan.isKept(i)) {
+				Log.debug("    Keeping column " + i + ", " + oldCol.ownText());
+				newRow.appendChild(isMovable ? oldCol : oldCol.clone());
+				this.cellsProduced++;
+			}
+			else if (plan.isRemoved(i)) {
+				Log.debug("    Removing column " + i + ", " + oldCol.ownText());
+			}
+			// (If there is no old column spec for this position, then we just skip this one and move on.)
+			for (ColumnSpec newColSpec : plan.getNewColumns(i)) {            // Now see if there are any new columns to add after the current column position we are working on (via the after-pos column specs)
+				Log.debug("    Adding column: " +   newColSpec.toString());
+				newRow.appendElement("th").text(newColSpec.getLabel());
+				this.cellsProduced++;
+			}
+
+		}
+		this.newTable.empty();                                       // Clear the new table element
+		newHeader.appendChild(newRow);                               // Add the new row to the new header
+		this.newTable.appendChild(newHeader);                        // Add the new header to the new table
+		//System.out.println("\n\n" + this.newTable + "\n\n");
+
+		//
+		this.searchSort = this.descriptor.newSearchSort(this.targetTablePos);      // Applied to the table once its rows are built. (See processTableRows())
+		if (this.searchSort == null) {
+			Log.info("    No additional add ons. (<addOns> element not found.)");
+		}
+
+
+
+	}
+
+	/**
+	 * Using the data from the table alteration descriptor, re-generate the target table's rows
+	 * by moving existing row columns from the original table to a new table, and by creating new row columns
+	 * based on the new-cols specs from the descriptor, and populating those new columns with data from
+	 * the corresponding resource json object based on the new-column spec data for each new column.
+	 */
+	public void processTableRows() {
+		if (oldTable == null) {
+			return;
+		}
+		Element body =  this.getFirstElementWithTag(oldTable, "tbody"); //.oldTable.getElementsByTag("tbody").get(0);   // Assumes the source table we are working with has a single tbody element.
+		boolean isMovable = isMovable(body);
+		Element newBody = emptyCopy(body);                       // Copy the body element, without its children
+		ColumnPlan plan = getPlan();
+		Elements rows = body.getElementsByTag("tr");                     // Now cycle through each row of the source table...
+		RowJoin.Index joinIndex = null;
+		if (plan.getJoin() != null) {
+			// Rows are paired with resources by key, so the order of the resource files doesn't matter.
+			joinIndex = plan.getJoin().index(this.resources, this.resourceFilenames);
+		}
+		else if (rows.size() < this.resources.size()) {
+			Log.warn("WARNING: there are more resources in the specified resource directory than there are rows in the table.");
+		}
+		// First pair each row with its resource, then extract the new cells of every row (in parallel, for a large table - see RowCells), and only
+		// then rebuild the rows, here, in row order: the jsoup nodes are only ever changed by this thread.
+		List<Elements> rowCols = new ArrayList<Elements>(rows.size());
+		List<JSONObject> rowResources = new ArrayList<JSONObject>(rows.size());
+		for (int r=0; r < rows.size(); r++) {
+			if (joinIndex == null && r >= this.resources.size()) {
+				// Hmmm...we've run out of resources, so I guess just skip this row, since the resources are really the source of truth for this table data.
+				// Actually, just break out of the loop. No sense continuing on if there aren't any more resources.
+				Log.warn("WARNING: the number of resources in the specified resource directory is less than the number of rows in the table.");
+				break;
+			}
+			Elements oldCols = rows.get(r).getElementsByTag("td");
+			JSONObject resource = null;                                      // Get the corresponding resource for this row...
+			if (joinIndex != null) {
+				resource = joinIndex.lookup(plan.getJoin().rowKey(oldCols), r);  // ...the resource whose key matches the row's key
+			}
+			else {
+				resource = this.resources.isEmpty() ? null : this.resources.get(r);  // ...ASSUMPTION: The resource list is one-to-one with the rows in the table, in the same order.
+			}
+			rowCols.add(oldCols);
+			rowResources.add(resource);
+		}
+		int[] widths = new int[rowCols.size()];
+		for (int r = 0; r < widths.length; r++) {
+			widths[r] = rowCols.get(r).size();
+		}
+		String[][] newCells = RowCells.extract(plan, this.memo, rowResources.toArray(new JSONObject[widths.length]), widths);
+
+		for (int r = 0; r < widths.length; r++) {
+			Element newRow = emptyCopy(rows.get(r));                         // Copy the row, without its children. (We'll re-populate from the source, with changes.)
+			Elements oldCols = rowCols.get(r);
+			int c = 0;                                                       // The next of the row's new cells to add
+			for (int i = 0; i < oldCols.size(); i++ ) {                      // For each column in the source row, if we want to keep the column, move it from the source to the new row.
+				if (plan.isKept(i)) {
+					newRow.appendChild(isMovable ? oldCols.get(i) : oldCols.get(i).clone());
+					this.cellsProduced++;
+				}
+				for (int n = plan.getNewColumns(i).length; n > 0; n--) {    // Now add any new columns that go after the current column position (via the after-pos column specs)
+					newRow.appendElement("td").text(newCells[r][c++]);
+					this.cellsProduced++;
+				}
+			}
+			newBody.appendChild(newRow);                                     // Add this new row to the new body
+			this.rowsProduced++;
+		}
+		if (joinIndex != null) {
+			joinIndex.report();
+		}
+		this.newTable.appendChild(newBody);                              // Add the new body to the new table
+		//System.out.println("\n\nNew Table:\n" + this.newTable + "\n\n");
+
+		if (this.searchSort != null) {
+			if (this.searchSort.hasDataFile()) {
+				writeDataFile(newBody);
+			}
+			else if (this.searchSort.hasSearchIndex()) {
+				this.searchSort.setSearchIndex(new SearchIndex(newBody.children()));
+			}
+			if (this.isFragment) {
+				this.searchSort.processTable(this.newTable);               // The page isn't here to add the includes to - the caller adds them
+			}
+			else {
+				this.searchSort.process(this.htmlDoc, this.newTable);
+			}
+		}
+	}
+
+	/**
+	 * Replace the oldTable element in the original html document with the newTable element (that we've built in the processTableHeader() and processTableRows() methods).
+	 */
+	public void updateOriginalDocument() {
+		if (replaceTable()) {
+			writeHTMLFile(this.htmlDoc);
+		}
+	}
+
+	/**
+	 * Replace the oldTable element in the html document with the newTable element, without writing the document to a file.
+	 * (Used when several descriptors alter the same document, which is then written once. See com.icf.iglistchanger.PageJob)
+	 *
+	 * @return true if the table was replaced, false if there was no table to replace
+	 */
+	public boolean replaceTable() {
+		if (this.oldTable != null && this.newTable != null) {
+			this.oldTable.replaceWith(this.newTable);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Releases the html document, tables and resources held by this task, once it has been processed.
+	 */
+	public void release() {
+		this.htmlDoc = null;
+		this.searchSort = null;
+		this.oldTable = null;
+		this.newTable = null;
+		this.resources = null;
+		this.memo = null;
+		this.resourceFilenames = null;
+	}
+
+	/**
+	 * Returns the value of the targetTablePos element of this task's descriptor. Unlike load(), no error is reported if the value is not an integer.
+	 *
+	 * @return the position of the table to alter, among all of the tables in the html file, or -1 if the value is not an integer
+	 */
+	public int getTargetTablePos() {
+		return this.descriptor.getTargetTablePos();
+	}
+
+	/**
+	 * Returns true if this task's descriptor has an &lt;addOns&gt; element that enables sorting, searching or paging, so that the html page will need
+	 * the jquery and DataTables includes.
+	 *
+	 * @return true if the table add ons are enabled
+	 */
+	public boolean hasSearchSort() {
+		return this.descriptor.hasSearchSort();
+	}
+
+	/**
+	 * Returns the table add ons created by processTableHeader(), or null if the descriptor has no &lt;addOns&gt; element (or the header has not been processed yet).
+	 *
+	 * @return the SearchSort for the table, or null
+	 */
+	public SearchSort getSearchSort() {
+		return this.searchSort;
+	}
+
+	/**
+	 * Returns the number of rows processTableRows() has added to the new table since the task was loaded
+	 *
+	 * @return the number of rows produced
+	 */
+	public int getRowsProduced() {
+		return this.rowsProduced;
+	}
+
+	/**
+	 * Returns the number of header and row cells processTableHeader() and processTableRows() have added to the new table since the task was loaded
+	 *
+	 * @return the number of cells produced
+	 */
+	public int getCellsProduced() {
+		return this.cellsProduced;
+	}
+
+	/**
+	 * Returns the JSON field paths that this task's new column specs read from the resources. (If the resources are read with streamJson set, only these fields are kept.)
+	 *
+	 * @return the JsonProjection of the descriptor's newColumn resourceField/subField attributes
+	 */
+	public JsonProjection getProjection() {
+		return getPlan().getProjection();
+	}
+
+	/**
+	 * Returns the descriptor's column specs, compiled into a ColumnPlan. The plan is compiled the first time it is asked for (by any task that shares the descriptor).
+	 *
+	 * @return the compiled ColumnPlan
+	 */
+	public ColumnPlan getPlan() {
+		return this.descriptor.getPlan();
+	}
+
+	/*
+	  Using the targetTablePos item from the descriptor, return the nth html table from the file, where n is the targetTablePos
+    */
+	private Element getTargetTable() {
+		Element table = null;
+		if (this.htmlDoc != null) {
+			Elements tables = this.htmlDoc.getElementsByTag("table");
+			if (tables == null || tables.isEmpty()) {
+				Log.error("    ERROR: No table elements were found in this html file.");
+			}
+			else {
+				try {
+					table = tables.get(this.targetTablePos);
+				}
+				catch (Exception e) {
+					Log.error("    ERROR: The target table position, " + targetTablePos + " is invalid given the number of tables in the file, " + tables.size());
+				}
+			}
+
+		}
+		return table;
+	}
+
+
+	/*
+	  Write the html document to the (full path) outputHTMLFilename as specified in the table alteration descriptor.
+	  Note: If no outputHTMLFilename value is provided in the descriptor, the html document is written to the original html file.
+    */
+	private boolean writeHTMLFile(Document doc) {
+		Log.info("Writing document to: " +this.outputHTMLFilename );
+		return FileUtils.writeXHtmlFile(doc, this.outputHTMLFilename);
+	}
+
+	/*
+	  Writes the rows of the given new table body to the data file named by the <addOns> element, next to the output html file, then drops all but the
+	  first page of rows from the table - the rest are read from the data file. If the data file can't be written, the table keeps all of its rows.
+	*/
+	private void writeDataFile(Element newBody) {
+		if (this.isInMemory) {
+			Log.info("    The dataFile of the <addOns> element is ignored, since the table is altered in memory. The table keeps all of its rows.");
+			this.searchSort.clearDataFile();
+			return;
+		}
+		Elements rows = newBody.children();
+		TableDataFile data = new TableDataFile(rows);
+		String filename = getDataFilename();
+		Log.info("Writing table data to: " + filename);
+		if (!data.write(filename, this.searchSort.isOrdering(), this.searchSort.isSearching())) {
+			this.searchSort.clearDataFile();
+			return;
+		}
+		this.searchSort.setRecordsTotal(data.getRecordsTotal());
+		if (this.searchSort.isPaging()) {
+			for (int r = rows.size() - 1; r >= this.searchSort.getPageSize(); r--) {
+				rows.get(r).remove();
+			}
+		}
+	}
+
+	/*
+	  Returns a new element with the same tag and attributes as the given element, but none of its children. (The same as cloning the element and
+	  emptying the clone, without copying the whole subtree first.)
+	*/
+	private static Element emptyCopy(Element el) {
+		return new Element(el.tag(), el.baseUri(), el.attributes().clone());
+	}
+
+	/*
+	  Returns true if the kept cells of the given thead or tbody can be moved into the new table, rather than copied: every row is a child of the
+	  section, and every cell a child of a row. Otherwise - e.g. a cell holds a nested table, whose rows and cells are picked up as rows and cells of
+	  this table too - moving a cell could take it out of another cell that is moved, or copied, later, so the cells are copied as before.
+	*/
+	private static boolean isMovable(Element section) {
+		for (Element el : section.getAllElements()) {
+			String tag = el.tagName();
+			if (tag.equals("table")
+					|| (tag.equals("tr") && el.parent() != section)
+					|| ((tag.equals("td") || tag.equals("th")) && !el.parent().tagName().equals("tr"))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Returns the first Element of tagName within the given target Element. If no is found, returns null;
+	private Element getFirstElementWithTag(Element target, String tagName) {
+		Elements els = target.getElementsByTag(tagName);
+		if (els == null || els.isEmpty()) {
+			return null;
+		}
+		else {
+			return els.get(0);
+		}
+	}
+}
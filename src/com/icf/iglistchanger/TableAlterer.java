@@ -0,0 +1,78 @@
+package com.icf.iglistchanger;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.jsoup.nodes.Document;
+
+/**
+ * The in-process entry point for altering tables: applies a TableAlterDescriptor to an html Document that is already in memory, populating the new
+ * columns from a ResourceSet that is already in memory, so that no file is read or written. This is for embedding the table alterations in another
+ * application - e.g. a publishing service that alters many pages a day.
+ *
+ * <p>The alterer holds no state. Descriptors (see TableAlterDescriptor.parseAll()) and resources (see ResourceSet.of(), or a ResourceCache) are
+ * immutable, so they may be parsed once and then shared by any number of calls, on any number of threads. Only the Document is changed, so a Document
+ * must not be altered by two calls at once.</p>
+ *
+ * <pre>
+ * {@code
+ *   List<TableAlterDescriptor> descriptors = TableAlterDescriptor.parseAll(controlXml);       // once
+ *   ResourceSet resources = resourceCache.get(directory);                                     // once, or whenever the resources change
+ *   ...
+ *   Document page = Jsoup.parse(html, "", Parser.xmlParser());                               // for each request
+ *   TableAlterer.apply(page, descriptors.get(0), resources);
+ *   String altered = page.outerHtml();
+ * }
+ * </pre>
+ *
+ * <p>Messages about the alterations are written to com.icf.iglistchanger.Log, as they are when running a control file.</p>
+ *
+ * @author Dan Donahue
+ *
+ */
+public final class TableAlterer {
+
+	private TableAlterer() {
+	}
+
+	/**
+	 * Alters the descriptor's target table within the given document: rebuilds the table's header and rows, with the new columns populated from the
+	 * given resources, replaces the table, and adds any includes the descriptor's add ons need. The descriptor's file and directory values are ignored.
+	 *
+	 * @param doc - the html document holding the table to alter. It is changed in place.
+	 * @param descriptor - what to do to the table
+	 * @param resources - the resources to populate the new columns from. If null, the new columns get their default values.
+	 * @return true if the table was altered, false if the descriptor's target table was not found in the document
+	 */
+	public static boolean apply(Document doc, TableAlterDescriptor descriptor, ResourceSet resources) {
+		if (resources == null) {
+			resources = ResourceSet.of(Collections.<String>emptyList(), Collections.<JSONObject>emptyList());
+		}
+		TableAlterTask task = new TableAlterTask(descriptor, 0, null);
+		task.load(doc, resources);
+		task.processTableHeader();
+		task.processTableRows();
+		boolean isReplaced = task.replaceTable();
+		task.release();
+		return isReplaced;
+	}
+
+	/**
+	 * Applies each of the given descriptors to the given document, in order, with the resources of each descriptor's resourceDirectory read through
+	 * the given cache. (Each descriptor's target table is located after the previous descriptors have replaced their tables, as when running a control file.)
+	 *
+	 * @param doc - the html document holding the tables to alter. It is changed in place.
+	 * @param descriptors - what to do to the tables
+	 * @param resourceCache - the cache the descriptors' resource directories are read through, and kept in between calls
+	 * @return true if every descriptor's table was altered, false otherwise
+	 */
+	public static boolean apply(Document doc, List<TableAlterDescriptor> descriptors, ResourceCache resourceCache) {
+		boolean isAltered = true;
+		for (TableAlterDescriptor descriptor : descriptors) {
+			ResourceSet resources = resourceCache.get(descriptor.getResourceDirectory(), descriptor.getProjection());
+			isAltered = apply(doc, descriptor, resources) && isAltered;
+		}
+		return isAltered;
+	}
+}
@@ -0,0 +1,164 @@
+package com.icf.iglistchanger;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * The sidecar data file of a table whose &lt;addOns&gt; element has a dataFile attribute: the table's rows, as JSON, for the DataTables init script
+ * written by com.icf.iglistchanger.SearchSort to page, sort and search, so the html page only carries the first page of rows. The file holds:
+ * <ul>
+ * <li><b>recordsTotal</b>  the number of rows</li>
+ * <li><b>rows</b>  each row, as an array holding the inner html of each of its cells</li>
+ * <li><b>order</b>  if ordering is enabled, for each column, the row numbers in the column's ascending order: numeric if every non-empty cell of
+ * the column is a number, otherwise by the case-insensitive text. (Rows with equal values keep their table order.) Descending order is the array
+ * read backwards.</li>
+ * <li><b>search</b>  if searching is enabled, a com.icf.iglistchanger.SearchIndex of the cells' text, so the browser looks up the words that start
+ * with each search term, rather than looking at every cell.</li>
+ * </ul>
+ *
+ * @author Dan Donahue
+ *
+ */
+public class TableDataFile {
+
+	private List<String[]> cellHtml = new ArrayList<String[]>();          // The inner html of each cell, by row
+	private List<String[]> cellText = new ArrayList<String[]>();          // The text of each cell, by row
+	private int columns = 0;                                              // The most cells in any row
+
+	/**
+	 * Creates the data of the given table rows.
+	 *
+	 * @param rows - the &lt;tr&gt; elements of the table body, in table order
+	 */
+	public TableDataFile(Elements rows) {
+		super();
+		for (Element row : rows) {
+			Elements cells = row.getElementsByTag("td");
+			String[] html = new String[cells.size()];
+			String[] text = new String[cells.size()];
+			for (int c = 0; c < cells.size(); c++) {
+				html[c] = cells.get(c).html();
+				text[c] = cells.get(c).text();
+			}
+			this.cellHtml.add(html);
+			this.cellText.add(text);
+			this.columns = Math.max(this.columns, cells.size());
+		}
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRecordsTotal() {
+		return this.cellHtml.size();
+	}
+
+	/**
+	 * Returns the data as a JSON document.
+	 *
+	 * @param withOrder - true to include the sorted row order of each column
+	 * @param withSearch - true to include the search word index
+	 * @return the data file's JSON document
+	 */
+	public JSONObject toJSON(boolean withOrder, boolean withSearch) {
+		JSONObject json = new JSONObject();
+		json.put("recordsTotal", getRecordsTotal());
+		JSONArray rows = new JSONArray();
+		for (String[] row : this.cellHtml) {
+			rows.put(new JSONArray(Arrays.asList(row)));
+		}
+		json.put("rows", rows);
+		if (withOrder) {
+			JSONArray order = new JSONArray();
+			for (int c = 0; c < this.columns; c++) {
+				order.put(new JSONArray(Arrays.asList(sortColumn(c))));
+			}
+			json.put("order", order);
+		}
+		if (withSearch) {
+			json.put("search", new SearchIndex(this.cellText).toJSON());
+		}
+		return json;
+	}
+
+	/**
+	 * Writes the data to the given file, replacing it atomically. The file's folder is created if it doesn't exist yet.
+	 *
+	 * @param filename - pathname of the data file
+	 * @param withOrder - true to include the sorted row order of each column
+	 * @param withSearch - true to include the search word index
+	 * @return true if the file was written, false otherwise
+	 */
+	public boolean write(String filename, boolean withOrder, boolean withSearch) {
+		try {
+			Files.createDirectories(new File(filename).getAbsoluteFile().getParentFile().toPath());
+			AtomicFileWriter writer = new AtomicFileWriter(filename);
+			try {
+				toJSON(withOrder, withSearch).write(writer);
+				writer.commit();
+			}
+			finally {
+				writer.close();
+			}
+		}
+		catch (Exception e) {
+			Log.error("    ERROR: Unable to write the table data file '" + filename + "'. " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	  Returns the row numbers in the ascending order of the given column. The sort is stable, so equal values keep their table order.
+	*/
+	private Integer[] sortColumn(final int column) {
+		Integer[] order = new Integer[getRecordsTotal()];
+		final double[] numbers = new double[order.length];
+		boolean isNumeric = true;
+		for (int r = 0; r < order.length; r++) {
+			order[r] = r;
+			String text = textOf(r, column).trim();
+			if (text.isEmpty()) {
+				numbers[r] = Double.NEGATIVE_INFINITY;                     // Empty cells sort first, as DataTables sorts them
+			}
+			else if (isNumeric) {
+				try {
+					numbers[r] = Double.parseDouble(text);
+				}
+				catch (NumberFormatException e) {
+					isNumeric = false;
+				}
+			}
+		}
+		if (isNumeric) {
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(numbers[a], numbers[b]);
+				}
+			});
+		}
+		else {
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return textOf(a, column).compareToIgnoreCase(textOf(b, column));
+				}
+			});
+		}
+		return order;
+	}
+
+	// Returns the text of the given cell, or "" if the row has fewer cells
+	private String textOf(int row, int column) {
+		String[] text = this.cellText.get(row);
+		return (column < text.length) ? text[column] : "";
+	}
+}
@@ -0,0 +1,47 @@
+package com.icf.iglistchanger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+/**
+ * Checks that the cells' text is split into words by the same definition as the browser splits search text.
+ *
+ * @author Dan Donahue
+ *
+ */
+public class SearchIndexTest {
+
+	@Test
+	public void punctuationOutsideAsciiSplitsWords() {
+		// Women's Screening--FHIR <<Cafe>> (R)2024 . naive, with a right single quote, em dash, guillemets, registered sign, middle dot and accents
+		String cell = "Women\u2019s Screening\u2014FHIR \u00abCaf\u00e9\u00bb \u00ae2024 \u00b7 na\u00efve";
+		assertEquals(Arrays.asList("women", "s", "screening", "fhir", "caf\u00e9", "2024", "na\u00efve"), SearchIndex.words(cell));
+	}
+
+	@Test
+	public void lettersOutsideAsciiAreKept() {
+		assertEquals(Arrays.asList("\u03c9mega", "\u0434\u043e\u043c", "\u6771\u4eac"), SearchIndex.words("\u03a9mega \u0414\u041e\u041c \u6771\u4eac"));
+	}
+
+	@Test
+	public void indexHoldsTheWordsOfPunctuatedCells() {
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(new String[] { "Women\u2019s Health" });
+		rows.add(new String[] { "Screening\u2014FHIR" });
+		JSONArray terms = new SearchIndex(rows).toJSON().getJSONArray("terms");
+		assertEquals("[\"fhir\",\"health\",\"s\",\"screening\",\"women\"]", terms.toString());
+	}
+
+	@Test
+	public void searchFunctionSplitsWithTheSameCharacters() {
+		assertTrue(SearchIndex.SEARCH_FUNCTION.contains(".split(/[^" + SearchIndex.WORD_CHARS + "]+/)"));
+		assertTrue(SearchIndex.SEARCH_FUNCTION.indexOf('<') < 0 && SearchIndex.SEARCH_FUNCTION.indexOf('>') < 0 && SearchIndex.SEARCH_FUNCTION.indexOf('&') < 0);
+	}
+}